@@ -0,0 +1,39 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Arithmetic of {@link EmbeddingMatrix} over its off-heap rows.
+ * <p>
+ * {@link #defaultKernel()} is SIMD one, written with {@code jdk.incubator.vector}, if the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, or a scalar one otherwise.
+ */
+public interface DistanceKernel {
+
+    static DistanceKernel defaultKernel() {
+        return DistanceKernels.DEFAULT;
+    }
+
+    static DistanceKernel scalar() {
+        return ScalarDistanceKernel.INSTANCE;
+    }
+
+    /**
+     * @param offset element (not byte) index of the row inside of data
+     * @return squared euclidean distance between the row and query, which length is the dimension of the row
+     */
+    double squaredDistance(EmbeddingPrecision precision, ByteBuffer data, int offset, float[] query);
+
+    /**
+     * Scores the query against consecutive rows with a single pass: calculates euclidean distances and,
+     * if similarity function is given, converts them to similarities while they are still in CPU cache.
+     *
+     * @param offset       element (not byte) index of the first row inside of data
+     * @param rows         number of rows to score
+     * @param result       array to write scores to
+     * @param resultOffset index in result array to write score of the first row to
+     * @param similarity   function to apply to distances, {@code null} to keep distances
+     */
+    void score(EmbeddingPrecision precision, ByteBuffer data, int offset, int rows, float[] query,
+               double[] result, int resultOffset, SimilarityFunction similarity);
+}
@@ -0,0 +1,39 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Selects {@link DistanceKernel#defaultKernel()} once per JVM.
+ */
+@Slf4j
+final class DistanceKernels {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    static final DistanceKernel DEFAULT = select();
+
+    private DistanceKernels() {
+    }
+
+    private static DistanceKernel select() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                // loaded reflectively, so the class referring to the incubator module is never resolved without it
+                var kernel = (DistanceKernel) Class.forName(DistanceKernels.class.getPackageName() + ".VectorDistanceKernel")
+                                                   .getDeclaredConstructor()
+                                                   .newInstance();
+                log.info("SIMD distance kernel is used");
+
+                return kernel;
+            } catch (ClassNotFoundException e) {
+                log.info("Scalar distance kernel is used, SIMD one is built with \"vector\" Maven profile only");
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("Couldn't load SIMD distance kernel, scalar one is used", e);
+            }
+        } else {
+            log.info("Scalar distance kernel is used, start JVM with --add-modules {} to enable SIMD one", VECTOR_MODULE);
+        }
+
+        return ScalarDistanceKernel.INSTANCE;
+    }
+}
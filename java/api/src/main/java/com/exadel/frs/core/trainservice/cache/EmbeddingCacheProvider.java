@@ -1,78 +1,563 @@
 package com.exadel.frs.core.trainservice.cache;
 
+import com.exadel.frs.commonservice.entity.Embedding;
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshotStore.PersistedCollection;
 import com.exadel.frs.core.trainservice.dto.CacheActionDto;
 import com.exadel.frs.core.trainservice.service.EmbeddingService;
 import com.exadel.frs.core.trainservice.service.NotificationSenderService;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.sun.management.HotSpotDiagnosticMXBean;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static com.exadel.frs.core.trainservice.system.global.Constants.SERVER_UUID;
 
+/**
+ * Cache of embedding collections per API key, bounded by their memory: collections are weighed in KiB
+ * and evicted with W-TinyLFU policy, so rarely used models go first, whatever their number is.
+ * Collections of pinned API keys are never evicted and never expire.
+ */
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class EmbeddingCacheProvider {
 
-    private static final long CACHE_EXPIRATION = 60 * 60 * 24L;
-    private static final long CACHE_MAXIMUM_SIZE = 10;
+    private static final long CACHE_EXPIRATION = TimeUnit.HOURS.toNanos(24);
+    private static final long NEVER_EXPIRES = Long.MAX_VALUE;
+    // max number of embeddings loaded by a single query, when persisted collection is reconciled with the database
+    private static final int REPLAY_BATCH_SIZE = 1000;
 
     private final EmbeddingService embeddingService;
 
     private final NotificationSenderService notificationSenderService;
 
-    private static final Cache<String, EmbeddingCollection> cache =
-            CacheBuilder.newBuilder()
-                    .expireAfterAccess(CACHE_EXPIRATION, TimeUnit.SECONDS)
-                    .maximumSize(CACHE_MAXIMUM_SIZE)
+    private final EmbeddingSnapshotStore snapshotStore;
+
+    @Value("${app.embedding-collection.precision:FLOAT32}")
+    private EmbeddingPrecision precision = EmbeddingPrecision.FLOAT32;
+
+    @Value("${app.embedding-collection.compaction-garbage-ratio:0.2}")
+    private double compactionGarbageRatio = EmbeddingCollectionOptions.DEFAULT.compactionGarbageRatio();
+
+    @Value("${app.embedding-collection.ann.enabled:false}")
+    private boolean annEnabled;
+
+    @Value("${app.embedding-collection.ann.min-size:100000}")
+    private int annMinSize = HnswOptions.DISABLED.minSize();
+
+    @Value("${app.embedding-collection.ann.m:16}")
+    private int annM = HnswOptions.DISABLED.m();
+
+    @Value("${app.embedding-collection.ann.ef-construction:200}")
+    private int annEfConstruction = HnswOptions.DISABLED.efConstruction();
+
+    @Value("${app.embedding-collection.ann.ef-search:64}")
+    private int annEfSearch = HnswOptions.DISABLED.efSearch();
+
+    // memory of cached collections, 0 - a half of max heap. Matrices are kept in direct memory, which is limited by
+    // -XX:MaxDirectMemorySize, by default the whole max heap
+    @Value("${app.embedding-collection.cache.max-size:0}")
+    private DataSize maxSize = DataSize.ofBytes(0);
+
+    @Value("${app.embedding-collection.cache.pinned-api-keys:}")
+    private Set<String> pinnedApiKeys = Set.of();
+
+    private final Cache<String, EmbeddingCollection> cache =
+            Caffeine.newBuilder()
+                    .maximumWeight(toKibibytes(defaultMaxSize()))
+                    .weigher(this::weigh)
+                    // evicted collections are released by the writing thread right away, not by a background one
+                    .executor(Runnable::run)
+                    .expireAfter(new Expiry<String, EmbeddingCollection>() {
+                        @Override
+                        public long expireAfterCreate(final String apiKey, final EmbeddingCollection collection, final long currentTime) {
+                            return expiration(apiKey);
+                        }
+
+                        @Override
+                        public long expireAfterUpdate(final String apiKey, final EmbeddingCollection collection,
+                                                      final long currentTime, final long currentDuration) {
+                            return expiration(apiKey);
+                        }
+
+                        @Override
+                        public long expireAfterRead(final String apiKey, final EmbeddingCollection collection,
+                                                    final long currentTime, final long currentDuration) {
+                            return expiration(apiKey);
+                        }
+                    })
+                    .removalListener((String apiKey, EmbeddingCollection collection, RemovalCause cause) -> {
+                        if (cause.wasEvicted()) {
+                            log.info("Embeddings of {} are evicted from cache: {}", apiKey, cause);
+                        }
+                    })
                     .build();
 
+    // API key -> collection being loaded, removed once the load is done
+    private final ConcurrentMap<String, CompletableFuture<EmbeddingCollection>> loads = new ConcurrentHashMap<>();
+
+    // API key -> version of the latest delta received during the load, the loaded collection may miss it
+    private final ConcurrentMap<String, Long> staleLoads = new ConcurrentHashMap<>();
+
+    // API keys of collections modified since they were persisted, they are persisted on shutdown
+    private final Set<String> unsaved = ConcurrentHashMap.newKeySet();
+
+    // server UUID + API key -> sequence number of the last delta received from the server
+    private final Cache<String, Long> receivedSequences =
+            Caffeine.newBuilder()
+                    .expireAfterAccess(CACHE_EXPIRATION, TimeUnit.NANOSECONDS)
+                    .build();
+
+    @PostConstruct
+    void configure() {
+        long maxBytes = maxSize.toBytes() > 0 ? maxSize.toBytes() : defaultMaxSize();
+        cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(toKibibytes(maxBytes)));
+        long maxDirectBytes = maxDirectMemory();
+        log.info(
+                "Embedding cache is limited by {} MB, direct memory by {} MB, pinned API keys: {}",
+                maxBytes >> 20, maxDirectBytes >> 20, pinnedApiKeys.size()
+        );
+        if (maxBytes > maxDirectBytes) {
+            log.warn("Embedding cache exceeds direct memory, collections could fail to load, increase -XX:MaxDirectMemorySize");
+        }
+    }
+
+    @PreDestroy
+    void persistUnsaved() {
+        for (var apiKey : unsaved) {
+            var collection = cache.getIfPresent(apiKey);
+            if (collection != null) {
+                snapshotStore.writeAsync(apiKey, collection.snapshot(), collection.getCalculationVersion());
+            }
+        }
+    }
+
+    /**
+     * Returns cached collection or loads it. Concurrent callers of the same API key share a single load,
+     * and a single cache event is sent per load.
+     */
     public EmbeddingCollection getOrLoad(final String apiKey) {
+        return getOrLoad(apiKey, true);
+    }
 
+    /**
+     * Loads collection into the cache, if it is absent, without notifying other nodes: they warm up on their own.
+     */
+    public void preload(final String apiKey) {
+        getOrLoad(apiKey, false);
+    }
+
+    private EmbeddingCollection getOrLoad(final String apiKey, final boolean notify) {
         var result = cache.getIfPresent(apiKey);
+        if (result != null) {
+            return result;
+        }
 
-        if (result == null) {
-            result = embeddingService.doWithEnhancedEmbeddingProjectionStream(apiKey, EmbeddingCollection::from);
+        var load = new CompletableFuture<EmbeddingCollection>();
+        var inFlight = loads.putIfAbsent(apiKey, load);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
 
-            cache.put(apiKey, result);
+        try {
+            // the previous load could finish between the cache lookup and registration of this one
+            result = cache.getIfPresent(apiKey);
+            if (result == null) {
+                staleLoads.remove(apiKey);
+                result = loadCollection(apiKey);
 
-            notifyCacheEvent("UPDATE", apiKey);
-        }
+                cache.put(apiKey, result);
+                var missed = staleLoads.remove(apiKey);
+                if (missed != null && result.getVersion() < missed) {
+                    log.info("Delta of {} is received during the load, collection is reloaded", apiKey);
+                    result = loadCollection(apiKey);
+                    cache.put(apiKey, result);
+                }
+
+                if (notify) {
+                    notifyLoad(apiKey);
+                }
+            }
+
+            load.complete(result);
 
-        return result;
+            return result;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(apiKey, load);
+        }
     }
 
+    /**
+     * Modifies cached collection, if it is present. Other nodes reload the whole collection,
+     * so typed modifications below are preferred, other nodes apply them in place.
+     */
     public void ifPresent(String apiKey, Consumer<EmbeddingCollection> consumer) {
+        modify(apiKey, consumer);
+        notifyCacheEvent(CacheActionDto.UPDATE, apiKey);
+    }
+
+    public void addEmbedding(final String apiKey, final Embedding embedding) {
+        modify(apiKey, collection -> collection.addEmbedding(embedding));
+        notifyDelta(apiKey, CacheActionDto.builder().cacheAction(CacheActionDto.ADD_EMBEDDINGS), List.of(embedding.getId()));
+    }
+
+    public void removeEmbeddings(final String apiKey, final List<UUID> embeddingIds) {
+        modify(apiKey, collection -> collection.removeEmbeddings(embeddingIds));
+        notifyDelta(apiKey, CacheActionDto.builder().cacheAction(CacheActionDto.REMOVE_EMBEDDINGS), embeddingIds);
+    }
+
+    public void removeEmbeddingsBySubjectName(final String apiKey, final String subjectName) {
+        modify(apiKey, collection -> collection.removeEmbeddingsBySubjectName(subjectName));
+        notifyDelta(apiKey, CacheActionDto.builder().cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName(subjectName), List.of());
+    }
+
+    public void updateSubjectName(final String apiKey, final String oldSubjectName, final String newSubjectName) {
+        modify(apiKey, collection -> collection.updateSubjectName(oldSubjectName, newSubjectName));
+        notifyDelta(
+                apiKey,
+                CacheActionDto.builder()
+                              .cacheAction(CacheActionDto.RENAME_SUBJECT)
+                              .subjectName(oldSubjectName)
+                              .newSubjectName(newSubjectName),
+                List.of()
+        );
+    }
+
+    private void modify(final String apiKey, final Consumer<EmbeddingCollection> consumer) {
         Optional.ofNullable(cache.getIfPresent(apiKey))
                 .ifPresent(consumer);
-
-        cache.getIfPresent(apiKey);
-        notifyCacheEvent("UPDATE", apiKey);
+        // modified collection is weighed once again
+        cache.asMap().computeIfPresent(apiKey, (key, collection) -> collection);
+        unsaved.add(apiKey);
     }
 
     public void invalidate(final String apiKey) {
         cache.invalidate(apiKey);
-        notifyCacheEvent("DELETE", apiKey);
+        unsaved.remove(apiKey);
+        snapshotStore.delete(apiKey);
+        notifyCacheEvent(CacheActionDto.DELETE, apiKey);
     }
 
 
-    public void receivePutOnCache(String apiKey) {
-        var result = embeddingService.doWithEnhancedEmbeddingProjectionStream(apiKey, EmbeddingCollection::from);
+    /**
+     * Reloads the collection, unless the cached one reflects the version already, e.g. it is loaded after the change.
+     *
+     * @param version version of the collection in the database, null if it is unknown
+     */
+    public void receivePutOnCache(final String apiKey, final Long version) {
+        var cached = cache.getIfPresent(apiKey);
+        if (cached != null && version != null && cached.getVersion() >= version) {
+            log.debug("Collection {} of version {} is up to date with {}, it is not reloaded", apiKey, cached.getVersion(), version);
+            return;
+        }
+
+        var result = loadCollection(apiKey);
         cache.put(apiKey, result);
     }
 
+    /**
+     * Applies delta sent by another node to the cached collection in place. If any delta of the node is missed,
+     * the collection is reloaded. If the collection is being loaded, the load could read embeddings before the change,
+     * so it is repeated, unless the loaded version reflects the change.
+     */
+    public void receiveDelta(final CacheActionDto delta) {
+        var apiKey = delta.getApiKey();
+        var sender = delta.getServerUUID() + ':' + apiKey;
+        var present = cache.getIfPresent(apiKey);
+        if (present == null && loads.containsKey(apiKey)) {
+            staleLoads.merge(apiKey, delta.getVersion() != null ? delta.getVersion() : Long.MAX_VALUE, Math::max);
+            // the load could finish in the meantime, then the delta is applied to the loaded collection
+            present = cache.getIfPresent(apiKey);
+        }
+        if (present == null) {
+            // nothing to apply to, the next delta of the sender is checked by version
+            receivedSequences.invalidate(sender);
+            return;
+        }
+
+        var collection = present;
+        var previous = receivedSequences.asMap().put(sender, delta.getSequence());
+
+        if (delta.getVersion() != null && collection.getVersion() >= delta.getVersion()) {
+            // the collection is loaded after the change, as well as after any missed one
+            return;
+        }
+
+        if (isMissed(delta, previous, collection)) {
+            log.info("Delta {} of {} follows a missed one, collection is reloaded", delta.getSequence(), apiKey);
+            receivePutOnCache(apiKey, null);
+            return;
+        }
+
+        switch (delta.getCacheAction()) {
+            case CacheActionDto.ADD_EMBEDDINGS -> embeddingService
+                    .getEnhancedEmbeddingProjections(apiKey, delta.getEmbeddingIds())
+                    .stream()
+                    // embedding could be loaded with the collection already
+                    .filter(projection -> collection.snapshot().indexOf(projection.embeddingId()) < 0)
+                    .forEach(collection::addEmbedding);
+            case CacheActionDto.REMOVE_EMBEDDINGS -> collection.removeEmbeddings(delta.getEmbeddingIds());
+            case CacheActionDto.REMOVE_SUBJECT -> collection.removeEmbeddingsBySubjectName(delta.getSubjectName());
+            case CacheActionDto.RENAME_SUBJECT -> collection.updateSubjectName(delta.getSubjectName(), delta.getNewSubjectName());
+            default -> {
+                log.warn("Unknown delta {} of {}, collection is reloaded", delta.getCacheAction(), apiKey);
+                receivePutOnCache(apiKey, null);
+                return;
+            }
+        }
+        cache.asMap().computeIfPresent(apiKey, (key, cached) -> cached);
+        unsaved.add(apiKey);
+    }
+
+    /**
+     * Checks, if any change is missed before the delta. Sequence of the sender tells it, unless the delta is the first one
+     * received from the sender, e.g. after either node restarted. Then the version tells it: the delta is the next change
+     * of the collection, if it is stamped with the version following the cached one.
+     *
+     * @param previous sequence number of the previous delta received from the sender, null if it is unknown
+     */
+    private static boolean isMissed(final CacheActionDto delta, final Long previous, final EmbeddingCollection collection) {
+        if (previous != null) {
+            return delta.getSequence() != previous + 1;
+        }
+        if (delta.getVersion() != null) {
+            return collection.getVersion() != delta.getVersion() - 1;
+        }
+
+        return delta.getSequence() != 1;
+    }
+
+    /**
+     * Reloads the collection, if it is cached and does not reflect the version. Used, when notifications
+     * about its changes might be missed.
+     */
+    public void resync(final String apiKey, final long version) {
+        if (cache.asMap().containsKey(apiKey)) {
+            receivePutOnCache(apiKey, version);
+        }
+    }
+
     public void receiveInvalidateCache(final String apiKey) {
         cache.invalidate(apiKey);
+        unsaved.remove(apiKey);
+        snapshotStore.delete(apiKey);
+    }
+
+    /**
+     * Loads collection stamped with its version. Version is read first: changes made during the load are reflected
+     * by the collection, but not by the version, so they are not skipped once notifications about them are received.
+     */
+    private EmbeddingCollection loadCollection(final String apiKey) {
+        var version = embeddingService.getCollectionVersion(apiKey).orElse(EmbeddingCollection.UNKNOWN_VERSION);
+        var collection = readCollection(apiKey);
+        collection.advanceVersion(version);
+
+        return collection;
+    }
+
+    /**
+     * Restores persisted collection, if there is any and its embeddings are not recalculated since then, otherwise
+     * streams the whole collection from the database and persists it.
+     */
+    private EmbeddingCollection readCollection(final String apiKey) {
+        var options = collectionOptions();
+        var calculationVersion = embeddingService.getCalculationVersion(apiKey).orElse(EmbeddingCollection.UNKNOWN_VERSION);
+        var collection = snapshotStore.read(apiKey, precision, calculationVersion)
+                                      .flatMap(persisted -> restoreCollection(apiKey, persisted, options))
+                                      .orElse(null);
+        if (collection == null) {
+            collection = embeddingService.doWithEnhancedEmbeddingProjectionStream(
+                    apiKey,
+                    stream -> EmbeddingCollection.from(stream, options)
+            );
+            snapshotStore.writeAsync(apiKey, collection.snapshot(), calculationVersion);
+            unsaved.remove(apiKey);
+        }
+        collection.setCalculationVersion(calculationVersion);
+
+        return collection;
+    }
+
+    /**
+     * Replays changes made in the database since the collection was persisted. Only ids and subject names of embeddings
+     * are read to find them: persisted embeddings missing in the database are removed, subjects are renamed and only
+     * values of new embeddings are loaded.
+     *
+     * @return empty, if persisted collection is too outdated to be reconciled
+     */
+    private Optional<EmbeddingCollection> restoreCollection(final String apiKey, final PersistedCollection persisted,
+                                                            final EmbeddingCollectionOptions options) {
+        long start = System.currentTimeMillis();
+        var collection = EmbeddingCollection.restore(persisted.base(), persisted.subjectNames(), options);
+        var snapshot = collection.snapshot();
+
+        var stored = new BitSet(snapshot.rowCount());
+        var added = new ArrayList<UUID>();
+        // persisted subject name -> current one
+        var renames = new HashMap<String, String>();
+        var kept = new HashSet<String>();
+        var split = new boolean[1];
+        embeddingService.doWithEmbeddingProjectionStream(apiKey, stream -> {
+            stream.forEach(projection -> {
+                int row = snapshot.indexOf(projection.embeddingId());
+                if (row < 0) {
+                    added.add(projection.embeddingId());
+                    return;
+                }
+
+                stored.set(row);
+                var persistedName = snapshot.subjectName(row);
+                if (persistedName.equals(projection.subjectName())) {
+                    kept.add(persistedName);
+                } else {
+                    var previous = renames.putIfAbsent(persistedName, projection.subjectName());
+                    split[0] |= previous != null && !previous.equals(projection.subjectName());
+                }
+            });
+            return null;
+        });
+
+        // a subject split between several names or renames depending on each other could not be replayed by renames
+        boolean replayable = added.size() <= snapshot.size()
+                && !split[0]
+                && renames.keySet().stream().noneMatch(kept::contains)
+                && renames.values().stream().noneMatch(renames::containsKey);
+        if (!replayable) {
+            log.info("Persisted embeddings of {} are outdated, they are loaded from the database", apiKey);
+            return Optional.empty();
+        }
+
+        var removed = new ArrayList<UUID>();
+        for (int row = stored.nextClearBit(0); row < snapshot.rowCount(); row = stored.nextClearBit(row + 1)) {
+            removed.add(snapshot.embeddingId(row));
+        }
+        collection.removeEmbeddings(removed);
+        renames.forEach(collection::updateSubjectName);
+        for (int from = 0; from < added.size(); from += REPLAY_BATCH_SIZE) {
+            var batch = added.subList(from, Math.min(from + REPLAY_BATCH_SIZE, added.size()));
+            embeddingService.getEnhancedEmbeddingProjections(apiKey, batch)
+                            .forEach(collection::addEmbedding);
+        }
+
+        if (!removed.isEmpty() || !added.isEmpty() || !renames.isEmpty()) {
+            unsaved.add(apiKey);
+        }
+        log.info(
+                "Embeddings of {} are restored in {} ms: {} persisted, {} removed, {} added, {} subjects renamed",
+                apiKey, System.currentTimeMillis() - start, snapshot.size(), removed.size(), added.size(), renames.size()
+        );
+
+        return Optional.of(collection);
+    }
+
+    private EmbeddingCollectionOptions collectionOptions() {
+        return new EmbeddingCollectionOptions(
+                precision,
+                compactionGarbageRatio,
+                new HnswOptions(annEnabled, annMinSize, annM, annEfConstruction, annEfSearch)
+        );
+    }
+
+    private static EmbeddingCollection await(final CompletableFuture<EmbeddingCollection> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            // failure of the shared load is rethrown as is to every caller
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return weight of the collection in KiB, pinned ones weigh nothing and so are never evicted
+     */
+    private int weigh(final String apiKey, final EmbeddingCollection collection) {
+        if (pinnedApiKeys.contains(apiKey)) {
+            return 0;
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, toKibibytes(collection.sizeInBytes())));
+    }
+
+    private long expiration(final String apiKey) {
+        return pinnedApiKeys.contains(apiKey) ? NEVER_EXPIRES : CACHE_EXPIRATION;
+    }
+
+    private static long defaultMaxSize() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Effective limit of direct memory: the JVM option, if it is set, otherwise max heap.
+     */
+    private static long maxDirectMemory() {
+        try {
+            var option = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption("MaxDirectMemorySize");
+            long bytes = Long.parseLong(option.getValue());
+            if (bytes > 0) {
+                return bytes;
+            }
+        } catch (RuntimeException e) {
+            log.debug("Failed to read the limit of direct memory", e);
+        }
+
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    private static long toKibibytes(final long bytes) {
+        return bytes >> 10;
     }
 
     private void notifyCacheEvent(String event, String apiKey) {
         CacheActionDto cacheActionDto = new CacheActionDto(event, apiKey, SERVER_UUID);
         notificationSenderService.notifyCacheChange(cacheActionDto);
     }
+
+    /**
+     * Asks other nodes to reload the collection, unless they have its current version already.
+     */
+    private void notifyLoad(final String apiKey) {
+        notificationSenderService.notifyCacheChange(
+                CacheActionDto.builder().cacheAction(CacheActionDto.UPDATE).apiKey(apiKey).serverUUID(SERVER_UUID).loadOnly(true).build()
+        );
+    }
+
+    /**
+     * Sends delta to other nodes, the sender splits and numbers deltas.
+     */
+    private void notifyDelta(final String apiKey, final CacheActionDto.CacheActionDtoBuilder delta, final List<UUID> embeddingIds) {
+        if (!embeddingIds.isEmpty()) {
+            delta.embeddingIds(embeddingIds);
+        }
+        notificationSenderService.notifyCacheChange(delta.apiKey(apiKey).serverUUID(SERVER_UUID).build());
+    }
 }
@@ -0,0 +1,133 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import static com.exadel.frs.commonservice.enums.ModelType.RECOGNITION;
+import com.exadel.frs.commonservice.repository.ModelStatisticRepository;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * Preloads embeddings of the most requested recognition models (ranked by {@code model_statistic}) after startup.
+ * Until warm-up is finished or timed out, readiness state of the application refuses traffic, so the node is reported
+ * as not ready by {@code /actuator/health/readiness} and doesn't get traffic with a cold cache. Liveness and overall
+ * health are not affected.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmbeddingCacheWarmUp {
+
+    private final ModelStatisticRepository statisticRepository;
+    private final EmbeddingCacheProvider embeddingCacheProvider;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${app.embedding-collection.warm-up.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.embedding-collection.warm-up.models:10}")
+    private int models = 10;
+
+    @Value("${app.embedding-collection.warm-up.statistic-days:7}")
+    private int statisticDays = 7;
+
+    @Value("${app.embedding-collection.warm-up.parallelism:2}")
+    private int parallelism = 2;
+
+    @Value("${app.embedding-collection.warm-up.timeout:5m}")
+    private Duration timeout = Duration.ofMinutes(5);
+
+    private final AtomicInteger loaded = new AtomicInteger();
+    private volatile int scheduled;
+    private volatile boolean finished;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            finish();
+            return;
+        }
+
+        // startup isn't delayed, only readiness is
+        var thread = new Thread(this::warmUp, "embedding-cache-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void warmUp() {
+        ExecutorService executor = null;
+        try {
+            List<String> apiKeys = statisticRepository.findMostRequestedApiKeys(
+                    RECOGNITION,
+                    LocalDateTime.now().minusDays(statisticDays),
+                    PageRequest.of(0, models)
+            );
+            scheduled = apiKeys.size();
+            log.info("Warming up embeddings of {} models", apiKeys.size());
+
+            executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+                var thread = new Thread(runnable, "embedding-cache-warm-up-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (var apiKey : apiKeys) {
+                executor.execute(() -> preload(apiKey));
+            }
+            executor.shutdown();
+
+            if (executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.info("Warm-up finished, embeddings of {} models are loaded", loaded.get());
+            } else {
+                log.warn("Warm-up timed out after {}, embeddings of {} of {} models are loaded", timeout, loaded.get(), scheduled);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Warm-up failed", e);
+        } finally {
+            if (executor != null) {
+                // loads in progress are not interrupted, they just don't delay readiness anymore
+                executor.shutdown();
+            }
+            finish();
+        }
+    }
+
+    /**
+     * Spring Boot accepts traffic right after the application is ready, so readiness is refused back,
+     * until warm-up is finished.
+     */
+    @EventListener
+    public synchronized void onReadinessChange(final AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC && !finished) {
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        }
+    }
+
+    private synchronized void finish() {
+        finished = true;
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+    }
+
+    private void preload(final String apiKey) {
+        try {
+            embeddingCacheProvider.preload(apiKey);
+            loaded.incrementAndGet();
+        } catch (RuntimeException e) {
+            log.warn("Couldn't warm up embeddings of a model", e);
+        }
+    }
+}
@@ -4,168 +4,369 @@ import com.exadel.frs.commonservice.entity.Embedding;
 import com.exadel.frs.commonservice.exception.IncorrectImageIdException;
 import com.exadel.frs.commonservice.projection.EmbeddingProjection;
 import com.exadel.frs.commonservice.projection.EnhancedEmbeddingProjection;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
-import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
-import lombok.val;
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
-
-@AllArgsConstructor(access = AccessLevel.PRIVATE)
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
+
+/**
+ * Cached embeddings of a single model.
+ * <p>
+ * Readers pin an immutable {@link EmbeddingSnapshot} with {@link #snapshot()} and never block.
+ * Writers are serialized between each other only: new embeddings are appended to the small delta segment
+ * and published as a new snapshot, removed embeddings are only marked in the tombstone bitmap of the snapshot.
+ * Delta is merged into the base segment and removed rows are dropped by compaction in background.
+ */
+@Slf4j
 public class EmbeddingCollection {
 
-    private final BiMap<EmbeddingProjection, Integer> projection2Index;
-    private INDArray embeddings;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_DELTA_CAPACITY = 256;
+
+    // delta is merged into base once it reaches max(MERGE_MIN_ROWS, base size / MERGE_BASE_RATIO) rows
+    private static final int MERGE_MIN_ROWS = 4096;
+    private static final int MERGE_BASE_RATIO = 8;
+    // removed rows are dropped once their share exceeds compaction garbage ratio, but not for a handful of rows
+    private static final int COMPACTION_MIN_REMOVED_ROWS = 64;
+
+    public static final long UNKNOWN_VERSION = -1;
+
+    private static final ExecutorService MAINTENANCE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "embedding-collection-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // ANN indexes take long to build, so they do not delay compaction of other collections
+    private static final ExecutorService ANN_INDEX_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "embedding-collection-ann-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final EmbeddingPrecision precision;
+    private final double compactionGarbageRatio;
+    private final HnswOptions annOptions;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    // version of the collection in the database, all changes up to which are reflected by the collection
+    private final AtomicLong version = new AtomicLong(UNKNOWN_VERSION);
+    // calculation version of the embeddings in the database, when they were loaded
+    private volatile long calculationVersion = UNKNOWN_VERSION;
+
+    // subject name -> ordinals of the subject, the first one is used for new rows. Several ordinals
+    // share the same name after subjects are merged by rename. Guarded by writeLock
+    private final Map<String, int[]> subjectOrdinals = new HashMap<>();
+    // subject ordinal -> subject name, shared with snapshots: new names are only appended after subjectCount,
+    // any other change is made on a copy. Guarded by writeLock
+    private String[] subjectNames = new String[16];
+    private int subjectCount;
+
+    private volatile EmbeddingSnapshot snapshot = EmbeddingSnapshot.empty();
+
+    // ANN index, which serves queries, and the one being built in background. Both are updated by writers,
+    // the latter replaces the former once built. Pending index is guarded by writeLock
+    private volatile HnswIndex annIndex;
+    private HnswIndex pendingAnnIndex;
+
+    private EmbeddingCollection(final EmbeddingCollectionOptions options) {
+        this.precision = options.precision();
+        this.compactionGarbageRatio = options.compactionGarbageRatio();
+        this.annOptions = options.ann();
+    }
 
     public static EmbeddingCollection from(final Stream<EnhancedEmbeddingProjection> stream) {
-        val rawEmbeddings = new LinkedList<double[]>();
-        val projections2Index = new HashMap<EmbeddingProjection, Integer>();
-        val index = new AtomicInteger(); // just to bypass 'final' variables restriction inside lambdas
+        return from(stream, EmbeddingCollectionOptions.DEFAULT);
+    }
+
+    public static EmbeddingCollection from(final Stream<EnhancedEmbeddingProjection> stream, final EmbeddingCollectionOptions options) {
+        var precision = options.precision();
+        var collection = new EmbeddingCollection(options);
+        var base = new EmbeddingMatrix[1]; // just to bypass 'final' variables restriction inside lambdas
 
         stream.forEach(projection -> {
-            projections2Index.put(EmbeddingProjection.from(projection), index.getAndIncrement());
-            rawEmbeddings.add(projection.embeddingData());
+            if (base[0] == null) {
+                base[0] = new EmbeddingMatrix(precision, projection.embeddingData().length, INITIAL_CAPACITY);
+            }
+
+            base[0].append(
+                    projection.embeddingId(),
+                    collection.subjectOrdinal(projection.subjectName()),
+                    projection.embeddingData()
+            );
         });
 
-        return new EmbeddingCollection(
-                HashBiMap.create(projections2Index),
-                rawEmbeddings.isEmpty()
-                        ? Nd4j.empty()
-                        : Nd4j.create(rawEmbeddings.toArray(double[][]::new))
-        );
+        collection.scheduleAnnIndexIfRequired(collection.publish(base[0], null, EmbeddingSnapshot.NO_TOMBSTONES, 0));
+
+        return collection;
+    }
+
+    /**
+     * Restores collection from rows persisted before, see {@link EmbeddingSnapshotStore}.
+     *
+     * @param subjectNames subject ordinal -> subject name, ordinals of the base rows point to it
+     */
+    static EmbeddingCollection restore(final EmbeddingMatrix base, final String[] subjectNames,
+                                       final EmbeddingCollectionOptions options) {
+        var collection = new EmbeddingCollection(options);
+        collection.subjectNames = Arrays.copyOf(subjectNames, Math.max(subjectNames.length, 16));
+        collection.subjectCount = subjectNames.length;
+        for (int ordinal = 0; ordinal < subjectNames.length; ordinal++) {
+            collection.subjectOrdinals.merge(subjectNames[ordinal], new int[]{ordinal}, ArrayUtils::addAll);
+        }
+
+        collection.scheduleAnnIndexIfRequired(collection.publish(base, null, EmbeddingSnapshot.NO_TOMBSTONES, 0));
+
+        return collection;
+    }
+
+    /**
+     * @return version of the collection in the database, all changes up to which are reflected by the collection,
+     * or {@link #UNKNOWN_VERSION}
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Marks the collection as reflecting all changes up to the version. Version never goes back.
+     */
+    public void advanceVersion(final long version) {
+        this.version.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * @return calculation version of the embeddings in the database, when they were loaded, or {@link #UNKNOWN_VERSION}
+     */
+    public long getCalculationVersion() {
+        return calculationVersion;
+    }
+
+    public void setCalculationVersion(final long calculationVersion) {
+        this.calculationVersion = calculationVersion;
+    }
+
+    /**
+     * @return current immutable view of the collection, could be used without any locking
+     */
+    public EmbeddingSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return approximate nearest neighbour index, if it is enabled and already built for the collection, and the collection
+     * is not smaller than the min size of the index (it is kept up to date though, in case the collection grows back).
+     * Index is updated asynchronously, so its results should be resolved with a {@link #snapshot()}
+     */
+    public Optional<HnswIndex> annIndex() {
+        var index = annIndex;
+        if (index == null || snapshot.size() < annOptions.minSize()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(index);
     }
 
     public Map<Integer, EmbeddingProjection> getIndexMap() {
-        // returns index to projection map
-        return Collections.unmodifiableMap(projection2Index.inverse());
+        // returns index to projection map, indexes are dense (removed rows are skipped)
+        var current = snapshot;
+        var indexMap = new HashMap<Integer, EmbeddingProjection>();
+        for (int row = 0; row < current.rowCount(); row++) {
+            if (!current.isRemoved(row)) {
+                indexMap.put(indexMap.size(), current.projection(row));
+            }
+        }
+
+        return Collections.unmodifiableMap(indexMap);
     }
 
     public Set<EmbeddingProjection> getProjections() {
-        return Collections.unmodifiableSet(projection2Index.keySet());
-    }
+        var current = snapshot;
+        var projections = new LinkedHashSet<EmbeddingProjection>();
+        for (int row = 0; row < current.rowCount(); row++) {
+            if (!current.isRemoved(row)) {
+                projections.add(current.projection(row));
+            }
+        }
 
-    private int getSize() {
-        // should be invoked only if underlying array is not empty!
-        return (int) embeddings.size(0);
+        return Collections.unmodifiableSet(projections);
     }
 
     /**
-     * NOTE: current method returns COPY! Each time you invoke it, memory consumed, be careful!
-     *
-     * @return copy of underlying embeddings array.
+     * @return estimated memory taken by the collection: embeddings, their indexes and ANN index if any
      */
-    public INDArray getEmbeddings() {
-        return embeddings.dup();
+    public long sizeInBytes() {
+        var index = annIndex;
+
+        return snapshot.sizeInBytes() + (index == null ? 0 : index.sizeInBytes());
     }
 
-    public synchronized void updateSubjectName(String oldSubjectName, String newSubjectName) {
-        final List<EmbeddingProjection> projections = projection2Index.keySet()
-                .stream()
-                .filter(projection -> projection.subjectName().equals(oldSubjectName))
-                .toList();
+    public int size() {
+        return snapshot.size();
+    }
 
-        projections.forEach(projection -> projection2Index.put(
-                projection.withNewSubjectName(newSubjectName),
-                projection2Index.remove(projection)
-        ));
+    public boolean isEmpty() {
+        return size() == 0;
     }
 
-    public synchronized EmbeddingProjection addEmbedding(final Embedding embedding) {
-        final var projection = EmbeddingProjection.from(embedding);
+    public void updateSubjectName(String oldSubjectName, String newSubjectName) {
+        synchronized (writeLock) {
+            var oldOrdinals = subjectOrdinals.remove(oldSubjectName);
+            if (oldOrdinals == null) {
+                return;
+            }
 
-        final INDArray array = Nd4j.create(new double[][]{embedding.getEmbedding()});
+            // if subject with new name exists, subjects are merged: old ordinals become aliases of the new name
+            subjectOrdinals.merge(newSubjectName, oldOrdinals, ArrayUtils::addAll);
 
-        embeddings = embeddings.isEmpty()
-                ? array
-                : Nd4j.concat(0, embeddings, array);
+            subjectNames = subjectNames.clone();
+            for (int ordinal : oldOrdinals) {
+                subjectNames[ordinal] = newSubjectName;
+            }
 
-        projection2Index.put(
-                projection,
-                getSize() - 1
-        );
+            var current = snapshot;
+            publish(current.base(), current.delta(), current.tombstones(), current.removedCount());
+        }
+    }
 
-        return projection;
+    public EmbeddingProjection addEmbedding(final Embedding embedding) {
+        return addEmbedding(EmbeddingProjection.from(embedding), embedding.getEmbedding());
+    }
+
+    public EmbeddingProjection addEmbedding(final EnhancedEmbeddingProjection enhancedProjection) {
+        return addEmbedding(EmbeddingProjection.from(enhancedProjection), enhancedProjection.embeddingData());
     }
 
-    public synchronized Collection<EmbeddingProjection> removeEmbeddingsBySubjectName(String subjectName) {
-        // not efficient at ALL! review current approach!
+    private EmbeddingProjection addEmbedding(final EmbeddingProjection projection, final double[] embedding) {
+        synchronized (writeLock) {
+            var current = snapshot;
+            int ordinal = subjectOrdinal(projection.subjectName());
+
+            var delta = current.delta();
+            if (delta == null) {
+                int dimension = current.base() == null ? embedding.length : current.base().dimension();
+                delta = new EmbeddingMatrix(precision, dimension, MIN_DELTA_CAPACITY);
+            } else if (delta.isFull()) {
+                // never grow matrix in place, it could be read by holders of previous snapshots
+                delta = delta.copyOf(delta.capacity() * 2);
+            }
+
+            int row = delta.append(projection.embeddingId(), ordinal, embedding);
+
+            var published = publish(current.base(), delta, current.tombstones(), current.removedCount());
+            scheduleCompactionIfRequired(published);
+            addToAnnIndexes(projection.embeddingId(), delta.row(row));
+            scheduleAnnIndexIfRequired(published);
+        }
+
+        return projection;
+    }
 
-        final List<EmbeddingProjection> toRemove = projection2Index.keySet().stream()
-                .filter(projection -> projection.subjectName().equals(subjectName))
-                .toList();
+    public Collection<EmbeddingProjection> removeEmbeddingsBySubjectName(String subjectName) {
+        synchronized (writeLock) {
+            var ordinals = subjectOrdinals.get(subjectName);
+            if (ordinals == null) {
+                return List.of();
+            }
 
-        toRemove.forEach(this::removeEmbedding); // <- rethink
+            var current = snapshot;
+            var rows = IntStream.builder();
+            for (int ordinal : ordinals) {
+                current.forEachRowOfSubject(ordinal, rows);
+            }
 
-        return toRemove;
+            return removeRows(current, rows.build());
+        }
     }
 
-    public synchronized EmbeddingProjection removeEmbedding(Embedding embedding) {
+    public EmbeddingProjection removeEmbedding(Embedding embedding) {
         return removeEmbedding(EmbeddingProjection.from(embedding));
     }
 
-    public synchronized EmbeddingProjection removeEmbedding(EmbeddingProjection projection) {
-        if (projection2Index.isEmpty()) {
-            return null;
-        }
+    public EmbeddingProjection removeEmbedding(EmbeddingProjection projection) {
+        synchronized (writeLock) {
+            var current = snapshot;
+            if (current.isEmpty()) {
+                return null;
+            }
 
-        var index = projection2Index.remove(projection);
+            int removedRow = current.indexOf(projection.embeddingId());
+            if (removedRow >= 0) {
+                markRemoved(current, new int[]{removedRow});
+            }
 
-        // remove embedding by concatenating sub lists [0, index) + [index + 1, size),
-        // thus size of resulting array is decreased by one
-        embeddings = Nd4j.concat(
-                0,
-                embeddings.get(NDArrayIndex.interval(0, index), NDArrayIndex.all()),
-                embeddings.get(NDArrayIndex.interval(index + 1, getSize()), NDArrayIndex.all())
-        );
+            return projection;
+        }
+    }
+
+    /**
+     * Removes all embeddings with given ids at once, ids missing in the collection are ignored.
+     *
+     * @return projections of actually removed embeddings
+     */
+    public List<EmbeddingProjection> removeEmbeddings(Collection<UUID> embeddingIds) {
+        if (embeddingIds.isEmpty()) {
+            return List.of();
+        }
 
-        // shifting (-1) all indexes, greater than current one
-        projection2Index.entrySet()
-                .stream()
-                .filter(entry -> entry.getValue() > index)
-                .sorted(Map.Entry.comparingByValue())
-                .forEach(e -> projection2Index.replace(e.getKey(), e.getValue(), e.getValue() - 1));
+        synchronized (writeLock) {
+            var current = snapshot;
+            var rows = embeddingIds.stream()
+                                   .distinct()
+                                   .mapToInt(current::indexOf);
 
-        return projection;
+            return removeRows(current, rows);
+        }
     }
 
-    public synchronized Optional<INDArray> getRawEmbeddingById(UUID embeddingId) {
+    public Optional<float[]> getRawEmbeddingById(UUID embeddingId) {
+        var current = snapshot;
+
         return findByEmbeddingId(
+                current,
                 embeddingId,
-                // return duplicated row
-                entry -> embeddings.getRow(entry.getValue(), true).dup()
+                // return copy of the row
+                current::row
         );
     }
 
-    public synchronized Optional<String> getSubjectNameByEmbeddingId(UUID embeddingId) {
+    public Optional<String> getSubjectNameByEmbeddingId(UUID embeddingId) {
+        var current = snapshot;
+
         return findByEmbeddingId(
+                current,
                 embeddingId,
-                entry -> entry.getKey().subjectName()
+                current::subjectName
         );
     }
 
-    private <T> Optional<T> findByEmbeddingId(UUID embeddingId, Function<Map.Entry<EmbeddingProjection, Integer>, T> func) {
+    private <T> Optional<T> findByEmbeddingId(EmbeddingSnapshot current, UUID embeddingId, IntFunction<T> func) {
         validImageId(embeddingId);
 
-        return Optional.ofNullable(projection2Index.entrySet()
-                .stream()
-                .filter(entry ->  embeddingId.equals(entry.getKey().embeddingId()))
-                .findFirst()
-                .map(func)
-                .orElseThrow(IncorrectImageIdException::new));
+        int row = current.indexOf(embeddingId);
+        if (row < 0) {
+            throw new IncorrectImageIdException();
+        }
+
+        return Optional.ofNullable(func.apply(row));
     }
 
     private void validImageId(UUID embeddingId) {
@@ -173,4 +374,267 @@ public class EmbeddingCollection {
             throw new IncorrectImageIdException();
         }
     }
+
+    /**
+     * Merges delta segment into the base one and drops removed rows, is invoked in background.
+     * Writers are blocked only for the moment of carrying over rows appended and removed during the compaction.
+     */
+    void compact() {
+        compactionScheduled.set(false);
+
+        var captured = snapshot;
+        if (captured.deltaSize() == 0 && captured.removedCount() == 0) {
+            return;
+        }
+
+        int capturedRows = captured.rowCount();
+        int dimension = captured.baseSize() > 0 ? captured.base().dimension() : captured.delta().dimension();
+        var compacted = new EmbeddingMatrix(precision, dimension, captured.size());
+        copyRuns(captured.base(), 0, captured.baseSize(), row -> !captured.isRemoved(row), compacted);
+        copyRuns(captured.delta(), 0, captured.deltaSize(), row -> !captured.isRemoved(captured.baseSize() + row), compacted);
+
+        // captured row -> compacted row, -1 for dropped rows
+        var mapping = new int[capturedRows];
+        for (int row = 0, next = 0; row < capturedRows; row++) {
+            mapping[row] = captured.isRemoved(row) ? -1 : next++;
+        }
+
+        synchronized (writeLock) {
+            var current = snapshot;
+            if (current.base() != captured.base()) {
+                // collection was compacted in the meantime, compacted rows are stale
+                return;
+            }
+
+            EmbeddingMatrix delta = null;
+            int appended = current.rowCount() - capturedRows;
+            if (appended > 0) {
+                // rows appended while compaction was in progress
+                delta = new EmbeddingMatrix(precision, dimension, Math.max(appended * 2, MIN_DELTA_CAPACITY));
+                delta.appendAll(current.delta(), captured.deltaSize(), current.deltaSize());
+            }
+
+            // rows removed while compaction was in progress
+            var removed = new int[current.removedCount() - captured.removedCount()];
+            var count = new int[1];
+            current.forEachRemoved(row -> {
+                if (row >= capturedRows) {
+                    removed[count[0]++] = compacted.size() + row - capturedRows;
+                } else if (mapping[row] >= 0) {
+                    removed[count[0]++] = mapping[row];
+                }
+            });
+
+            var tombstones = EmbeddingSnapshot.NO_TOMBSTONES;
+            if (count[0] > 0) {
+                tombstones = new long[(compacted.size() + appended + 63) >>> 6];
+                for (int i = 0; i < count[0]; i++) {
+                    tombstones[removed[i] >>> 6] |= 1L << removed[i];
+                }
+            }
+
+            log.debug(
+                    "Compacted embeddings: {} rows dropped, {} rows merged from delta",
+                    captured.removedCount(), captured.deltaSize()
+            );
+            scheduleCompactionIfRequired(publish(compacted, delta, tombstones, count[0]));
+        }
+    }
+
+    private void scheduleCompactionIfRequired(final EmbeddingSnapshot current) {
+        boolean mergeRequired = current.deltaSize() >= Math.max(MERGE_MIN_ROWS, current.baseSize() / MERGE_BASE_RATIO);
+        boolean compactionRequired = current.removedCount() >= COMPACTION_MIN_REMOVED_ROWS
+                && current.removedCount() >= compactionGarbageRatio * current.rowCount();
+        if (!mergeRequired && !compactionRequired) {
+            return;
+        }
+
+        if (compactionScheduled.compareAndSet(false, true)) {
+            MAINTENANCE_EXECUTOR.execute(() -> {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    log.error("Failed to compact embeddings", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Marks given rows as removed, missing (negative) and already removed rows are skipped.
+     * Should be invoked under writeLock.
+     *
+     * @return projections of removed rows, in order of rows
+     */
+    private List<EmbeddingProjection> removeRows(final EmbeddingSnapshot current, final IntStream rows) {
+        var live = rows.filter(row -> row >= 0 && !current.isRemoved(row))
+                       .sorted()
+                       .toArray();
+
+        var removed = new ArrayList<EmbeddingProjection>(live.length);
+        for (int row : live) {
+            removed.add(current.projection(row));
+        }
+
+        markRemoved(current, live);
+
+        return removed;
+    }
+
+    /**
+     * Publishes snapshot with given live rows marked as removed. Should be invoked under writeLock.
+     */
+    private void markRemoved(final EmbeddingSnapshot current, final int[] rows) {
+        if (rows.length == 0) {
+            return;
+        }
+
+        var published = publish(
+                current.base(),
+                current.delta(),
+                current.withRemoved(rows),
+                current.removedCount() + rows.length
+        );
+        scheduleCompactionIfRequired(published);
+
+        // removed ids are resolved with the previous snapshot, indexes are updated after publication,
+        // so concurrent build of the index could not add them back (see buildAnnIndex)
+        for (var index : annIndexes()) {
+            for (int row : rows) {
+                index.remove(current.embeddingId(row));
+            }
+        }
+        scheduleAnnIndexIfRequired(published);
+    }
+
+    /**
+     * Adds embedding to ANN indexes in background. Should be invoked under writeLock, after the embedding is published.
+     */
+    private void addToAnnIndexes(final UUID embeddingId, final float[] vector) {
+        for (var index : annIndexes()) {
+            ANN_INDEX_EXECUTOR.execute(() -> {
+                try {
+                    index.add(embeddingId, vector, () -> snapshot.indexOf(embeddingId) >= 0);
+                } catch (RuntimeException e) {
+                    log.error("Failed to add embedding to ANN index", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return serving and pending ANN indexes, which exist. Should be invoked under writeLock
+     */
+    private List<HnswIndex> annIndexes() {
+        return Stream.of(annIndex, pendingAnnIndex)
+                     .filter(Objects::nonNull)
+                     .toList();
+    }
+
+    /**
+     * Starts building of ANN index, if collection is big enough for it, or rebuilding,
+     * if removed nodes outnumber live ones in the current index. Should be invoked under writeLock.
+     */
+    private void scheduleAnnIndexIfRequired(final EmbeddingSnapshot current) {
+        if (!annOptions.enabled() || pendingAnnIndex != null || current.size() < annOptions.minSize()) {
+            return;
+        }
+
+        var index = annIndex;
+        if (index != null && index.removedCount() <= index.size()) {
+            return;
+        }
+
+        int dimension = current.baseSize() > 0 ? current.base().dimension() : current.delta().dimension();
+        var pending = new HnswIndex(precision, dimension, annOptions);
+        pendingAnnIndex = pending;
+        ANN_INDEX_EXECUTOR.execute(() -> {
+            try {
+                buildAnnIndex(pending);
+            } catch (RuntimeException e) {
+                log.error("Failed to build ANN index", e);
+                synchronized (writeLock) {
+                    pendingAnnIndex = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Populates pending ANN index with rows of the current snapshot and replaces the serving one with it.
+     * Embeddings added meanwhile are queued for the pending index by writers.
+     */
+    void buildAnnIndex(final HnswIndex index) {
+        long start = System.currentTimeMillis();
+        var captured = snapshot;
+        for (int row = 0; row < captured.rowCount(); row++) {
+            if (!captured.isRemoved(row)) {
+                var embeddingId = captured.embeddingId(row);
+                // embedding could be removed after the snapshot was captured
+                index.add(embeddingId, captured.row(row), () -> snapshot.indexOf(embeddingId) >= 0);
+            }
+        }
+
+        synchronized (writeLock) {
+            if (pendingAnnIndex == index) {
+                annIndex = index;
+                pendingAnnIndex = null;
+            }
+        }
+
+        log.info("ANN index of {} embeddings is built in {} ms", index.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Appends rows accepted by the filter to the target, consecutive rows are copied in bulk.
+     */
+    private static void copyRuns(
+            final EmbeddingMatrix source,
+            final int fromRow,
+            final int toRow,
+            final IntPredicate keep,
+            final EmbeddingMatrix target
+    ) {
+        int runStart = -1;
+        for (int row = fromRow; row < toRow; row++) {
+            if (keep.test(row)) {
+                if (runStart < 0) {
+                    runStart = row;
+                }
+            } else if (runStart >= 0) {
+                target.appendAll(source, runStart, row);
+                runStart = -1;
+            }
+        }
+
+        if (runStart >= 0) {
+            target.appendAll(source, runStart, toRow);
+        }
+    }
+
+    /**
+     * Publishes new snapshot, should be invoked under writeLock (or before collection is shared).
+     */
+    private EmbeddingSnapshot publish(
+            final EmbeddingMatrix base,
+            final EmbeddingMatrix delta,
+            final long[] tombstones,
+            final int removedCount
+    ) {
+        var published = new EmbeddingSnapshot(base, delta, subjectNames, tombstones, removedCount, snapshot.version() + 1);
+        snapshot = published;
+
+        return published;
+    }
+
+    private int subjectOrdinal(final String subjectName) {
+        return subjectOrdinals.computeIfAbsent(subjectName, name -> {
+            if (subjectCount == subjectNames.length) {
+                subjectNames = Arrays.copyOf(subjectNames, subjectCount * 2);
+            }
+
+            subjectNames[subjectCount] = name;
+            return new int[]{subjectCount++};
+        })[0];
+    }
 }
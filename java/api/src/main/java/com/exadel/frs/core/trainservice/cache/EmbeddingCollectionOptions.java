@@ -0,0 +1,26 @@
+package com.exadel.frs.core.trainservice.cache;
+
+/**
+ * Tuning of {@link EmbeddingCollection} storage.
+ *
+ * @param precision               element type of cached embeddings
+ * @param compactionGarbageRatio  share of removed (tombstoned) rows, after which collection is compacted in background
+ * @param ann                     approximate nearest neighbour index of the collection
+ */
+public record EmbeddingCollectionOptions(EmbeddingPrecision precision, double compactionGarbageRatio, HnswOptions ann) {
+
+    public static final EmbeddingCollectionOptions DEFAULT =
+            new EmbeddingCollectionOptions(EmbeddingPrecision.FLOAT32, 0.2, HnswOptions.DISABLED);
+
+    public EmbeddingCollectionOptions {
+        if (precision == null) {
+            throw new IllegalArgumentException("Embedding precision should be defined");
+        }
+        if (compactionGarbageRatio <= 0 || compactionGarbageRatio > 1) {
+            throw new IllegalArgumentException("Compaction garbage ratio should be in (0, 1], but was " + compactionGarbageRatio);
+        }
+        if (ann == null) {
+            throw new IllegalArgumentException("ANN index options should be defined");
+        }
+    }
+}
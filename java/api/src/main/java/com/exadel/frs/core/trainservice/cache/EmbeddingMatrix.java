@@ -0,0 +1,444 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.IntConsumer;
+
+/**
+ * Row-major embedding storage backed by a single contiguous direct (off-heap) buffer.
+ * <p>
+ * Every row keeps embedding values in the configured {@link EmbeddingPrecision}, embedding id as two primitive longs
+ * and an ordinal of the subject (subject names are kept by the owner of the matrix, see {@link EmbeddingCollection}).
+ * Scoring methods read the buffer in place with a {@link DistanceKernel}, no copies of the matrix are made.
+ * <p>
+ * Matrix maintains two indexes along with the rows: open addressing hash table of embedding ids
+ * and per subject chains of rows, so both lookups take O(1) (or O(rows of the subject)) instead of a scan.
+ * <p>
+ * Rows are only appended, never changed in place, so rows below a size observed after a safe publication
+ * could be read (and looked up by id) concurrently with appends, as long as the matrix is not grown (see {@link #isFull()}).
+ * <p>
+ * NOTE: class is not thread safe, all the synchronization is up to the owner.
+ */
+public final class EmbeddingMatrix {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int NO_ROW = -1;
+    // rows of a block are scored against all the queries of a batch while they are in CPU cache
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    private final EmbeddingPrecision precision;
+    private final int dimension;
+    private final DistanceKernel kernel;
+
+    private ByteBuffer data;
+    // [2 * row] - most significant bits, [2 * row + 1] - least significant bits
+    private long[] ids;
+    private int[] subjects;
+    // open addressing (linear probing) hash table of row + 1, zero marks an empty slot. Twice as long as capacity
+    private int[] idTable;
+    // row -> previous row of the same subject, or NO_ROW
+    private int[] previousSubjectRows;
+    // subject ordinal -> last row of the subject, or NO_ROW
+    private int[] lastSubjectRows = new int[0];
+    private int size;
+
+    public EmbeddingMatrix(final EmbeddingPrecision precision, final int dimension, final int capacity) {
+        this(precision, dimension, capacity, DistanceKernel.defaultKernel());
+    }
+
+    public EmbeddingMatrix(final EmbeddingPrecision precision, final int dimension, final int capacity, final DistanceKernel kernel) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Embedding dimension should be positive, but was " + dimension);
+        }
+
+        this.precision = Objects.requireNonNull(precision);
+        this.dimension = dimension;
+        this.kernel = Objects.requireNonNull(kernel);
+
+        int initialCapacity = Math.max(capacity, MIN_CAPACITY);
+        this.data = allocate(initialCapacity);
+        this.ids = new long[initialCapacity * 2];
+        this.subjects = new int[initialCapacity];
+        this.idTable = new int[tableLength(initialCapacity)];
+        this.previousSubjectRows = new int[initialCapacity];
+    }
+
+    /**
+     * Wraps rows, which are already written to the given buffer (e.g. memory-mapped from a file), indexes are rebuilt.
+     * Matrix is full, so the buffer is never written to: the first append copies rows to a new buffer.
+     *
+     * @param ids      [2 * row] - most significant bits, [2 * row + 1] - least significant bits of embedding ids
+     * @param subjects subject ordinal of every row
+     */
+    static EmbeddingMatrix wrap(final EmbeddingPrecision precision, final int dimension, final ByteBuffer data,
+                                final long[] ids, final int[] subjects) {
+        int rows = subjects.length;
+        if (ids.length != rows * 2 || data.capacity() != rows * dimension * precision.bytes()) {
+            throw new IllegalArgumentException("Embedding matrix of " + rows + " rows doesn't match its data");
+        }
+
+        var matrix = new EmbeddingMatrix(precision, dimension, 0);
+        matrix.data = data.order(ByteOrder.nativeOrder());
+        matrix.ids = ids;
+        matrix.subjects = subjects;
+        matrix.idTable = new int[tableLength(Math.max(rows, MIN_CAPACITY))];
+        matrix.previousSubjectRows = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            matrix.index(row);
+        }
+        matrix.size = rows;
+
+        return matrix;
+    }
+
+    public EmbeddingPrecision precision() {
+        return precision;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return subjects.length;
+    }
+
+    /**
+     * @return true if next append will reallocate underlying buffers
+     */
+    public boolean isFull() {
+        return size == capacity();
+    }
+
+    /**
+     * @return new matrix with the same rows and the given (or bigger, if required) capacity
+     */
+    public EmbeddingMatrix copyOf(final int capacity) {
+        var copy = new EmbeddingMatrix(precision, dimension, Math.max(capacity, size), kernel);
+        copy.appendAll(this, 0, size);
+
+        return copy;
+    }
+
+    /**
+     * @return approximate amount of memory (on and off heap) reserved by current matrix, in bytes
+     */
+    public long capacityInBytes() {
+        return (long) data.capacity() + (long) ids.length * Long.BYTES
+                + (long) (subjects.length + idTable.length + previousSubjectRows.length + lastSubjectRows.length) * Integer.BYTES;
+    }
+
+    /**
+     * Appends new row to the end of the matrix.
+     *
+     * @return index of appended row
+     */
+    public int append(final UUID embeddingId, final int subject, final double[] embedding) {
+        Objects.requireNonNull(embeddingId, "embeddingId");
+        checkDimension(embedding.length);
+        ensureCapacity(size + 1);
+
+        int row = size;
+        int offset = row * dimension;
+        for (int i = 0; i < dimension; i++) {
+            precision.put(data, offset + i, (float) embedding[i]);
+        }
+
+        return commitRow(embeddingId, subject);
+    }
+
+    /**
+     * Appends new row to the end of the matrix.
+     *
+     * @return index of appended row
+     */
+    public int append(final UUID embeddingId, final int subject, final float[] embedding) {
+        Objects.requireNonNull(embeddingId, "embeddingId");
+        checkDimension(embedding.length);
+        ensureCapacity(size + 1);
+
+        int row = size;
+        int offset = row * dimension;
+        for (int i = 0; i < dimension; i++) {
+            precision.put(data, offset + i, embedding[i]);
+        }
+
+        return commitRow(embeddingId, subject);
+    }
+
+    /**
+     * Appends rows [fromRow, toRow) of the source matrix with bulk memory copies.
+     */
+    public void appendAll(final EmbeddingMatrix source, final int fromRow, final int toRow) {
+        Objects.checkFromToIndex(fromRow, toRow, source.size);
+        checkDimension(source.dimension);
+        if (source.precision != precision) {
+            throw new IllegalArgumentException("Embedding precision mismatch, expected " + precision + ", but was " + source.precision);
+        }
+
+        int count = toRow - fromRow;
+        ensureCapacity(size + count);
+
+        int rowBytes = dimension * precision.bytes();
+        data.put(size * rowBytes, source.data, fromRow * rowBytes, count * rowBytes);
+        System.arraycopy(source.ids, 2 * fromRow, ids, 2 * size, 2 * count);
+        System.arraycopy(source.subjects, fromRow, subjects, size, count);
+        for (int row = size; row < size + count; row++) {
+            index(row);
+        }
+        size += count;
+    }
+
+    public UUID embeddingId(final int row) {
+        Objects.checkIndex(row, size);
+
+        return new UUID(ids[2 * row], ids[2 * row + 1]);
+    }
+
+    /**
+     * @param rows number of leading rows to look through
+     * @return index of row with given embedding id or -1 if there is no such row
+     */
+    public int indexOf(final UUID embeddingId, final int rows) {
+        long msb = embeddingId.getMostSignificantBits();
+        long lsb = embeddingId.getLeastSignificantBits();
+
+        int mask = idTable.length - 1;
+        for (int slot = hash(msb, lsb) & mask; idTable[slot] != 0; slot = (slot + 1) & mask) {
+            int row = idTable[slot] - 1;
+            // rows appended after the caller's view are skipped
+            if (row < rows && ids[2 * row] == msb && ids[2 * row + 1] == lsb) {
+                return row;
+            }
+        }
+
+        return NO_ROW;
+    }
+
+    /**
+     * Invokes action for every row of the subject, starting from the last one.
+     */
+    public void forEachRowOfSubject(final int subject, final IntConsumer action) {
+        int row = subject < lastSubjectRows.length ? lastSubjectRows[subject] : NO_ROW;
+        while (row != NO_ROW) {
+            action.accept(row);
+            row = previousSubjectRows[row];
+        }
+    }
+
+    public int subject(final int row) {
+        Objects.checkIndex(row, size);
+
+        return subjects[row];
+    }
+
+    public float get(final int row, final int column) {
+        Objects.checkIndex(row, size);
+        Objects.checkIndex(column, dimension);
+
+        return precision.get(data, row * dimension + column);
+    }
+
+    /**
+     * @return copy of the row, as float values
+     */
+    public float[] row(final int row) {
+        Objects.checkIndex(row, size);
+
+        var result = new float[dimension];
+        int offset = row * dimension;
+        for (int i = 0; i < dimension; i++) {
+            result[i] = precision.get(data, offset + i);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return read-only view of raw bytes of rows [fromRow, toRow)
+     */
+    ByteBuffer rawRows(final int fromRow, final int toRow) {
+        Objects.checkFromToIndex(fromRow, toRow, size);
+
+        int rowBytes = dimension * precision.bytes();
+
+        return data.slice(fromRow * rowBytes, (toRow - fromRow) * rowBytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return euclidean distance between given row and query vector
+     */
+    public double distance(final int row, final float[] query) {
+        Objects.checkIndex(row, size);
+        checkDimension(query.length);
+
+        return Math.sqrt(kernel.squaredDistance(precision, data, row * dimension, query));
+    }
+
+    /**
+     * Calculates euclidean distances between query vector and every row of the matrix.
+     *
+     * @param result array to write distances to, its length should be at least {@link #size()}
+     */
+    public void distances(final float[] query, final double[] result) {
+        distances(query, 0, size, result, 0);
+    }
+
+    /**
+     * Calculates euclidean distances between query vector and rows [fromRow, toRow) of the matrix.
+     *
+     * @param result       array to write distances to
+     * @param resultOffset index in result array to write distance of fromRow to
+     */
+    public void distances(final float[] query, final int fromRow, final int toRow, final double[] result, final int resultOffset) {
+        checkDimension(query.length);
+        Objects.checkFromToIndex(fromRow, toRow, size);
+
+        kernel.score(precision, data, fromRow * dimension, toRow - fromRow, query, result, resultOffset, null);
+    }
+
+    /**
+     * Calculates euclidean distances between every query and rows [fromRow, toRow) of the matrix.
+     * Rows are processed in blocks, small enough to stay in CPU cache, while all the queries are scored against them,
+     * so the matrix is read from memory once per batch instead of once per query.
+     *
+     * @param results      arrays to write distances to, one per query
+     * @param resultOffset index in result arrays to write distance of fromRow to
+     */
+    public void distances(final float[][] queries, final int fromRow, final int toRow, final double[][] results, final int resultOffset) {
+        score(queries, fromRow, toRow, null, results, resultOffset);
+    }
+
+    /**
+     * The same as {@link #distances(float[][], int, int, double[][], int)}, but distances are converted to similarities
+     * in the same pass.
+     */
+    public void similarities(final float[][] queries, final int fromRow, final int toRow, final SimilarityFunction similarity,
+                             final double[][] results, final int resultOffset) {
+        score(queries, fromRow, toRow, Objects.requireNonNull(similarity), results, resultOffset);
+    }
+
+    private void score(final float[][] queries, final int fromRow, final int toRow, final SimilarityFunction similarity,
+                       final double[][] results, final int resultOffset) {
+        for (var query : queries) {
+            checkDimension(query.length);
+        }
+        Objects.checkFromToIndex(fromRow, toRow, size);
+
+        int blockRows = Math.max(1, BLOCK_BYTES / (dimension * precision.bytes()));
+        for (int blockStart = fromRow; blockStart < toRow; blockStart += blockRows) {
+            int blockEnd = Math.min(blockStart + blockRows, toRow);
+            for (int q = 0; q < queries.length; q++) {
+                kernel.score(
+                        precision, data, blockStart * dimension, blockEnd - blockStart, queries[q],
+                        results[q], resultOffset + blockStart - fromRow, similarity
+                );
+            }
+        }
+    }
+
+    private void checkDimension(final int length) {
+        if (length != dimension) {
+            throw new IllegalArgumentException(
+                    String.format("Embedding dimension mismatch, expected %d, but was %d", dimension, length)
+            );
+        }
+    }
+
+    private void ensureCapacity(final int required) {
+        int capacity = subjects.length;
+        if (required <= capacity) {
+            return;
+        }
+
+        int newCapacity = Math.max(required, capacity + (capacity >> 1));
+        var newData = allocate(newCapacity);
+        newData.put(0, data, 0, size * dimension * precision.bytes());
+
+        data = newData;
+        ids = Arrays.copyOf(ids, newCapacity * 2);
+        subjects = Arrays.copyOf(subjects, newCapacity);
+        previousSubjectRows = Arrays.copyOf(previousSubjectRows, newCapacity);
+
+        idTable = new int[tableLength(newCapacity)];
+        for (int row = 0; row < size; row++) {
+            indexId(row);
+        }
+    }
+
+    /**
+     * Completes appending of the row, which values are already written.
+     */
+    private int commitRow(final UUID embeddingId, final int subject) {
+        int row = size;
+        ids[2 * row] = embeddingId.getMostSignificantBits();
+        ids[2 * row + 1] = embeddingId.getLeastSignificantBits();
+        subjects[row] = subject;
+        index(row);
+        size++;
+
+        return row;
+    }
+
+    /**
+     * Adds already written row to the indexes.
+     */
+    private void index(final int row) {
+        indexId(row);
+
+        int subject = subjects[row];
+        if (subject >= lastSubjectRows.length) {
+            int length = lastSubjectRows.length;
+            lastSubjectRows = Arrays.copyOf(lastSubjectRows, Math.max(subject + 1, Math.max(length * 2, MIN_CAPACITY)));
+            Arrays.fill(lastSubjectRows, length, lastSubjectRows.length, NO_ROW);
+        }
+
+        previousSubjectRows[row] = lastSubjectRows[subject];
+        lastSubjectRows[subject] = row;
+    }
+
+    private void indexId(final int row) {
+        int mask = idTable.length - 1;
+        int slot = hash(ids[2 * row], ids[2 * row + 1]) & mask;
+        while (idTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        idTable[slot] = row + 1;
+    }
+
+    private static int hash(final long msb, final long lsb) {
+        long hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return power of two, at least twice as big as capacity, to keep load factor of ids table below 0.5
+     */
+    private static int tableLength(final int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private ByteBuffer allocate(final int capacity) {
+        long bytes = (long) capacity * dimension * precision.bytes();
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException(
+                    String.format("Embedding matrix of %d rows x %d %s values exceeds 2GB buffer limit", capacity, dimension, precision)
+            );
+        }
+
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,115 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Element type used by {@link EmbeddingMatrix} to keep embedding values off-heap.
+ * <p>
+ * {@link #FLOAT32} is the default and keeps about a half of memory comparing to {@code double[]},
+ * {@link #FLOAT16} halves it once more for the price of ~3 significant decimal digits,
+ * which is still enough for normalized embeddings.
+ */
+public enum EmbeddingPrecision {
+
+    FLOAT32(Float.BYTES) {
+        @Override
+        float get(final ByteBuffer buffer, final int index) {
+            return buffer.getFloat(index << 2);
+        }
+
+        @Override
+        void put(final ByteBuffer buffer, final int index, final float value) {
+            buffer.putFloat(index << 2, value);
+        }
+    },
+
+    FLOAT16(Short.BYTES) {
+        @Override
+        float get(final ByteBuffer buffer, final int index) {
+            return halfToFloat(buffer.getShort(index << 1));
+        }
+
+        @Override
+        void put(final ByteBuffer buffer, final int index, final float value) {
+            buffer.putShort(index << 1, floatToHalf(value));
+        }
+    };
+
+    private final int bytes;
+
+    EmbeddingPrecision(final int bytes) {
+        this.bytes = bytes;
+    }
+
+    public int bytes() {
+        return bytes;
+    }
+
+    /**
+     * @param index element (not byte) index inside of buffer
+     */
+    abstract float get(ByteBuffer buffer, int index);
+
+    abstract void put(ByteBuffer buffer, int index, float value);
+
+    static float halfToFloat(final short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if (exponent == 0) {
+            // zero or subnormal value
+            float value = mantissa * 0x1p-24f;
+            return sign == 0 ? value : -value;
+        }
+        if (exponent == 0x1f) {
+            // infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    static short floatToHalf(final float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+
+        if (((bits >>> 23) & 0xff) == 0xff) {
+            // infinity or NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 0x1f) {
+            // overflow, saturate to infinity
+            return (short) (sign | 0x7c00);
+        }
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                // too small even for subnormal half
+                return (short) sign;
+            }
+
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+
+            return (short) (sign | roundToNearestEven(mantissa, shift));
+        }
+
+        // rounding carry may overflow into exponent, that is the expected behaviour
+        return (short) (sign | ((exponent << 10) + roundToNearestEven(mantissa, 13)));
+    }
+
+    private static int roundToNearestEven(final int value, final int shift) {
+        int result = value >> shift;
+        int remainder = value & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+
+        if (remainder > halfway || (remainder == halfway && (result & 1) != 0)) {
+            result++;
+        }
+
+        return result;
+    }
+}
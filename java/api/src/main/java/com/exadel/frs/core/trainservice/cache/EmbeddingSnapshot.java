@@ -0,0 +1,308 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import com.exadel.frs.commonservice.projection.EmbeddingProjection;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable, point-in-time view of an {@link EmbeddingCollection}.
+ * <p>
+ * Rows are numbered continuously: [0, baseSize) belong to the base segment and
+ * [baseSize, baseSize + deltaSize) to the delta segment, where recent additions are appended.
+ * Removed rows are not moved, they are only marked in the tombstone bitmap and skipped by readers
+ * until the collection is compacted.
+ * Snapshot is pinned by readers without any locking and stays valid (and unchanged) while collection is modified,
+ * so row indexes obtained from a snapshot should be resolved with the same snapshot.
+ */
+public final class EmbeddingSnapshot {
+
+    private static final String[] NO_SUBJECTS = new String[0];
+    // rough size of a subject name string with its reference
+    private static final int SUBJECT_NAME_BYTES = 64;
+    static final long[] NO_TOMBSTONES = new long[0];
+
+    private final EmbeddingMatrix base;
+    private final int baseSize;
+    private final EmbeddingMatrix delta;
+    private final int deltaSize;
+    // subject ordinal -> subject name, several ordinals could share the same name after subjects are merged.
+    // Array could be longer than required by the rows of snapshot, trailing entries should not be read
+    private final String[] subjectNames;
+    // bit per row, rows beyond the bitmap are not removed
+    private final long[] tombstones;
+    private final int removedCount;
+    private final long version;
+
+    EmbeddingSnapshot(
+            final EmbeddingMatrix base,
+            final EmbeddingMatrix delta,
+            final String[] subjectNames,
+            final long[] tombstones,
+            final int removedCount,
+            final long version
+    ) {
+        this.base = base;
+        this.baseSize = base == null ? 0 : base.size();
+        this.delta = delta;
+        this.deltaSize = delta == null ? 0 : delta.size();
+        this.subjectNames = subjectNames;
+        this.tombstones = tombstones;
+        this.removedCount = removedCount;
+        this.version = version;
+    }
+
+    static EmbeddingSnapshot empty() {
+        return new EmbeddingSnapshot(null, null, NO_SUBJECTS, NO_TOMBSTONES, 0, 0);
+    }
+
+    EmbeddingMatrix base() {
+        return base;
+    }
+
+    EmbeddingMatrix delta() {
+        return delta;
+    }
+
+    long[] tombstones() {
+        return tombstones;
+    }
+
+    /**
+     * @return subject ordinal -> subject name, shared with the collection, so should not be modified.
+     * Only entries of ordinals used by rows could be read
+     */
+    String[] subjectNames() {
+        return subjectNames;
+    }
+
+    /**
+     * @return sequence number of the snapshot inside of its collection, every modification increments it
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return estimated memory taken by the snapshot: both segments (with their spare capacity), tombstones and subject names
+     */
+    public long sizeInBytes() {
+        long bytes = (long) tombstones.length * Long.BYTES + (long) subjectNames.length * SUBJECT_NAME_BYTES;
+        if (base != null) {
+            bytes += base.capacityInBytes();
+        }
+        if (delta != null) {
+            bytes += delta.capacityInBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @return number of live (not removed) embeddings
+     */
+    public int size() {
+        return rowCount() - removedCount;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return number of rows including removed ones, row indexes are in [0, rowCount)
+     */
+    public int rowCount() {
+        return baseSize + deltaSize;
+    }
+
+    int baseSize() {
+        return baseSize;
+    }
+
+    int deltaSize() {
+        return deltaSize;
+    }
+
+    int removedCount() {
+        return removedCount;
+    }
+
+    public boolean isRemoved(final int row) {
+        int word = row >>> 6;
+
+        return word < tombstones.length && (tombstones[word] & (1L << row)) != 0;
+    }
+
+    /**
+     * Calculates euclidean distances between query vector and every row of the snapshot, in place.
+     * Removed rows get {@link Double#POSITIVE_INFINITY} distance.
+     *
+     * @param result array to write distances to, its length should be at least {@link #rowCount()}
+     */
+    public void distances(final float[] query, final double[] result) {
+        if (baseSize > 0) {
+            base.distances(query, 0, baseSize, result, 0);
+        }
+        if (deltaSize > 0) {
+            delta.distances(query, 0, deltaSize, result, baseSize);
+        }
+
+        if (removedCount > 0) {
+            forEachRemoved(row -> result[row] = Double.POSITIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Calculates euclidean distances between every query vector and every row of the snapshot with a single pass
+     * over the segments. Removed rows get {@link Double#POSITIVE_INFINITY} distance.
+     *
+     * @param results arrays to write distances to, one per query, their length should be at least {@link #rowCount()}
+     */
+    public void distances(final float[][] queries, final double[][] results) {
+        if (baseSize > 0) {
+            base.distances(queries, 0, baseSize, results, 0);
+        }
+        if (deltaSize > 0) {
+            delta.distances(queries, 0, deltaSize, results, baseSize);
+        }
+
+        if (removedCount > 0) {
+            forEachRemoved(row -> {
+                for (var result : results) {
+                    result[row] = Double.POSITIVE_INFINITY;
+                }
+            });
+        }
+    }
+
+    /**
+     * Calculates similarities between every query vector and every row of the snapshot, fused with the distance
+     * calculation into a single pass over the segments. Removed rows get zero similarity.
+     *
+     * @param results arrays to write similarities to, one per query, their length should be at least {@link #rowCount()}
+     */
+    public void similarities(final float[][] queries, final SimilarityFunction similarity, final double[][] results) {
+        similarities(queries, similarity, results, 0, rowCount());
+    }
+
+    /**
+     * The same as {@link #similarities(float[][], SimilarityFunction, double[][])} for rows [fromRow, toRow) only,
+     * so disjoint ranges of the same results could be filled concurrently.
+     */
+    public void similarities(final float[][] queries, final SimilarityFunction similarity, final double[][] results,
+                             final int fromRow, final int toRow) {
+        Objects.checkFromToIndex(fromRow, toRow, rowCount());
+
+        int baseTo = Math.min(toRow, baseSize);
+        if (fromRow < baseTo) {
+            base.similarities(queries, fromRow, baseTo, similarity, results, fromRow);
+        }
+        int deltaFrom = Math.max(fromRow, baseSize);
+        if (deltaFrom < toRow) {
+            delta.similarities(queries, deltaFrom - baseSize, toRow - baseSize, similarity, results, deltaFrom);
+        }
+
+        if (removedCount > 0) {
+            forEachRemoved(fromRow, toRow, row -> {
+                for (var result : results) {
+                    result[row] = 0;
+                }
+            });
+        }
+    }
+
+    public UUID embeddingId(final int row) {
+        return row < baseSize(row) ? base.embeddingId(row) : delta.embeddingId(row - baseSize);
+    }
+
+    public String subjectName(final int row) {
+        return subjectNames[subject(row)];
+    }
+
+    /**
+     * @return copy of the row, as float values
+     */
+    public float[] row(final int row) {
+        return row < baseSize(row) ? base.row(row) : delta.row(row - baseSize);
+    }
+
+    public EmbeddingProjection projection(final int row) {
+        return new EmbeddingProjection(embeddingId(row), subjectName(row));
+    }
+
+    /**
+     * @return index of live row with given embedding id or -1 if there is no such row
+     */
+    public int indexOf(final UUID embeddingId) {
+        int row = baseSize == 0 ? -1 : base.indexOf(embeddingId, baseSize);
+        if (row < 0 && deltaSize > 0) {
+            row = delta.indexOf(embeddingId, deltaSize);
+            row = row < 0 ? -1 : baseSize + row;
+        }
+
+        return row < 0 || isRemoved(row) ? -1 : row;
+    }
+
+    /**
+     * @return copy of tombstones with given rows additionally marked as removed
+     */
+    long[] withRemoved(final int[] rows) {
+        var result = Arrays.copyOf(tombstones, Math.max(tombstones.length, (rowCount() + 63) >>> 6));
+        for (int row : rows) {
+            result[row >>> 6] |= 1L << row;
+        }
+
+        return result;
+    }
+
+    int subject(final int row) {
+        return row < baseSize(row) ? base.subject(row) : delta.subject(row - baseSize);
+    }
+
+    /**
+     * Invokes action for every row (removed ones included) of the subject ordinal.
+     * Subject indexes of the matrices are modified by writers, so should be invoked by writers only.
+     */
+    void forEachRowOfSubject(final int subject, final IntConsumer action) {
+        if (baseSize > 0) {
+            base.forEachRowOfSubject(subject, row -> {
+                if (row < baseSize) {
+                    action.accept(row);
+                }
+            });
+        }
+        if (deltaSize > 0) {
+            delta.forEachRowOfSubject(subject, row -> {
+                if (row < deltaSize) {
+                    action.accept(baseSize + row);
+                }
+            });
+        }
+    }
+
+    void forEachRemoved(final IntConsumer action) {
+        forEachRemoved(0, rowCount(), action);
+    }
+
+    private void forEachRemoved(final int fromRow, final int toRow, final IntConsumer action) {
+        int toWord = Math.min(tombstones.length, (toRow + 63) >>> 6);
+        for (int word = fromRow >>> 6; word < toWord; word++) {
+            long bits = tombstones[word];
+            while (bits != 0) {
+                int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (row >= fromRow && row < toRow) {
+                    action.accept(row);
+                }
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private int baseSize(final int row) {
+        Objects.checkIndex(row, rowCount());
+
+        return baseSize;
+    }
+}
@@ -0,0 +1,398 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Local disk storage of embedding collections, a file per API key, so a restarted node maps the rows into memory
+ * instead of streaming them from the database.
+ * <p>
+ * File is written in native byte order and consists of:
+ * <ul>
+ *     <li>header: magic, format version, precision, dimension, number of rows, number of subjects, offset of the data,
+ *     calculation version of the embeddings</li>
+ *     <li>subject names, as length prefixed UTF-8 strings, ordinals of the rows point to them</li>
+ *     <li>embedding ids (two longs per row) and subject ordinals (int per row)</li>
+ *     <li>embedding values in the precision of the collection, aligned to {@link #DATA_ALIGNMENT}</li>
+ * </ul>
+ * Only live rows are written. Values are memory-mapped on read and serve queries right from the page cache.
+ * Persisted rows could be outdated, so they are reconciled with the database by the reader
+ * (see {@link EmbeddingCacheProvider}). Reconciliation finds added and removed rows only, so a file is rejected,
+ * once embeddings are recalculated in the database and their calculation version differs from the persisted one.
+ * <p>
+ * Files are replaced atomically, so mapped files stay valid, and a broken or incompatible file is just deleted.
+ * Storage is disabled, if directory is not configured.
+ */
+@Slf4j
+@Component
+public class EmbeddingSnapshotStore {
+
+    private static final int MAGIC = 0x454D4253; // EMBS
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 40;
+    private static final int DATA_ALIGNMENT = 64;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String FILE_SUFFIX = ".embeddings";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    @Value("${app.embedding-collection.snapshot.dir:}")
+    private String dir = "";
+
+    private Path directory;
+
+    // API key -> the latest snapshot to write, is removed once it is taken by the writer
+    private final ConcurrentMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "embedding-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    void configure() throws IOException {
+        if (dir.isBlank()) {
+            log.info("Embedding snapshots are disabled");
+            return;
+        }
+
+        directory = Files.createDirectories(Path.of(dir));
+        try (var files = Files.list(directory)) {
+            // leftovers of interrupted writes
+            for (var file : (Iterable<Path>) files.filter(path -> path.toString().endsWith(TEMP_FILE_SUFFIX))::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        log.info("Embedding snapshots are stored in {}", directory);
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * @param calculationVersion current calculation version of the embeddings in the database
+     * @return persisted rows of the collection, if there are any and they are compatible with the given precision
+     * and calculation version
+     */
+    public Optional<PersistedCollection> read(final String apiKey, final EmbeddingPrecision precision, final long calculationVersion) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+
+        var file = file(apiKey);
+        if (Files.notExists(file)) {
+            return Optional.empty();
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.nativeOrder());
+            if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Unknown format of embedding snapshot");
+            }
+            if (header.getInt(8) != precision.ordinal()) {
+                log.info("Persisted embeddings of {} don't match {} precision", apiKey, precision);
+                deleteFile(apiKey);
+                return Optional.empty();
+            }
+            if (header.getLong(32) != calculationVersion) {
+                log.info("Persisted embeddings of {} are recalculated in the database since they were written", apiKey);
+                deleteFile(apiKey);
+                return Optional.empty();
+            }
+
+            int dimension = header.getInt(12);
+            int rows = header.getInt(16);
+            int subjectCount = header.getInt(20);
+            long dataOffset = header.getLong(24);
+            long dataBytes = (long) rows * dimension * precision.bytes();
+            if (dimension <= 0 || dataBytes > Integer.MAX_VALUE || channel.size() != dataOffset + dataBytes) {
+                throw new IOException("Embedding snapshot is truncated");
+            }
+
+            var metadata = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset).order(ByteOrder.nativeOrder());
+            metadata.position(HEADER_BYTES);
+
+            var subjectNames = new String[subjectCount];
+            for (int ordinal = 0; ordinal < subjectCount; ordinal++) {
+                var bytes = new byte[metadata.getInt()];
+                metadata.get(bytes);
+                subjectNames[ordinal] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            metadata.position(align(metadata.position(), Long.BYTES));
+            var ids = new long[rows * 2];
+            metadata.asLongBuffer().get(ids);
+            metadata.position(metadata.position() + ids.length * Long.BYTES);
+            var subjects = new int[rows];
+            metadata.asIntBuffer().get(subjects);
+
+            // mapping stays valid after the channel is closed
+            var data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataBytes);
+            var base = EmbeddingMatrix.wrap(precision, dimension, data, ids, subjects);
+
+            return Optional.of(new PersistedCollection(base, subjectNames));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Couldn't read persisted embeddings of {}, they are deleted", apiKey, e);
+            deleteFile(apiKey);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes live rows of the snapshot in background, only the latest snapshot of the API key is written,
+     * if several ones are waiting.
+     *
+     * @param calculationVersion calculation version of the embeddings in the database, when they were loaded
+     */
+    public void writeAsync(final String apiKey, final EmbeddingSnapshot snapshot, final long calculationVersion) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (pendingWrites.put(apiKey, new PendingWrite(snapshot, calculationVersion)) == null) {
+            writer.execute(() -> {
+                var pending = pendingWrites.remove(apiKey);
+                if (pending != null) {
+                    write(apiKey, pending.snapshot(), pending.calculationVersion());
+                }
+            });
+        }
+    }
+
+    void write(final String apiKey, final EmbeddingSnapshot snapshot, final long calculationVersion) {
+        if (snapshot.isEmpty()) {
+            deleteFile(apiKey);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        var file = file(apiKey);
+        var tempFile = file.resolveSibling(file.getFileName() + TEMP_FILE_SUFFIX);
+        try {
+            try (var channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                writeTo(channel, snapshot, calculationVersion);
+                channel.force(false);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Embeddings of {} are persisted in {} ms", apiKey, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Couldn't persist embeddings of {}", apiKey, e);
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ignored) {
+                // will be deleted on the next start
+            }
+        }
+    }
+
+    /**
+     * Deletes persisted collection. Its pending write is cancelled, and the file is deleted once again by the writer,
+     * so a write, which is in progress, doesn't recreate it.
+     */
+    public void delete(final String apiKey) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        pendingWrites.remove(apiKey);
+        deleteFile(apiKey);
+        writer.execute(() -> deleteFile(apiKey));
+    }
+
+    private void deleteFile(final String apiKey) {
+        try {
+            Files.deleteIfExists(file(apiKey));
+        } catch (IOException e) {
+            log.warn("Couldn't delete persisted embeddings of {}", apiKey, e);
+        }
+    }
+
+    /**
+     * Deletes all the persisted collections, e.g. when embeddings were recalculated in the database.
+     */
+    public void deleteAll() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        pendingWrites.clear();
+        deleteFiles();
+        writer.execute(this::deleteFiles);
+        log.info("Persisted embeddings are deleted");
+    }
+
+    private void deleteFiles() {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Couldn't delete persisted embeddings", e);
+        }
+    }
+
+    private static void writeTo(final FileChannel channel, final EmbeddingSnapshot snapshot, final long calculationVersion)
+            throws IOException {
+        var live = new ArrayList<int[]>(); // runs of live rows [from, to) of the snapshot
+        int rows = 0;
+        int subjectCount = 0;
+        for (int row = 0; row < snapshot.rowCount(); row++) {
+            if (snapshot.isRemoved(row)) {
+                continue;
+            }
+
+            if (!live.isEmpty() && live.get(live.size() - 1)[1] == row && row != snapshot.baseSize()) {
+                live.get(live.size() - 1)[1] = row + 1;
+            } else {
+                live.add(new int[]{row, row + 1});
+            }
+            rows++;
+            subjectCount = Math.max(subjectCount, snapshot.subject(row) + 1);
+        }
+
+        var names = new byte[subjectCount][];
+        long namesBytes = 0;
+        for (int ordinal = 0; ordinal < subjectCount; ordinal++) {
+            names[ordinal] = snapshot.subjectNames()[ordinal].getBytes(StandardCharsets.UTF_8);
+            namesBytes += Integer.BYTES + names[ordinal].length;
+        }
+
+        var matrix = snapshot.baseSize() > 0 ? snapshot.base() : snapshot.delta();
+        var precision = matrix.precision();
+        int dimension = matrix.dimension();
+        long idsOffset = align(HEADER_BYTES + namesBytes, Long.BYTES);
+        long dataOffset = align(idsOffset + (long) rows * (2 * Long.BYTES + Integer.BYTES), DATA_ALIGNMENT);
+
+        var buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC)
+              .putInt(FORMAT_VERSION)
+              .putInt(precision.ordinal())
+              .putInt(dimension)
+              .putInt(rows)
+              .putInt(subjectCount)
+              .putLong(dataOffset)
+              .putLong(calculationVersion);
+
+        for (var name : names) {
+            ensureRemaining(channel, buffer, Integer.BYTES);
+            buffer.putInt(name.length);
+            // names could be longer than the buffer
+            for (int offset = 0; offset < name.length; ) {
+                ensureRemaining(channel, buffer, 1);
+                int length = Math.min(buffer.remaining(), name.length - offset);
+                buffer.put(name, offset, length);
+                offset += length;
+            }
+        }
+        pad(channel, buffer, idsOffset);
+
+        for (var run : live) {
+            for (int row = run[0]; row < run[1]; row++) {
+                ensureRemaining(channel, buffer, 2 * Long.BYTES);
+                var embeddingId = snapshot.embeddingId(row);
+                buffer.putLong(embeddingId.getMostSignificantBits())
+                      .putLong(embeddingId.getLeastSignificantBits());
+            }
+        }
+        for (var run : live) {
+            for (int row = run[0]; row < run[1]; row++) {
+                ensureRemaining(channel, buffer, Integer.BYTES);
+                buffer.putInt(snapshot.subject(row));
+            }
+        }
+        pad(channel, buffer, dataOffset);
+        flush(channel, buffer);
+
+        for (var run : live) {
+            // runs never span both segments
+            int baseSize = snapshot.baseSize();
+            var raw = run[0] < baseSize
+                    ? snapshot.base().rawRows(run[0], run[1])
+                    : snapshot.delta().rawRows(run[0] - baseSize, run[1] - baseSize);
+            while (raw.hasRemaining()) {
+                channel.write(raw);
+            }
+        }
+    }
+
+    /**
+     * Writes zeros up to the given position of the file.
+     */
+    private static void pad(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long padding = position - channel.position() - buffer.position();
+        for (long i = 0; i < padding; i++) {
+            ensureRemaining(channel, buffer, 1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void ensureRemaining(final FileChannel channel, final ByteBuffer buffer, final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static long align(final long position, final int alignment) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+
+    private static int align(final int position, final int alignment) {
+        return (int) align((long) position, alignment);
+    }
+
+    private Path file(final String apiKey) {
+        // API keys are not exposed in file names
+        return directory.resolve(DigestUtils.md5DigestAsHex(apiKey.getBytes(StandardCharsets.UTF_8)) + FILE_SUFFIX);
+    }
+
+    /**
+     * Rows restored from a file, which are not reconciled with the database yet.
+     *
+     * @param base         memory-mapped rows
+     * @param subjectNames subject ordinal -> subject name
+     */
+    public record PersistedCollection(EmbeddingMatrix base, String[] subjectNames) {
+
+    }
+
+    private record PendingWrite(EmbeddingSnapshot snapshot, long calculationVersion) {
+
+    }
+}
@@ -0,0 +1,547 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Approximate nearest neighbour index of embeddings: Hierarchical Navigable Small World graph
+ * (Yu. A. Malkov, D. A. Yashunin, https://arxiv.org/abs/1603.09320).
+ * <p>
+ * Vectors are copied into fixed size off-heap {@link EmbeddingMatrix} chunks, graph nodes are numbered
+ * in order of insertion. Writers are serialized by the index, queries are lock free: neighbour lists
+ * are never changed in place, but replaced with updated copies, so queries observe every list
+ * either before or after a modification.
+ * <p>
+ * Removed nodes stay in the graph to keep it navigable and are only skipped in results,
+ * the index should be rebuilt once too many of them are accumulated (see {@link #removedCount()}).
+ */
+public final class HnswIndex {
+
+    public record Neighbour(UUID embeddingId, double distance) {
+
+    }
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int[] NO_NEIGHBOURS = new int[0];
+    // rough size of a node with its reference, neighbour arrays are counted separately
+    private static final int NODE_BYTES = 96;
+
+    private final EmbeddingPrecision precision;
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+
+    private final ThreadLocal<VisitedMarks> visitedMarks = ThreadLocal.withInitial(VisitedMarks::new);
+
+    private final Object writeLock = new Object();
+    // guarded by writeLock
+    private final SplittableRandom random = new SplittableRandom();
+
+    private volatile EmbeddingMatrix[] chunks = new EmbeddingMatrix[0];
+    private volatile Node[] nodes = new Node[CHUNK_SIZE];
+    private volatile Node entryPoint;
+    private volatile int size;
+    private volatile int removedCount;
+
+    public HnswIndex(final EmbeddingPrecision precision, final int dimension, final HnswOptions options) {
+        this.precision = precision;
+        this.dimension = dimension;
+        this.m = options.m();
+        this.maxM0 = options.m() * 2;
+        this.efConstruction = options.efConstruction();
+        this.efSearch = options.efSearch();
+        this.levelMultiplier = 1 / Math.log(options.m());
+    }
+
+    /**
+     * @return number of live (not removed) nodes
+     */
+    public int size() {
+        return size - removedCount;
+    }
+
+    public int removedCount() {
+        return removedCount;
+    }
+
+    /**
+     * @return estimated memory taken by the index: vectors and the graph, neighbours of upper layers are neglected
+     */
+    public long sizeInBytes() {
+        long bytes = (long) nodes.length * Long.BYTES;
+        for (var chunk : chunks) {
+            bytes += chunk.capacityInBytes();
+        }
+
+        return bytes + (long) size * (NODE_BYTES + (long) maxM0 * Integer.BYTES);
+    }
+
+    /**
+     * Adds embedding to the index, if it is absent.
+     *
+     * @param isAlive checked under the lock of the index, just before insertion, allows to skip embeddings
+     *                which were removed concurrently (removal of a missing node is a no-op)
+     * @return true if embedding was added
+     */
+    public boolean add(final UUID embeddingId, final float[] vector, final BooleanSupplier isAlive) {
+        synchronized (writeLock) {
+            int existing = nodeOf(embeddingId);
+            if (existing >= 0) {
+                var node = node(existing);
+                if (node.removed && isAlive.getAsBoolean()) {
+                    // same id means the same embedding, just revive it
+                    node.removed = false;
+                    removedCount--;
+                    return true;
+                }
+
+                return false;
+            }
+            if (!isAlive.getAsBoolean()) {
+                return false;
+            }
+
+            insert(embeddingId, vector);
+
+            return true;
+        }
+    }
+
+    /**
+     * @return true if embedding was removed
+     */
+    public boolean remove(final UUID embeddingId) {
+        synchronized (writeLock) {
+            int id = nodeOf(embeddingId);
+            if (id < 0 || node(id).removed) {
+                return false;
+            }
+
+            node(id).removed = true;
+            removedCount++;
+
+            return true;
+        }
+    }
+
+    /**
+     * @return up to k approximately nearest live embeddings, the nearest first
+     */
+    public List<Neighbour> search(final float[] query, final int k) {
+        return search(query, k, efSearch);
+    }
+
+    /**
+     * @param ef size of candidates list, overrides the configured one
+     * @return up to k approximately nearest live embeddings, the nearest first
+     */
+    public List<Neighbour> search(final float[] query, final int k, final int ef) {
+        var entry = entryPoint;
+        if (entry == null || k <= 0) {
+            return List.of();
+        }
+
+        int nearest = greedySearch(query, entry.id, entry.level, 1);
+        var results = searchLayer(query, nearest, Math.max(ef, k), 0, true);
+        while (results.size() > k) {
+            results.pop();
+        }
+
+        var neighbours = new Neighbour[results.size()];
+        for (int i = neighbours.length - 1; i >= 0; i--) {
+            neighbours[i] = new Neighbour(embeddingId(results.peekNode()), results.peekDistance());
+            results.pop();
+        }
+
+        return List.of(neighbours);
+    }
+
+    private void insert(final UUID embeddingId, final float[] vector) {
+        int id = size;
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        var node = new Node(id, level);
+
+        appendVector(embeddingId, vector);
+        storeNode(node);
+
+        var entry = entryPoint;
+        if (entry == null) {
+            size = id + 1;
+            entryPoint = node;
+            return;
+        }
+
+        int nearest = greedySearch(vector, entry.id, entry.level, level + 1);
+        for (int layer = Math.min(level, entry.level); layer >= 0; layer--) {
+            var candidates = searchLayer(vector, nearest, efConstruction, layer, false);
+
+            int count = candidates.size();
+            var candidateNodes = new int[count];
+            var candidateDistances = new double[count];
+            for (int i = count - 1; i >= 0; i--) {
+                candidateNodes[i] = candidates.peekNode();
+                candidateDistances[i] = candidates.peekDistance();
+                candidates.pop();
+            }
+
+            // own neighbours are published before backward links, so the node is never reachable without them
+            var selected = selectNeighbours(candidateNodes, candidateDistances, count, m);
+            node.neighbours.set(layer, selected);
+            for (int neighbour : selected) {
+                connect(neighbour, id, layer);
+            }
+
+            nearest = candidateNodes[0];
+        }
+
+        size = id + 1;
+        if (level > entry.level) {
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Adds backward link to the neighbour, its neighbours are shrunk with the heuristic if there are too many of them.
+     */
+    private void connect(final int neighbour, final int id, final int layer) {
+        var neighbourNode = node(neighbour);
+        var current = neighbourNode.neighbours.get(layer);
+        int max = layer == 0 ? maxM0 : m;
+
+        int[] updated;
+        if (current.length < max) {
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = id;
+        } else {
+            var base = vector(neighbour);
+            int count = current.length + 1;
+            var candidateNodes = Arrays.copyOf(current, count);
+            candidateNodes[current.length] = id;
+            var candidateDistances = new double[count];
+            for (int i = 0; i < count; i++) {
+                candidateDistances[i] = distance(candidateNodes[i], base);
+            }
+
+            sortByDistance(candidateNodes, candidateDistances);
+            updated = selectNeighbours(candidateNodes, candidateDistances, count, max);
+        }
+
+        neighbourNode.neighbours.set(layer, updated);
+    }
+
+    /**
+     * Neighbour selection heuristic: candidate is skipped if it is closer to any of already selected neighbours,
+     * than to the base node. Keeps graph navigable for clustered data.
+     *
+     * @param candidates candidates, sorted by distance to the base node
+     */
+    private int[] selectNeighbours(final int[] candidates, final double[] distances, final int count, final int max) {
+        var selected = new int[Math.min(count, max)];
+        int selectedCount = 0;
+
+        for (int i = 0; i < count && selectedCount < max; i++) {
+            boolean good = true;
+            if (selectedCount > 0) {
+                var candidate = vector(candidates[i]);
+                for (int j = 0; j < selectedCount && good; j++) {
+                    good = distance(selected[j], candidate) >= distances[i];
+                }
+            }
+
+            if (good) {
+                selected[selectedCount++] = candidates[i];
+            }
+        }
+
+        return selectedCount == selected.length ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * Descends from the entry node through layers [toLayer, fromLayer], moving to the nearest neighbour while possible.
+     *
+     * @return nearest found node
+     */
+    private int greedySearch(final float[] query, final int entry, final int fromLayer, final int toLayer) {
+        int nearest = entry;
+        double nearestDistance = distance(entry, query);
+
+        for (int layer = fromLayer; layer >= toLayer; layer--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int neighbour : node(nearest).neighbours.get(layer)) {
+                    double distance = distance(neighbour, query);
+                    if (distance < nearestDistance) {
+                        nearest = neighbour;
+                        nearestDistance = distance;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Beam search over a single layer.
+     *
+     * @param liveOnly whether removed nodes should be excluded from results, they are traversed anyway
+     * @return up to ef nearest nodes, the farthest one on top
+     */
+    private NodeQueue searchLayer(final float[] query, final int entry, final int ef, final int layer, final boolean liveOnly) {
+        var visited = visitedMarks.get();
+        visited.clear(size);
+        var candidates = new NodeQueue(ef, false);
+        var results = new NodeQueue(ef + 1, true);
+
+        double entryDistance = distance(entry, query);
+        visited.visit(entry);
+        candidates.push(entry, entryDistance);
+        if (!liveOnly || !node(entry).removed) {
+            results.push(entry, entryDistance);
+        }
+
+        while (candidates.size() > 0) {
+            if (results.size() >= ef && candidates.peekDistance() > results.peekDistance()) {
+                break;
+            }
+
+            int candidate = candidates.peekNode();
+            candidates.pop();
+
+            for (int neighbour : node(candidate).neighbours.get(layer)) {
+                if (!visited.visit(neighbour)) {
+                    continue;
+                }
+
+                double distance = distance(neighbour, query);
+                if (results.size() < ef || distance < results.peekDistance()) {
+                    candidates.push(neighbour, distance);
+
+                    if (!liveOnly || !node(neighbour).removed) {
+                        results.push(neighbour, distance);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private Node node(final int id) {
+        return nodes[id];
+    }
+
+    private void storeNode(final Node node) {
+        var current = nodes;
+        if (node.id == current.length) {
+            // new node is stored before the array is published
+            current = Arrays.copyOf(current, current.length * 2);
+            current[node.id] = node;
+            nodes = current;
+        } else {
+            current[node.id] = node;
+        }
+    }
+
+    private void appendVector(final UUID embeddingId, final float[] vector) {
+        var current = chunks;
+        var last = current.length == 0 ? null : current[current.length - 1];
+        if (last == null || last.isFull()) {
+            // chunks are never grown, so could be read while new rows are appended
+            last = new EmbeddingMatrix(precision, dimension, CHUNK_SIZE);
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = last;
+            chunks = current;
+        }
+
+        last.append(embeddingId, 0, vector);
+    }
+
+    /**
+     * @return node of the embedding (removed one too) or -1 if there is no such node. Should be invoked by writers only
+     */
+    private int nodeOf(final UUID embeddingId) {
+        var current = chunks;
+        for (int chunk = 0; chunk < current.length; chunk++) {
+            int row = current[chunk].indexOf(embeddingId, current[chunk].size());
+            if (row >= 0) {
+                return (chunk << CHUNK_BITS) + row;
+            }
+        }
+
+        return -1;
+    }
+
+    private UUID embeddingId(final int id) {
+        return chunks[id >>> CHUNK_BITS].embeddingId(id & (CHUNK_SIZE - 1));
+    }
+
+    private float[] vector(final int id) {
+        return chunks[id >>> CHUNK_BITS].row(id & (CHUNK_SIZE - 1));
+    }
+
+    private double distance(final int id, final float[] query) {
+        return chunks[id >>> CHUNK_BITS].distance(id & (CHUNK_SIZE - 1), query);
+    }
+
+    private static void sortByDistance(final int[] ids, final double[] distances) {
+        // lists are short (2 * m + 1), insertion sort is enough
+        for (int i = 1; i < ids.length; i++) {
+            int id = ids[i];
+            double distance = distances[i];
+            int j = i - 1;
+            while (j >= 0 && distances[j] > distance) {
+                ids[j + 1] = ids[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            distances[j + 1] = distance;
+        }
+    }
+
+    private static final class Node {
+
+        private final int id;
+        private final int level;
+        // layer -> ids of neighbours, arrays are replaced, but never modified
+        private final AtomicReferenceArray<int[]> neighbours;
+        private volatile boolean removed;
+
+        private Node(final int id, final int level) {
+            this.id = id;
+            this.level = level;
+            this.neighbours = new AtomicReferenceArray<>(level + 1);
+            for (int layer = 0; layer <= level; layer++) {
+                neighbours.set(layer, NO_NEIGHBOURS);
+            }
+        }
+    }
+
+    /**
+     * Set of visited nodes, which is reused by searches of the same thread: node is visited if its mark
+     * is equal to the current epoch, so the set is cleared by incrementing the epoch, without touching the marks.
+     */
+    private static final class VisitedMarks {
+
+        private int[] marks = new int[0];
+        private int epoch;
+
+        private void clear(final int size) {
+            if (marks.length < size) {
+                marks = new int[size + (size >> 1)];
+                epoch = 0;
+            }
+
+            epoch++;
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        /**
+         * @return false if node is already visited
+         */
+        private boolean visit(final int node) {
+            if (node >= marks.length) {
+                // node is inserted concurrently with the search
+                marks = Arrays.copyOf(marks, node * 2);
+            }
+            if (marks[node] == epoch) {
+                return false;
+            }
+
+            marks[node] = epoch;
+            return true;
+        }
+    }
+
+    /**
+     * Binary heap of (node, distance) pairs with either the nearest or the farthest node on top.
+     */
+    private static final class NodeQueue {
+
+        private final boolean farthestFirst;
+        private int[] nodes;
+        private double[] distances;
+        private int size;
+
+        private NodeQueue(final int capacity, final boolean farthestFirst) {
+            this.farthestFirst = farthestFirst;
+            this.nodes = new int[Math.max(capacity, 1)];
+            this.distances = new double[nodes.length];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int peekNode() {
+            return nodes[0];
+        }
+
+        private double peekDistance() {
+            return distances[0];
+        }
+
+        private void push(final int node, final double distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(distance, distances[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        private void pop() {
+            int lastNode = nodes[--size];
+            double lastDistance = distances[size];
+
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && above(distances[child + 1], distances[child])) {
+                    child++;
+                }
+                if (!above(distances[child], lastDistance)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            distances[i] = lastDistance;
+        }
+
+        private boolean above(final double distance, final double other) {
+            return farthestFirst ? distance > other : distance < other;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.exadel.frs.core.trainservice.cache;
+
+/**
+ * Tuning of the approximate nearest neighbour index ({@link HnswIndex}) of {@link EmbeddingCollection}.
+ *
+ * @param enabled         whether collections build the index at all
+ * @param minSize         number of embeddings, starting from which the index is built, smaller collections are scanned
+ * @param m               number of graph neighbours per node (twice as much on the bottom layer)
+ * @param efConstruction  size of candidates list used while the graph is built, bigger is slower, but more accurate
+ * @param efSearch        size of candidates list used by queries, bigger is slower, but more accurate
+ */
+public record HnswOptions(boolean enabled, int minSize, int m, int efConstruction, int efSearch) {
+
+    public static final HnswOptions DISABLED = new HnswOptions(false, 100_000, 16, 200, 64);
+
+    public HnswOptions {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("ANN index min size should not be negative, but was " + minSize);
+        }
+        if (m < 2 || efConstruction < m || efSearch < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Wrong ANN index parameters: m=%d, efConstruction=%d, efSearch=%d", m, efConstruction, efSearch)
+            );
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Portable {@link DistanceKernel}, left to the auto-vectorization of JIT compiler.
+ */
+final class ScalarDistanceKernel implements DistanceKernel {
+
+    static final ScalarDistanceKernel INSTANCE = new ScalarDistanceKernel();
+
+    private ScalarDistanceKernel() {
+    }
+
+    @Override
+    public double squaredDistance(final EmbeddingPrecision precision, final ByteBuffer data, final int offset, final float[] query) {
+        double sum = 0;
+        if (precision == EmbeddingPrecision.FLOAT32) {
+            // hot path, avoid per element dispatch
+            int byteOffset = offset * Float.BYTES;
+            for (int i = 0; i < query.length; i++) {
+                float diff = data.getFloat(byteOffset + i * Float.BYTES) - query[i];
+                sum += diff * diff;
+            }
+        } else {
+            for (int i = 0; i < query.length; i++) {
+                float diff = precision.get(data, offset + i) - query[i];
+                sum += diff * diff;
+            }
+        }
+
+        return sum;
+    }
+
+    @Override
+    public void score(final EmbeddingPrecision precision, final ByteBuffer data, final int offset, final int rows,
+                      final float[] query, final double[] result, final int resultOffset, final SimilarityFunction similarity) {
+        for (int row = 0; row < rows; row++) {
+            double distance = Math.sqrt(squaredDistance(precision, data, offset + row * query.length, query));
+            result[resultOffset + row] = similarity == null ? distance : similarity.apply(distance);
+        }
+    }
+}
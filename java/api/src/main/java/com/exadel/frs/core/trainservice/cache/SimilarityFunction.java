@@ -0,0 +1,12 @@
+package com.exadel.frs.core.trainservice.cache;
+
+/**
+ * Maps euclidean distance between normalized embeddings to their similarity in [0, 1]:
+ * {@code (tanh((coefficient0 - distance) * coefficient1) + 1) / 2}.
+ */
+public record SimilarityFunction(double coefficient0, double coefficient1) {
+
+    public double apply(final double distance) {
+        return (Math.tanh((coefficient0 - distance) * coefficient1) + 1) / 2;
+    }
+}
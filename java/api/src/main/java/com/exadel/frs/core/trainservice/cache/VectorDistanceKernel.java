@@ -0,0 +1,85 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD {@link DistanceKernel} over {@code jdk.incubator.vector}. Lanes are as wide as the CPU supports.
+ * <p>
+ * Is loaded only if the module is present, see {@link DistanceKernels}.
+ * There are no vector operations over half floats in JDK 17, so {@link EmbeddingPrecision#FLOAT16} rows
+ * are measured with the scalar code, while the similarity transform is vectorized for both precisions.
+ */
+final class VectorDistanceKernel implements DistanceKernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double squaredDistance(final EmbeddingPrecision precision, final ByteBuffer data, final int offset, final float[] query) {
+        if (precision != EmbeddingPrecision.FLOAT32) {
+            return ScalarDistanceKernel.INSTANCE.squaredDistance(precision, data, offset, query);
+        }
+
+        int byteOffset = offset * Float.BYTES;
+        int bound = FLOATS.loopBound(query.length);
+        var sums = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            var diff = FloatVector.fromByteBuffer(FLOATS, data, byteOffset + i * Float.BYTES, ByteOrder.nativeOrder())
+                                  .sub(FloatVector.fromArray(FLOATS, query, i));
+            sums = diff.fma(diff, sums);
+        }
+
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < query.length; i++) {
+            float diff = data.getFloat(byteOffset + i * Float.BYTES) - query[i];
+            sum += diff * diff;
+        }
+
+        return sum;
+    }
+
+    @Override
+    public void score(final EmbeddingPrecision precision, final ByteBuffer data, final int offset, final int rows,
+                      final float[] query, final double[] result, final int resultOffset, final SimilarityFunction similarity) {
+        for (int row = 0; row < rows; row++) {
+            result[resultOffset + row] = squaredDistance(precision, data, offset + row * query.length, query);
+        }
+
+        int end = resultOffset + rows;
+        int bound = resultOffset + DOUBLES.loopBound(rows);
+        int i = resultOffset;
+        if (similarity == null) {
+            for (; i < bound; i += DOUBLES.length()) {
+                DoubleVector.fromArray(DOUBLES, result, i).sqrt().intoArray(result, i);
+            }
+            for (; i < end; i++) {
+                result[i] = Math.sqrt(result[i]);
+            }
+            return;
+        }
+
+        // (tanh ((coef0 - distance) * coef1) + 1) / 2
+        double coefficient0 = similarity.coefficient0();
+        double coefficient1 = similarity.coefficient1();
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, result, i)
+                        .sqrt()
+                        .neg()
+                        .add(coefficient0)
+                        .mul(coefficient1)
+                        .lanewise(VectorOperators.TANH)
+                        .add(1)
+                        .mul(0.5)
+                        .intoArray(result, i);
+        }
+        for (; i < end; i++) {
+            result[i] = similarity.apply(Math.sqrt(result[i]));
+        }
+    }
+}
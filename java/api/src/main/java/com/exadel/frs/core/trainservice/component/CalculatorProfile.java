@@ -0,0 +1,36 @@
+package com.exadel.frs.core.trainservice.component;
+
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
+import com.exadel.frs.core.trainservice.cache.SimilarityFunction;
+
+/**
+ * Calculator of embeddings and transformation of its euclidean distances to similarities.
+ */
+public record CalculatorProfile(String calculatorVersion, SimilarityFunction similarityFunction) {
+
+    public static CalculatorProfile from(final FacesStatusResponse status) {
+        if (status == null || status.getSimilarityCoefficients() == null || status.getSimilarityCoefficients().size() < 2) {
+            throw new FacesServiceException("No status information received");
+        }
+
+        var coefficients = status.getSimilarityCoefficients();
+
+        return new CalculatorProfile(status.getCalculatorVersion(), new SimilarityFunction(coefficients.get(0), coefficients.get(1)));
+    }
+
+    public double similarity(final double distance) {
+        return similarityFunction.apply(distance);
+    }
+
+    /**
+     * Converts distances to similarities in place.
+     */
+    public double[] similarities(final double[] distances) {
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = similarity(distances[i]);
+        }
+
+        return distances;
+    }
+}
@@ -0,0 +1,61 @@
+package com.exadel.frs.core.trainservice.component;
+
+import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import java.util.Objects;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps profile of the current calculator, so scoring doesn't request status of faces service.
+ * The profile is loaded on first use and refreshed periodically, which picks up a swapped calculator.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CalculatorProfileProvider {
+
+    private static final String REFRESH_PERIOD_PLACEHOLDER = "${app.calculator-profile.refresh-period:60000}";
+
+    private final FacesApiClient facesApiClient;
+
+    private volatile CalculatorProfile profile;
+
+    public CalculatorProfile get() {
+        var current = profile;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (profile == null) {
+                profile = CalculatorProfile.from(facesApiClient.getStatus());
+            }
+            return profile;
+        }
+    }
+
+    @Scheduled(fixedDelayString = REFRESH_PERIOD_PLACEHOLDER, initialDelayString = REFRESH_PERIOD_PLACEHOLDER)
+    public void refresh() {
+        CalculatorProfile refreshed;
+        try {
+            refreshed = CalculatorProfile.from(facesApiClient.getStatus());
+        } catch (FacesServiceException e) {
+            // the previous profile is kept, until faces service is available again
+            log.warn("Couldn't refresh calculator profile: {}", e.getMessage());
+            return;
+        }
+
+        CalculatorProfile previous;
+        synchronized (this) {
+            previous = profile;
+            profile = refreshed;
+        }
+
+        if (previous != null && !Objects.equals(previous.calculatorVersion(), refreshed.calculatorVersion())) {
+            log.info("Calculator changed from {} to {}", previous.calculatorVersion(), refreshed.calculatorVersion());
+        }
+    }
+}
@@ -34,6 +34,10 @@ public class FaceClassifierPredictor {
         return classifier.predict(input, modelKey, resultCount);
     }
 
+    public List<List<Pair<Double, String>>> predictBatch(final String modelKey, final double[][] inputs, final int resultCount) {
+        return classifier.predictBatch(inputs, modelKey, resultCount);
+    }
+
     public Double verify(final String modelKey, final double[] input, final UUID embeddingId) {
         return classifier.verify(input, modelKey, embeddingId);
     }
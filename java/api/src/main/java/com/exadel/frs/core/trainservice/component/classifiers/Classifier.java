@@ -26,6 +26,13 @@ public interface Classifier extends Serializable {
 
     List<Pair<Double, String>> predict(double[] input, String apiKey, int resultCount);
 
+    /**
+     * Predicts several faces at once, against the same state of the model.
+     *
+     * @return predictions, in order of inputs
+     */
+    List<List<Pair<Double, String>>> predictBatch(double[][] inputs, String apiKey, int resultCount);
+
     Double verify(double[] input, String apiKey, UUID embeddingId);
 
     double[] verify(double[] sourceImageEmbedding, double[][] targetImageEmbedding);
@@ -16,66 +16,148 @@
 
 package com.exadel.frs.core.trainservice.component.classifiers;
 
-import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
-import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
-import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
 import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
-import com.google.common.primitives.Doubles;
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshot;
+import com.exadel.frs.core.trainservice.cache.HnswIndex;
+import com.exadel.frs.core.trainservice.component.CalculatorProfileProvider;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.apache.commons.lang3.tuple.Pair;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.ops.transforms.Transforms;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.IntStream;
-
-import static java.lang.Math.min;
 
 @Component
 @RequiredArgsConstructor
 public class EuclideanDistanceClassifier implements Classifier {
 
     public static final int PREDICTION_COUNT_INFINITY = -1;
+    // max number of scores calculated at once by a batch prediction (32MB)
+    private static final int MAX_BATCH_SCORES = 4 * 1024 * 1024;
+
     private final EmbeddingCacheProvider embeddingCacheProvider;
-    private final FacesApiClient facesApiClient;
+    private final CalculatorProfileProvider calculatorProfileProvider;
+    private final SnapshotScanner snapshotScanner;
 
     @Override
     public List<Pair<Double, String>> predict(final double[] input, final String apiKey, final int resultCount) {
-        INDArray inputFace = Nd4j.create(input);
-        inputFace = normalizeOne(inputFace);
+        return predictBatch(new double[][]{input}, apiKey, resultCount).get(0);
+    }
 
-        var embeddingCollection = embeddingCacheProvider.getOrLoad(apiKey);
-        final INDArray embeddings = embeddingCollection.getEmbeddings();
+    @Override
+    public List<List<Pair<Double, String>>> predictBatch(final double[][] inputs, final String apiKey, final int resultCount) {
+        final float[][] inputFaces = new float[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            inputFaces[i] = toFloatVector(normalizeOne(inputs[i]));
+        }
 
-        var result = new ArrayList<Pair<Double, String>>();
-        if (embeddings != null && embeddings.length() > 0) {
-            val probabilities = recognize(inputFace, embeddings);
-            val sortedIndexes = sortedIndexes(probabilities);
-            val indexMap = embeddingCollection.getIndexMap();
-            int predictionCount = getPredictionCount(resultCount, sortedIndexes);
+        // all the faces are scored against the same pinned snapshot, which is not affected by concurrent modifications
+        var collection = embeddingCacheProvider.getOrLoad(apiKey);
+        var embeddings = collection.snapshot();
+
+        var annIndex = collection.annIndex();
+        if (resultCount != PREDICTION_COUNT_INFINITY && annIndex.isPresent()) {
+            var results = new ArrayList<List<Pair<Double, String>>>(inputs.length);
+            for (var inputFace : inputFaces) {
+                var predictions = predictApproximately(inputFace, embeddings, annIndex.get(), resultCount);
+                results.add(predictions.isPresent()
+                        ? predictions.get()
+                        : predictExactly(new float[][]{inputFace}, embeddings, resultCount).get(0));
+            }
+            return results;
+        }
+
+        return predictExactly(inputFaces, embeddings, resultCount);
+    }
 
-            for (int i = 0; i < min(predictionCount, sortedIndexes.length); i++) {
-                var prob = probabilities[sortedIndexes[i]];
-                var embedding = indexMap.get(sortedIndexes[i]);
+    private List<List<Pair<Double, String>>> predictExactly(
+            final float[][] inputFaces,
+            final EmbeddingSnapshot embeddings,
+            final int resultCount
+    ) {
+        var results = new ArrayList<List<Pair<Double, String>>>(inputFaces.length);
+        if (embeddings.isEmpty()) {
+            for (int i = 0; i < inputFaces.length; i++) {
+                results.add(new ArrayList<>());
+            }
+            return results;
+        }
 
-                result.add(Pair.of(prob, embedding.subjectName()));
+        // every batch of faces is scored with a single pass over the snapshot, batches are limited by memory of their scores
+        val similarityFunction = calculatorProfileProvider.get().similarityFunction();
+        int batchSize = Math.max(1, MAX_BATCH_SCORES / embeddings.rowCount());
+        for (int from = 0; from < inputFaces.length; from += batchSize) {
+            val batch = Arrays.copyOfRange(inputFaces, from, Math.min(from + batchSize, inputFaces.length));
+            val probabilities = new double[batch.length][embeddings.rowCount()];
+            val topIndexes = snapshotScanner.scan(batch, embeddings, similarityFunction, resultCount, probabilities);
+            for (int i = 0; i < batch.length; i++) {
+                results.add(toPredictions(probabilities[i], topIndexes[i], embeddings));
             }
         }
+
+        return results;
+    }
+
+    private static List<Pair<Double, String>> toPredictions(
+            final double[] probabilities,
+            final int[] topIndexes,
+            final EmbeddingSnapshot embeddings
+    ) {
+        var result = new ArrayList<Pair<Double, String>>(topIndexes.length);
+        for (int index : topIndexes) {
+            result.add(Pair.of(probabilities[index], embeddings.subjectName(index)));
+        }
+
         return result;
     }
 
-    private int getPredictionCount(int resultCount, int[] argSort) {
-        if (resultCount == PREDICTION_COUNT_INFINITY) {
-            resultCount = argSort.length;
+    /**
+     * Predicts with ANN index of a big collection, neighbours are resolved with the snapshot,
+     * so embeddings removed from it (but not from the index yet) are skipped. Index is updated asynchronously,
+     * so it is searched for as many extra neighbours, as it has more embeddings than the snapshot.
+     *
+     * @return empty, if too many neighbours are missing in the snapshot to fill the result
+     */
+    private Optional<List<Pair<Double, String>>> predictApproximately(
+            final float[] inputFace,
+            final EmbeddingSnapshot embeddings,
+            final HnswIndex annIndex,
+            final int resultCount
+    ) {
+        int expected = Math.min(resultCount, embeddings.size());
+        var neighbours = annIndex.search(inputFace, expected + Math.max(0, annIndex.size() - embeddings.size()));
+
+        var distances = new double[expected];
+        var subjectNames = new String[expected];
+        int count = 0;
+        for (var neighbour : neighbours) {
+            if (count == expected) {
+                break;
+            }
+            int row = embeddings.indexOf(neighbour.embeddingId());
+            if (row >= 0) {
+                distances[count] = neighbour.distance();
+                subjectNames[count++] = embeddings.subjectName(row);
+            }
+        }
+        if (count < expected) {
+            return Optional.empty();
+        }
+
+        val probabilities = calculatorProfileProvider.get().similarities(distances);
+
+        var result = new ArrayList<Pair<Double, String>>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(Pair.of(probabilities[i], subjectNames[i]));
         }
 
-        return resultCount;
+        return Optional.of(result);
     }
 
     @Override
@@ -92,19 +174,16 @@ public class EuclideanDistanceClassifier implements Classifier {
             return (double) 0;
         }
 
-        final Optional<INDArray> rawEmbeddingOptional = embeddingCacheProvider.getOrLoad(apiKey)
+        final Optional<float[]> rawEmbeddingOptional = embeddingCacheProvider.getOrLoad(apiKey)
                 .getRawEmbeddingById(embeddingId);
 
         if (rawEmbeddingOptional.isEmpty())  {
             return (double) 0;
         }
 
-        var probabilities = recognize(
-                normalizeOne(Nd4j.create(input)),
-                rawEmbeddingOptional.get()
-        );
+        val distance = euclideanDistance(toFloatVector(normalizeOne(input)), rawEmbeddingOptional.get());
 
-        return probabilities[0];
+        return calculatorProfileProvider.get().similarity(distance);
     }
 
     private INDArray normalizeOne(final INDArray embeddings) {
@@ -114,10 +193,18 @@ public class EuclideanDistanceClassifier implements Classifier {
     }
 
     public double[] normalizeOne(final double[] rawEmbeddings) {
-        INDArray embeddings = Nd4j.create(rawEmbeddings);
-        embeddings = normalizeOne(embeddings);
+        double norm = 0;
+        for (double value : rawEmbeddings) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
 
-        return embeddings.toDoubleVector();
+        var normalized = new double[rawEmbeddings.length];
+        for (int i = 0; i < rawEmbeddings.length; i++) {
+            normalized[i] = rawEmbeddings[i] / norm;
+        }
+
+        return normalized;
     }
 
     private INDArray normalize(final INDArray embeddings) {
@@ -129,18 +216,7 @@ public class EuclideanDistanceClassifier implements Classifier {
     private double[] recognize(final INDArray newFace, final INDArray existingFaces) {
         val distance = euclidean_distance(newFace, existingFaces);
 
-        return calculateSimilarities(distance).toDoubleVector();
-    }
-
-    private INDArray calculateSimilarities(INDArray distance) {
-        FacesStatusResponse status = facesApiClient.getStatus();
-        if (status == null || status.getSimilarityCoefficients() == null || status.getSimilarityCoefficients().isEmpty()) {
-            throw new FacesServiceException("No status information received");
-        }
-
-        List<Double> coefficients = status.getSimilarityCoefficients();
-        // (tanh ((coef0 - distance) * coef1) + 1) / 2
-        return Transforms.tanh(distance.rsubi(coefficients.get(0)).muli(coefficients.get(1)), false).addi(1).divi(2);
+        return calculatorProfileProvider.get().similarities(distance.toDoubleVector());
     }
 
     private static INDArray euclidean_distance(final INDArray newFace, INDArray existingFaces) {
@@ -149,17 +225,22 @@ public class EuclideanDistanceClassifier implements Classifier {
         return existingFaces.norm2(1);
     }
 
-    /**
-     * Create and sort array of indexes according highest probabilities.
-     *
-     * @param probabilities array of probability
-     * @return sorted array of indexes (highest probability index first)
-     */
-    private static int[] sortedIndexes(double[] probabilities) {
-        return IntStream.range(0, probabilities.length)
-                .boxed()
-                .sorted((index1, index2) -> -Doubles.compare(probabilities[index1], probabilities[index2]))
-                .mapToInt(index -> index)
-                .toArray();
+    private static double euclideanDistance(final float[] newFace, final float[] existingFace) {
+        double sum = 0;
+        for (int i = 0; i < newFace.length; i++) {
+            double diff = (double) existingFace[i] - newFace[i];
+            sum += diff * diff;
+        }
+
+        return Math.sqrt(sum);
+    }
+
+    private static float[] toFloatVector(final double[] vector) {
+        var result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+
+        return result;
     }
 }
@@ -0,0 +1,123 @@
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.component.classifiers.EuclideanDistanceClassifier.PREDICTION_COUNT_INFINITY;
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshot;
+import com.exadel.frs.core.trainservice.cache.SimilarityFunction;
+import com.exadel.frs.core.trainservice.util.TopKSelector;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scores faces against every row of a snapshot and selects the best rows.
+ * <p>
+ * Snapshots of at least {@code threshold} rows are split into shards of {@code shardSize} rows, which are scored
+ * and pre-selected in parallel on a dedicated pool, then per shard selections are merged.
+ * Smaller snapshots are scanned by the calling thread, so they don't pay for the hand-off.
+ */
+@Slf4j
+@Component
+public class SnapshotScanner {
+
+    private final int threshold;
+    private final int shardSize;
+    private final ForkJoinPool pool;
+
+    public SnapshotScanner(
+            @Value("${app.embedding-collection.parallel-scan.threshold:200000}") final int threshold,
+            @Value("${app.embedding-collection.parallel-scan.shard-size:65536}") final int shardSize,
+            @Value("${app.embedding-collection.parallel-scan.parallelism:0}") final int parallelism
+    ) {
+        if (shardSize <= 0) {
+            throw new IllegalArgumentException("Shard size should be positive, but was " + shardSize);
+        }
+
+        this.threshold = threshold;
+        this.shardSize = shardSize;
+
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(threads, forkJoinPool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("embedding-scan-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        log.info("Snapshots of {} rows and more are scanned by {} threads", threshold, threads);
+    }
+
+    /**
+     * @param scores      arrays to write similarities to, one per query, their length should be at least
+     *                    {@link EmbeddingSnapshot#rowCount()}
+     * @param resultCount max number of rows to select per query, or {@link EuclideanDistanceClassifier#PREDICTION_COUNT_INFINITY}
+     * @return per query: rows of the largest scores, the largest first. Removed rows are never selected
+     */
+    public int[][] scan(final float[][] queries, final EmbeddingSnapshot snapshot, final SimilarityFunction similarity,
+                        final int resultCount, final double[][] scores) {
+        int rowCount = snapshot.rowCount();
+        IntPredicate isLive = row -> !snapshot.isRemoved(row);
+
+        var result = new int[queries.length][];
+        if (rowCount < threshold || rowCount <= shardSize || pool.getParallelism() == 1) {
+            snapshot.similarities(queries, similarity, scores);
+            for (int q = 0; q < queries.length; q++) {
+                result[q] = select(scores[q], 0, rowCount, resultCount, isLive);
+            }
+            return result;
+        }
+
+        int shards = (rowCount + shardSize - 1) / shardSize;
+        // shard -> query -> selected rows of the shard
+        var shardSelections = new int[shards][][];
+        var tasks = new ArrayList<ForkJoinTask<?>>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            int index = shard;
+            int fromRow = shard * shardSize;
+            int toRow = Math.min(fromRow + shardSize, rowCount);
+            tasks.add(pool.submit(() -> {
+                snapshot.similarities(queries, similarity, scores, fromRow, toRow);
+                if (resultCount != PREDICTION_COUNT_INFINITY) {
+                    var selections = new int[queries.length][];
+                    for (int q = 0; q < queries.length; q++) {
+                        selections[q] = TopKSelector.largest(scores[q], fromRow, toRow, resultCount, isLive);
+                    }
+                    shardSelections[index] = selections;
+                }
+            }));
+        }
+        for (var task : tasks) {
+            task.join();
+        }
+
+        for (int q = 0; q < queries.length; q++) {
+            if (resultCount == PREDICTION_COUNT_INFINITY) {
+                result[q] = TopKSelector.sorted(scores[q], isLive);
+            } else {
+                var candidates = new int[shards][];
+                for (int shard = 0; shard < shards; shard++) {
+                    candidates[shard] = shardSelections[shard][q];
+                }
+                result[q] = TopKSelector.merge(scores[q], candidates, resultCount);
+            }
+        }
+
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static int[] select(final double[] scores, final int fromRow, final int toRow, final int resultCount,
+                                final IntPredicate isLive) {
+        // full sort is done only if all the predictions are requested
+        return resultCount == PREDICTION_COUNT_INFINITY
+                ? TopKSelector.sorted(scores, isLive)
+                : TopKSelector.largest(scores, fromRow, toRow, resultCount, isLive);
+    }
+}
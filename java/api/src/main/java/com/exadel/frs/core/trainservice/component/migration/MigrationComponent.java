@@ -17,6 +17,7 @@
 package com.exadel.frs.core.trainservice.component.migration;
 
 import com.exadel.frs.commonservice.sdk.faces.feign.FacesFeignClient;
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshotStore;
 import com.exadel.frs.core.trainservice.service.EmbeddingService;
 import com.exadel.frs.core.trainservice.util.MultipartFileData;
 import feign.FeignException;
@@ -40,14 +41,20 @@ public class MigrationComponent {
     private final MigrationStatusStorage migrationStatusStorage;
     private final FacesFeignClient feignClient;
     private final EmbeddingService embeddingService;
+    private final EmbeddingSnapshotStore embeddingSnapshotStore;
 
     @SneakyThrows
     @Async
     public void migrate() {
         try {
             log.info("Migrating...");
-            recalculateEmbeddingsWithOutdatedCalculator();
+            int recalculated = recalculateEmbeddingsWithOutdatedCalculator();
             log.info("Calculating embedding for faces finished");
+            if (recalculated > 0) {
+                // persisted embeddings are not reconciled with updated ones, only with added and removed.
+                // Files of other nodes are rejected by calculation version, the local ones are deleted right away
+                embeddingSnapshotStore.deleteAll();
+            }
 
             log.info("Migration successfully finished");
         } catch (Exception e) {
@@ -78,6 +85,10 @@ public class MigrationComponent {
             }
         }
 
+        if (recalculated > 0) {
+            embeddingService.bumpCalculationVersions();
+        }
+
         return recalculated;
     }
 
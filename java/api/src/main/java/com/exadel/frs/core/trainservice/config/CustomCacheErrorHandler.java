@@ -1,29 +0,0 @@
-package com.exadel.frs.core.trainservice.config;
-
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.Cache;
-import org.springframework.cache.interceptor.CacheErrorHandler;
-
-@Slf4j
-public class CustomCacheErrorHandler implements CacheErrorHandler {
-
-    @Override
-    public void handleCacheGetError(RuntimeException e, Cache cache, Object o) {
-        log.info(e.getMessage());
-    }
-
-    @Override
-    public void handleCachePutError(RuntimeException e, Cache cache, Object o, Object o1) {
-        log.info(e.getMessage());
-    }
-
-    @Override
-    public void handleCacheEvictError(RuntimeException e, Cache cache, Object o) {
-        log.info(e.getMessage());
-    }
-
-    @Override
-    public void handleCacheClearError(RuntimeException e, Cache cache) {
-        log.info(e.getMessage());
-    }
-}
@@ -16,6 +16,7 @@
 
 package com.exadel.frs.core.trainservice.config;
 
+import java.util.concurrent.CompletableFuture;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import springfox.documentation.builders.PathSelectors;
@@ -34,6 +35,7 @@ public class SpringFoxConfig {
                 .select()
                 .apis(RequestHandlerSelectors.any())
                 .paths(PathSelectors.any())
-                .build();
+                .build()
+                .genericModelSubstitutes(CompletableFuture.class);
     }
 }
@@ -37,6 +37,7 @@ import com.exadel.frs.core.trainservice.service.FaceProcessService;
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
 import io.swagger.annotations.ApiParam;
+import java.util.concurrent.CompletableFuture;
 import javax.validation.Valid;
 import javax.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
@@ -66,7 +67,7 @@ public class DetectionController {
                     value = "Api key of application and model",
                     required = true)
     })
-    public FacesDetectionResponseDto detect(
+    public CompletableFuture<FacesDetectionResponseDto> detect(
             @ApiParam(value = IMAGE_FILE_DESC, required = true)
             @RequestParam
             final MultipartFile file,
@@ -93,7 +94,9 @@ public class DetectionController {
                 .status(status)
                 .build();
 
-        return (FacesDetectionResponseDto) detectionService.processImage(processImageParams);
+        // the request thread is released, while faces are being detected
+        return detectionService.processImageAsync(processImageParams)
+                               .thenApply(FacesDetectionResponseDto.class::cast);
     }
 
     @PostMapping(value = "/detection/detect", consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -105,7 +108,7 @@ public class DetectionController {
                     value = "Api key of application and model",
                     required = true)
     })
-    public FacesDetectionResponseDto detectBase64(
+    public CompletableFuture<FacesDetectionResponseDto> detectBase64(
             @ApiParam(value = LIMIT_DESC, example = NUMBER_VALUE_EXAMPLE)
             @RequestParam(defaultValue = LIMIT_DEFAULT_VALUE, required = false)
             @Min(value = 0, message = LIMIT_MIN_DESC)
@@ -132,6 +135,7 @@ public class DetectionController {
                 .status(status)
                 .build();
 
-        return (FacesDetectionResponseDto) detectionService.processImage(processImageParams);
+        return detectionService.processImageAsync(processImageParams)
+                               .thenApply(FacesDetectionResponseDto.class::cast);
     }
 }
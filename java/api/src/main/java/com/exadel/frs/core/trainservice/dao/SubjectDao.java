@@ -18,11 +18,15 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Nullable;
 import javax.transaction.Transactional;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class SubjectDao {
 
+    // max number of embeddings removed by a single statement
+    private static final int DELETE_BATCH_SIZE = 1000;
+
     private final SubjectRepository subjectRepository;
     private final EmbeddingRepository embeddingRepository;
     private final ImgRepository imgRepository;
@@ -97,6 +101,40 @@ public class SubjectDao {
         return embedding;
     }
 
+    /**
+     * Removes embeddings of the API key in batches, images are removed, if no more embeddings are calculated for them.
+     *
+     * @return removed embeddings in order of their ids, missing ones are skipped
+     */
+    @Transactional
+    public List<Embedding> removeSubjectEmbeddings(final String apiKey, final List<UUID> embeddingIds) {
+        var removed = new HashMap<UUID, Embedding>();
+        for (int from = 0; from < embeddingIds.size(); from += DELETE_BATCH_SIZE) {
+            var batch = embeddingIds.subList(from, Math.min(from + DELETE_BATCH_SIZE, embeddingIds.size()));
+            var embeddings = embeddingRepository.findWithSubjectByApiKeyAndIdIn(apiKey, batch);
+            if (embeddings.isEmpty()) {
+                continue;
+            }
+
+            embeddingRepository.deleteByIdIn(embeddings.stream().map(Embedding::getId).toList());
+            var imgIds = embeddings.stream()
+                                   .map(Embedding::getImg)
+                                   .filter(img -> img != null && img.getId() != null)
+                                   .map(Img::getId)
+                                   .collect(Collectors.toSet());
+            if (!imgIds.isEmpty()) {
+                imgRepository.deleteUnreferencedByIdIn(imgIds);
+            }
+            embeddings.forEach(embedding -> removed.put(embedding.getId(), embedding));
+        }
+
+        return embeddingIds.stream()
+                           .distinct()
+                           .map(removed::get)
+                           .filter(Objects::nonNull)
+                           .toList();
+    }
+
     @Transactional
     public boolean updateSubjectName(final String apiKey, final String oldSubjectName, final String newSubjectName) {
         final Optional<Subject> subjectWithOldName = subjectRepository.findByApiKeyAndSubjectNameIgnoreCase(
@@ -1,15 +1,31 @@
 package com.exadel.frs.core.trainservice.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import java.util.UUID;
 import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Data
+@Builder
 @AllArgsConstructor
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class CacheActionDto {
 
+    // collection should be reloaded from the database
+    public static final String UPDATE = "UPDATE";
+    public static final String DELETE = "DELETE";
+    // deltas, which are applied in place in order of their sequence numbers
+    public static final String ADD_EMBEDDINGS = "ADD_EMBEDDINGS";
+    public static final String REMOVE_EMBEDDINGS = "REMOVE_EMBEDDINGS";
+    public static final String REMOVE_SUBJECT = "REMOVE_SUBJECT";
+    public static final String RENAME_SUBJECT = "RENAME_SUBJECT";
+
     @JsonProperty("cacheAction")
     private String cacheAction;
 
@@ -18,4 +34,40 @@ public class CacheActionDto {
 
     @JsonProperty("uuid")
     private String serverUUID;
+
+    // number of the delta among deltas of the API key sent by the server, starts from 1
+    @JsonProperty("sequence")
+    private Long sequence;
+
+    // version of the collection in the database, when the notification was sent: the change is reflected by it
+    @JsonProperty("version")
+    private Long version;
+
+    // epoch millis, when the notification was sent, to measure delivery lag
+    @JsonProperty("timestamp")
+    private Long timestamp;
+
+    @JsonProperty("embeddingIds")
+    private List<UUID> embeddingIds;
+
+    @JsonProperty("subjectName")
+    private String subjectName;
+
+    @JsonProperty("newSubjectName")
+    private String newSubjectName;
+
+    // reload is requested after the collection is loaded, nothing is changed: its version is stamped, but not bumped
+    @JsonIgnore
+    private boolean loadOnly;
+
+    public CacheActionDto(final String cacheAction, final String apiKey, final String serverUUID) {
+        this.cacheAction = cacheAction;
+        this.apiKey = apiKey;
+        this.serverUUID = serverUUID;
+    }
+
+    @JsonIgnore
+    public boolean isDelta() {
+        return sequence != null;
+    }
 }
@@ -15,6 +15,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -39,6 +40,30 @@ public class EmbeddingService {
         }
     }
 
+    @Transactional
+    public <T> T doWithEmbeddingProjectionStream(String apiKey, Function<Stream<EmbeddingProjection>, T> func) {
+        try (val stream = embeddingRepository.streamBySubjectApiKey(apiKey)) {
+            return func.apply(stream);
+        }
+    }
+
+    public List<EnhancedEmbeddingProjection> getEnhancedEmbeddingProjections(String apiKey, Collection<UUID> embeddingIds) {
+        return embeddingRepository.findBySubjectApiKeyAndIdIn(apiKey, embeddingIds);
+    }
+
+    public Optional<Long> getCollectionVersion(String apiKey) {
+        return embeddingRepository.getCollectionVersion(apiKey);
+    }
+
+    public Optional<Long> getCalculationVersion(String apiKey) {
+        return embeddingRepository.getCalculationVersion(apiKey);
+    }
+
+    @Transactional
+    public int bumpCalculationVersions() {
+        return embeddingRepository.bumpCalculationVersions();
+    }
+
     public List<Embedding> getWithImgAndCalculatorNotEq(String calculator) {
         return embeddingRepository.getWithImgAndCalculatorNotEq(calculator);
     }
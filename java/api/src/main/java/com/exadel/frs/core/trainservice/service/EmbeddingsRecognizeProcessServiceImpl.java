@@ -12,8 +12,8 @@ import com.exadel.frs.core.trainservice.dto.ProcessEmbeddingsParams;
 import com.exadel.frs.core.trainservice.mapper.FacesMapper;
 import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
 import java.math.BigDecimal;
-import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Service;
 
@@ -40,16 +40,17 @@ public class EmbeddingsRecognizeProcessServiceImpl extends FaceRecognizeProcessS
         String apiKey = processEmbeddingsParams.getApiKey();
         double[][] embeddings = processEmbeddingsParams.getEmbeddings();
 
+        // all the embeddings are predicted at once, with a single pass over the collection
+        List<List<Pair<Double, String>>> predictions = classifierPredictor.predictBatch(apiKey, embeddings, predictionCount);
         List<EmbeddingRecognitionProcessResult> results =
-                Arrays.stream(embeddings)
-                      .map(embedding -> processEmbedding(predictionCount, apiKey, embedding))
-                      .toList();
+                IntStream.range(0, embeddings.length)
+                         .mapToObj(i -> processEmbedding(embeddings[i], predictions.get(i)))
+                         .toList();
 
         return new EmbeddingsRecognitionProcessResponse(results);
     }
 
-    private EmbeddingRecognitionProcessResult processEmbedding(final Integer predictionCount, final String apiKey, final double[] embedding) {
-        List<Pair<Double, String>> predictions = classifierPredictor.predict(apiKey, embedding, predictionCount);
+    private EmbeddingRecognitionProcessResult processEmbedding(final double[] embedding, final List<Pair<Double, String>> predictions) {
         List<EmbeddingSimilarityResult> similarities = predictions.stream()
                                                                   .map(this::processPrediction)
                                                                   .toList();
@@ -2,10 +2,14 @@ package com.exadel.frs.core.trainservice.service;
 
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.core.trainservice.dto.FaceProcessResponse;
 import com.exadel.frs.core.trainservice.dto.FacesDetectionResponseDto;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
 import com.exadel.frs.core.trainservice.mapper.FacesMapper;
+import com.exadel.frs.core.trainservice.util.MultipartFileData;
 import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -20,21 +24,38 @@ public class FaceDetectionProcessServiceImpl implements FaceProcessService {
 
     @Override
     public FacesDetectionResponseDto processImage(ProcessImageParams processImageParams) {
+        try {
+            return (FacesDetectionResponseDto) processImageAsync(processImageParams).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Validates the image and sends it to Faces API, the response is mapped once it is received.
+     */
+    @Override
+    public CompletableFuture<FaceProcessResponse> processImageAsync(ProcessImageParams processImageParams) {
         Integer limit = processImageParams.getLimit();
         Double detProbThreshold = processImageParams.getDetProbThreshold();
         String facePlugins = processImageParams.getFacePlugins();
 
-        FindFacesResponse findFacesResponse;
+        CompletableFuture<FindFacesResponse> findFacesResponse;
         if (processImageParams.getFile() != null) {
             MultipartFile file = (MultipartFile) processImageParams.getFile();
             imageExtensionValidator.validate(file);
-            findFacesResponse = facesApiClient.findFaces(file, limit, detProbThreshold, facePlugins, true);
+            findFacesResponse = facesApiClient.findFacesAsync(file, limit, detProbThreshold, facePlugins, true);
         } else {
             imageExtensionValidator.validateBase64(processImageParams.getImageBase64());
-            findFacesResponse = facesApiClient.findFacesBase64(processImageParams.getImageBase64(), limit, detProbThreshold, facePlugins,true);
+            findFacesResponse = facesApiClient.findFacesAsync(MultipartFileData.fromBase64(processImageParams.getImageBase64()), limit, detProbThreshold, facePlugins, true);
         }
 
-        FacesDetectionResponseDto facesDetectionResponseDto = facesMapper.toFacesDetectionResponseDto(findFacesResponse);
-        return facesDetectionResponseDto.prepareResponse(processImageParams);
+        return findFacesResponse.thenApply(response -> {
+            FacesDetectionResponseDto facesDetectionResponseDto = facesMapper.toFacesDetectionResponseDto(response);
+            return facesDetectionResponseDto.prepareResponse(processImageParams);
+        });
     }
 }
@@ -2,8 +2,20 @@ package com.exadel.frs.core.trainservice.service;
 
 import com.exadel.frs.core.trainservice.dto.FaceProcessResponse;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
+import java.util.concurrent.CompletableFuture;
 
 public interface FaceProcessService {
 
     FaceProcessResponse processImage(ProcessImageParams processImageParams);
+
+    /**
+     * Processes the image without blocking the caller, if the service supports it. By default it is processed by the caller.
+     */
+    default CompletableFuture<FaceProcessResponse> processImageAsync(ProcessImageParams processImageParams) {
+        try {
+            return CompletableFuture.completedFuture(processImage(processImageParams));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -9,14 +9,17 @@ import com.exadel.frs.core.trainservice.dto.FacesRecognitionResponseDto;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
 import com.exadel.frs.core.trainservice.mapper.FacesMapper;
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.core.trainservice.util.MultipartFileData;
 import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Stream;
 
 import static com.exadel.frs.core.trainservice.system.global.Constants.PREDICTION_COUNT;
@@ -53,8 +56,8 @@ public class FaceRecognizeProcessServiceImpl implements FaceProcessService {
             );
         } else {
             imageExtensionValidator.validateBase64(processImageParams.getImageBase64());
-            findFacesResponse = facesApiClient.findFacesBase64WithCalculator(
-                    processImageParams.getImageBase64(),
+            findFacesResponse = facesApiClient.findFacesWithCalculator(
+                    MultipartFileData.fromBase64(processImageParams.getImageBase64()),
                     processImageParams.getLimit(),
                     processImageParams.getDetProbThreshold(),
                     processImageParams.getFacePlugins(),
@@ -67,19 +70,21 @@ public class FaceRecognizeProcessServiceImpl implements FaceProcessService {
             return FacesRecognitionResponseDto.builder().build();
         }
 
-        String apiKey = processImageParams.getApiKey();
-        for (val findResult : facesRecognitionDto.getResult()) {
-            final ArrayList<FaceSimilarityDto> faces = processFaceResult(predictionCount, apiKey, findResult);
-
-            findResult.setSubjects(faces);
+        // all the faces of the image are predicted at once, with a single pass over the collection
+        val findResults = facesRecognitionDto.getResult();
+        val inputs = findResults.stream()
+                                .map(findResult -> Stream.of(findResult.getEmbedding()).mapToDouble(d -> d).toArray())
+                                .toArray(double[][]::new);
+        val predictions = classifierPredictor.predictBatch(processImageParams.getApiKey(), inputs, predictionCount);
+        for (int i = 0; i < findResults.size(); i++) {
+            val findResult = findResults.get(i);
+            findResult.setSubjects(processFaceResult(predictions.get(i), findResult));
         }
 
         return facesRecognitionDto.prepareResponse(processImageParams);
     }
 
-    private ArrayList<FaceSimilarityDto> processFaceResult(Integer predictionCount, String apiKey, FacePredictionResultDto findResult) {
-        double[] input = Stream.of(findResult.getEmbedding()).mapToDouble(d -> d).toArray();
-        val predictions = classifierPredictor.predict(apiKey, input, predictionCount);
+    private ArrayList<FaceSimilarityDto> processFaceResult(List<Pair<Double, String>> predictions, FacePredictionResultDto findResult) {
         val faces = new ArrayList<FaceSimilarityDto>();
         for (val prediction : predictions) {
             var pred = BigDecimal.valueOf(prediction.getLeft());
@@ -12,6 +12,7 @@ import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
 import com.exadel.frs.core.trainservice.dto.VerifyFacesResponse;
 import com.exadel.frs.core.trainservice.dto.VerifyFacesResultDto;
 import com.exadel.frs.core.trainservice.mapper.FacesMapper;
+import com.exadel.frs.core.trainservice.util.MultipartFileData;
 import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
 import lombok.RequiredArgsConstructor;
 import org.springframework.util.CollectionUtils;
@@ -110,8 +111,8 @@ public class FaceVerificationProcessServiceImpl implements FaceProcessService {
 
         @Override
         FindFacesResponse findFace(String photo, ProcessImageParams processImageParams) {
-            return client.findFacesBase64WithCalculator(
-                    photo,
+            return client.findFacesWithCalculator(
+                    MultipartFileData.fromBase64(photo),
                     processImageParams.getLimit(),
                     processImageParams.getDetProbThreshold(),
                     processImageParams.getFacePlugins(),
@@ -8,68 +8,247 @@ import com.impossibl.postgres.api.jdbc.PGConnection;
 import com.impossibl.postgres.api.jdbc.PGNotificationListener;
 import com.impossibl.postgres.jdbc.PGDataSource;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.exadel.frs.core.trainservice.system.global.Constants.SERVER_UUID;
 
+/**
+ * Listens to cache notifications of other nodes. Notifications are applied by a pool of workers: notifications of
+ * the same API key in order, a reload supersedes reloads of the API key, which are not started yet. So a slow reload
+ * of a big collection delays neither the driver's thread, nor notifications of other collections.
+ * <p>
+ * The listening connection is supervised by a dedicated thread:
+ * it periodically reads versions of collections through the connection, which both checks the connection and
+ * confirms, that notifications about changes up to these versions are received. After the connection is lost,
+ * it is reopened with backoff and cached collections changed in the meantime are reloaded.
+ */
 @Service("notificationReceiverService")
 @Slf4j
-@RequiredArgsConstructor
 public class NotificationReceiverService {
 
-    @Qualifier("dsPgNot")
-    private final PGDataSource pgNotificationDatasource;
-
+    private static final String CHANNEL = "face_collection_update_msg";
 
-    private PGConnection connection;
+    private final PGDataSource pgNotificationDatasource;
 
     private final EmbeddingCacheProvider embeddingCacheProvider;
 
     private final ObjectMapper objectMapper;
 
-    private static PGNotificationListener listener;
+    @Value("${app.cache-notification.listener.check-period:10s}")
+    private Duration checkPeriod = Duration.ofSeconds(10);
+
+    @Value("${app.cache-notification.listener.max-backoff:30s}")
+    private Duration maxBackoff = Duration.ofSeconds(30);
+
+    @Value("${app.cache-notification.listener.parallelism:4}")
+    private int parallelism = 4;
+
+    private final AtomicBoolean connected = new AtomicBoolean();
+    private final Counter reconnects;
+    private final Counter resyncs;
+    private final Timer lag;
+
+    // API key -> version of the collection, notifications about which are received
+    private Map<String, Long> versions;
+    private volatile long syncedAt = System.currentTimeMillis();
+
+    // API key -> tasks, which are not started yet. Guarded by itself. A key is present, while its tasks are being run
+    private final Map<String, Deque<Task>> pending = new HashMap<>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private ExecutorService workers;
+
+    private PGConnection connection;
+    private volatile CountDownLatch closed;
+    private Thread supervisor;
+    private volatile boolean running = true;
+
+    public NotificationReceiverService(
+            @Qualifier("dsPgNot") final PGDataSource pgNotificationDatasource,
+            final EmbeddingCacheProvider embeddingCacheProvider,
+            final ObjectMapper objectMapper,
+            final MeterRegistry meterRegistry
+    ) {
+        this.pgNotificationDatasource = pgNotificationDatasource;
+        this.embeddingCacheProvider = embeddingCacheProvider;
+        this.objectMapper = objectMapper;
+        this.reconnects = meterRegistry.counter("embedding.cache.listener.reconnects");
+        this.resyncs = meterRegistry.counter("embedding.cache.listener.resyncs");
+        this.lag = Timer.builder("embedding.cache.notifications.lag")
+                        .description("Time between sending and receiving of cache notifications")
+                        .register(meterRegistry);
+        Gauge.builder("embedding.cache.listener.connected", connected, value -> value.get() ? 1 : 0)
+             .register(meterRegistry);
+        Gauge.builder("embedding.cache.listener.sync.age", this, service -> (System.currentTimeMillis() - service.syncedAt) / 1000.0)
+             .description("Seconds since the node was known to receive all cache notifications")
+             .baseUnit("seconds")
+             .register(meterRegistry);
+        Gauge.builder("embedding.cache.notifications.backlog", backlog, AtomicInteger::get)
+             .description("Received cache notifications, which are not applied yet")
+             .register(meterRegistry);
+    }
 
     @PostConstruct
     public void setUpNotification() {
+        workers = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            var thread = new Thread(runnable, "cache-notification-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        supervisor = new Thread(this::supervise, "cache-notification-listener");
+        supervisor.setDaemon(true);
+        supervisor.start();
+    }
 
-        listener = new PGNotificationListener() {
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        supervisor.interrupt();
+        supervisor.join(TimeUnit.SECONDS.toMillis(10));
+        workers.shutdownNow();
+    }
+
+    private void supervise() {
+        long backoff = checkPeriod.toMillis() / 10;
+        while (running) {
+            try {
+                listen();
+                connected.set(true);
+                backoff = checkPeriod.toMillis() / 10;
+                while (running && !closed.await(checkPeriod.toMillis(), TimeUnit.MILLISECONDS)) {
+                    synchronize();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Listening to cache notifications failed: {}", e.getMessage());
+            }
+
+            connected.set(false);
+            close();
+            if (!running) {
+                break;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            backoff = Math.min(backoff * 2, maxBackoff.toMillis());
+            reconnects.increment();
+        }
+        connected.set(false);
+        close();
+    }
+
+    private void listen() throws SQLException {
+        var latch = new CountDownLatch(1);
+        closed = latch;
+        connection = pgNotificationDatasource.getConnection().unwrap(PGConnection.class);
+        connection.addNotificationListener(new PGNotificationListener() {
 
             @Override
             public void notification(int processId, String channelName, String payload) {
-                log.info(String.format("/channels3/ channel name: %1$s payload %2$s", channelName, payload));
-                if (channelName.equals("face_collection_update_msg")) {
+                log.debug("Notification from channel {}: {}", channelName, payload);
+                if (channelName.equals(CHANNEL)) {
                     synchronizeCacheWithNotification(payload);
                 }
             }
 
             @Override
             public void closed() {
-                log.info("face_collection_update_msg closed");
+                log.warn("{} listening connection is closed", CHANNEL);
+                latch.countDown();
             }
-        };
-        try {
-            connection = pgNotificationDatasource.getConnection().unwrap(PGConnection.class);
+        });
 
-            Statement statement = connection.createStatement();
-            statement.executeUpdate("LISTEN face_collection_update_msg");
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("LISTEN " + CHANNEL);
+        }
+        synchronize();
+    }
 
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
+    /**
+     * Reads versions of collections. Reloads cached collections, which are changed since the previous read,
+     * if the listening connection was reopened in between. Versions are read by the listening connection:
+     * notifications committed before the read are received by the moment it completes.
+     */
+    private void synchronize() throws SQLException {
+        var current = new HashMap<String, Long>();
+        try (Statement statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT api_key, collection_version FROM model")) {
+            while (resultSet.next()) {
+                current.put(resultSet.getString(1), resultSet.getLong(2));
+            }
         }
 
-        connection.addNotificationListener(listener);
+        if (versions != null && !connected.get()) {
+            reconcile(versions, current);
+        }
+        versions = current;
+        syncedAt = System.currentTimeMillis();
     }
 
-    private void synchronizeCacheWithNotification(String payload) {
+    void reconcile(final Map<String, Long> previous, final Map<String, Long> current) {
+        var apiKeys = new HashSet<>(previous.keySet());
+        apiKeys.addAll(current.keySet());
+        int changed = 0;
+        for (var apiKey : apiKeys) {
+            var version = current.get(apiKey);
+            if (Objects.equals(previous.get(apiKey), version)) {
+                continue;
+            }
+
+            changed++;
+            resyncs.increment();
+            if (version == null) {
+                submit(apiKey, true, () -> embeddingCacheProvider.receiveInvalidateCache(apiKey));
+            } else {
+                submit(apiKey, true, () -> embeddingCacheProvider.resync(apiKey, version));
+            }
+        }
+        log.info("Cache notifications listener is reconnected, {} changed collections are resynchronized", changed);
+    }
+
+    private void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close listening connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    void synchronizeCacheWithNotification(String payload) {
 
         try {
             CacheActionDto cacheActionDto = objectMapper.readValue(payload, CacheActionDto.class);
@@ -79,15 +258,65 @@ public class NotificationReceiverService {
                     && !StringUtils.isBlank(cacheActionDto.getApiKey())
                     && !StringUtils.isBlank(cacheActionDto.getCacheAction())
             ) {
+                if (cacheActionDto.getTimestamp() != null) {
+                    lag.record(Math.max(0, System.currentTimeMillis() - cacheActionDto.getTimestamp()), TimeUnit.MILLISECONDS);
+                }
 
-                if (cacheActionDto.getCacheAction().equals("UPDATE")) {
-                    embeddingCacheProvider.receivePutOnCache(cacheActionDto.getApiKey());
-                } else if (cacheActionDto.getCacheAction().equals("DELETE")) {
-                    embeddingCacheProvider.receiveInvalidateCache(cacheActionDto.getApiKey());
+                var apiKey = cacheActionDto.getApiKey();
+                if (cacheActionDto.isDelta()) {
+                    submit(apiKey, false, () -> embeddingCacheProvider.receiveDelta(cacheActionDto));
+                } else if (cacheActionDto.getCacheAction().equals(CacheActionDto.UPDATE)) {
+                    submit(apiKey, true, () -> embeddingCacheProvider.receivePutOnCache(apiKey, cacheActionDto.getVersion()));
+                } else if (cacheActionDto.getCacheAction().equals(CacheActionDto.DELETE)) {
+                    submit(apiKey, true, () -> embeddingCacheProvider.receiveInvalidateCache(apiKey));
                 }
             }
         } catch (JsonProcessingException e) {
             log.error(e.getMessage());
         }
     }
+
+    /**
+     * Schedules the task after other tasks of the API key. Reload (or invalidation) replaces pending reloads
+     * of the API key: only the newest one matters. Deltas are kept, they are cheap and keep track of sequences.
+     */
+    private void submit(final String apiKey, final boolean reload, final Runnable action) {
+        synchronized (pending) {
+            var tasks = pending.get(apiKey);
+            if (tasks == null) {
+                tasks = new ArrayDeque<>();
+                pending.put(apiKey, tasks);
+                workers.execute(() -> drain(apiKey));
+            } else if (reload) {
+                int size = tasks.size();
+                tasks.removeIf(Task::reload);
+                backlog.addAndGet(tasks.size() - size);
+            }
+            tasks.add(new Task(reload, action));
+            backlog.incrementAndGet();
+        }
+    }
+
+    private void drain(final String apiKey) {
+        while (true) {
+            Task task;
+            synchronized (pending) {
+                task = pending.get(apiKey).poll();
+                if (task == null) {
+                    pending.remove(apiKey);
+                    return;
+                }
+            }
+
+            backlog.decrementAndGet();
+            try {
+                task.action().run();
+            } catch (RuntimeException e) {
+                log.error("Failed to apply cache notification of {}", apiKey, e);
+            }
+        }
+    }
+
+    private record Task(boolean reload, Runnable action) {
+    }
 }
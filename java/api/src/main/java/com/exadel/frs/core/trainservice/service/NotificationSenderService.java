@@ -3,51 +3,314 @@ package com.exadel.frs.core.trainservice.service;
 import com.exadel.frs.core.trainservice.dto.CacheActionDto;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.impossibl.postgres.api.jdbc.PGConnection;
 import com.impossibl.postgres.jdbc.PGDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
-import lombok.RequiredArgsConstructor;
+import javax.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.sql.SQLException;
-import java.sql.Statement;
-
-
+/**
+ * Outbox of cache notifications to other nodes. Callers only enqueue actions, a dedicated thread collects them
+ * for a short window, coalesces actions of the same API key, numbers deltas and sends the whole batch
+ * with a single statement. Connection is reopened, if sending fails.
+ */
 @Service("notificationSenderService")
 @Slf4j
-@RequiredArgsConstructor
 public class NotificationSenderService {
-    @Qualifier("dsPgNot")
+
+    private static final String CHANNEL = "face_collection_update_msg";
+    // max number of embedding ids per delta, to fit into 8000 bytes limit of a notification payload
+    static final int DELTA_MAX_IDS = 150;
+    private static final Set<String> DELTAS = Set.of(
+            CacheActionDto.ADD_EMBEDDINGS,
+            CacheActionDto.REMOVE_EMBEDDINGS,
+            CacheActionDto.REMOVE_SUBJECT,
+            CacheActionDto.RENAME_SUBJECT
+    );
+    private static final int MAX_SEND_ATTEMPTS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
     private final PGDataSource pgNotificationDatasource;
-    private PGConnection connection;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<CacheActionDto> queue = new LinkedBlockingQueue<>();
+    private final Counter sent;
+    private final Counter dropped;
+
+    @Value("${app.cache-notification.coalesce-window:20ms}")
+    private Duration coalesceWindow = Duration.ofMillis(20);
+
+    // API key -> sequence number of the last delta sent by this node, used by the sender thread only.
+    // Keys of deleted collections are removed, receivers reload collections on unexpected sequence numbers anyway
+    private final Map<String, Long> sequences = new HashMap<>();
+
+    private Connection connection;
+    private Thread sender;
+    private volatile boolean running = true;
+
+    public NotificationSenderService(
+            @Qualifier("dsPgNot") final PGDataSource pgNotificationDatasource,
+            final ObjectMapper objectMapper,
+            final MeterRegistry meterRegistry
+    ) {
+        this.pgNotificationDatasource = pgNotificationDatasource;
+        this.objectMapper = objectMapper;
+        this.sent = meterRegistry.counter("embedding.cache.notifications.sent");
+        this.dropped = meterRegistry.counter("embedding.cache.notifications.dropped");
+        Gauge.builder("embedding.cache.notifications.pending", queue, BlockingQueue::size)
+             .description("Cache notifications waiting to be sent")
+             .register(meterRegistry);
+    }
 
     @PostConstruct
     public void setUp() {
-        try {
-            this.connection = (PGConnection) pgNotificationDatasource.getConnection();
-        } catch (SQLException e) {
-            log.error("Error during connection to Postgres", e);
-        }
+        sender = new Thread(this::run, "cache-notification-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        // pending notifications are sent before the thread stops
+        running = false;
+        sender.join(TimeUnit.SECONDS.toMillis(10));
+        closeConnection();
     }
 
+    /**
+     * Enqueues notification, it is sent asynchronously. Deltas get their sequence numbers once they are sent.
+     */
     public void notifyCacheChange(CacheActionDto cacheActionDto) {
-        try {
-            Statement statement = this.connection.createStatement();
+        queue.add(cacheActionDto);
+    }
 
+    private void run() {
+        while (running || !queue.isEmpty()) {
             try {
-                ObjectMapper objectMapper = new ObjectMapper();
-                String actionString = String.format("NOTIFY face_collection_update_msg, '%s'",
-                        objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(cacheActionDto));
-                statement.execute(actionString);
-            } catch (JsonProcessingException e) {
-                log.error(e.getMessage());
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                if (running) {
+                    // actions of the same request and of concurrent requests are sent together
+                    Thread.sleep(coalesceWindow.toMillis());
+                }
+                var actions = new ArrayList<CacheActionDto>();
+                actions.add(first);
+                queue.drainTo(actions);
+
+                send(coalesce(actions));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Failed to send cache notifications", e);
+            }
+        }
+    }
+
+    /**
+     * Merges actions of the same API key: reload or deletion of a collection makes its previous actions redundant,
+     * consecutive additions (or removals) of embeddings are merged. Then deltas are split to fit into the payload
+     * and numbered. Numbering of a deleted collection is forgotten.
+     *
+     * @return notifications to send, in order
+     */
+    List<CacheActionDto> coalesce(final List<CacheActionDto> actions) {
+        var coalesced = new LinkedHashMap<String, List<CacheActionDto>>();
+        for (var action : actions) {
+            var pending = coalesced.computeIfAbsent(action.getApiKey(), apiKey -> new ArrayList<>());
+            var last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+            if (!DELTAS.contains(action.getCacheAction())) {
+                // reload after a load supersedes changes, but they still have to bump the version
+                var reload = action.isLoadOnly() && last != null && !last.isLoadOnly() ? copyOf(action) : action;
+                pending.clear();
+                pending.add(reload);
+            } else if (last != null && last.getCacheAction().equals(action.getCacheAction()) && last.getEmbeddingIds() != null) {
+                var embeddingIds = new ArrayList<>(last.getEmbeddingIds());
+                embeddingIds.addAll(action.getEmbeddingIds());
+                last.setEmbeddingIds(embeddingIds);
+            } else {
+                pending.add(copyOf(action));
             }
+        }
 
-            statement.close();
-        } catch (SQLException e) {
-            log.error(e.getMessage());
+        var notifications = new ArrayList<CacheActionDto>();
+        for (var pending : coalesced.values()) {
+            for (var action : pending) {
+                if (!DELTAS.contains(action.getCacheAction())) {
+                    if (CacheActionDto.DELETE.equals(action.getCacheAction())) {
+                        sequences.remove(action.getApiKey());
+                    }
+                    notifications.add(action);
+                    continue;
+                }
+
+                var embeddingIds = action.getEmbeddingIds();
+                int from = 0;
+                do {
+                    var delta = copyOf(action);
+                    if (embeddingIds != null) {
+                        int to = Math.min(from + DELTA_MAX_IDS, embeddingIds.size());
+                        delta.setEmbeddingIds(embeddingIds.subList(from, to));
+                        from = to;
+                    }
+                    delta.setSequence(sequences.merge(action.getApiKey(), 1L, Long::sum));
+                    notifications.add(delta);
+                } while (embeddingIds != null && from < embeddingIds.size());
+            }
         }
+
+        return notifications;
+    }
+
+    /**
+     * Sends notifications with a single statement, so they are delivered in order within a single transaction.
+     * Versions of changed collections are bumped right before, once per batch, and notifications are stamped with them:
+     * changes are committed before they are enqueued, so collections loaded after the bump reflect them.
+     * Reloads requested after loads are stamped with current versions, so nodes having them already skip the reload.
+     * Connection is reopened after a failure. Notifications are dropped after several attempts: receivers reload
+     * collections on missed deltas.
+     */
+    private void send(final List<CacheActionDto> notifications) throws InterruptedException {
+        long backoff = 100;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (connection == null) {
+                    connection = pgNotificationDatasource.getConnection();
+                }
+                var changed = notifications.stream()
+                                           .filter(notification -> !notification.isLoadOnly())
+                                           .map(CacheActionDto::getApiKey)
+                                           .collect(Collectors.toCollection(TreeSet::new));
+                var versions = bumpVersions(changed.toArray());
+                versions.putAll(readVersions(notifications.stream()
+                                                          .map(CacheActionDto::getApiKey)
+                                                          .filter(apiKey -> !changed.contains(apiKey))
+                                                          .distinct()
+                                                          .toArray()));
+                var timestamp = System.currentTimeMillis();
+                var payloads = notifications.stream()
+                                            .map(notification -> {
+                                                notification.setVersion(versions.get(notification.getApiKey()));
+                                                notification.setTimestamp(timestamp);
+                                                return toJson(notification);
+                                            })
+                                            .toArray();
+                try (var statement = connection.prepareStatement("SELECT pg_notify('" + CHANNEL + "', payload) FROM unnest(?) AS payload")) {
+                    statement.setArray(1, connection.createArrayOf("text", payloads));
+                    statement.execute();
+                }
+                sent.increment(payloads.length);
+
+                return;
+            } catch (SQLException e) {
+                closeConnection();
+                if (attempt == MAX_SEND_ATTEMPTS || !running) {
+                    log.error("Failed to send {} cache notifications, they are dropped", notifications.size(), e);
+                    dropped.increment(notifications.size());
+                    return;
+                }
+
+                log.warn("Failed to send cache notifications, attempt {}: {}", attempt, e.getMessage());
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Increments versions of collections. It is done outside of transactions, which change embeddings, so they never
+     * wait for each other on rows of models. Rows are locked in order of API keys, so concurrent senders of several
+     * nodes don't deadlock. A version bumped by a failed attempt is bumped once again, it only makes receivers reload.
+     */
+    private Map<String, Long> bumpVersions(final Object[] apiKeys) throws SQLException {
+        var versions = new HashMap<String, Long>();
+        if (apiKeys.length == 0) {
+            return versions;
+        }
+        try (var statement = connection.prepareStatement(
+                "UPDATE model SET collection_version = collection_version + 1 WHERE id IN "
+                        + "(SELECT id FROM model WHERE api_key = ANY(?) ORDER BY api_key FOR UPDATE) "
+                        + "RETURNING api_key, collection_version"
+        )) {
+            statement.setArray(1, connection.createArrayOf("text", apiKeys));
+            try (var resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    versions.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+        }
+
+        return versions;
+    }
+
+    /**
+     * Reads current versions of collections, which are not changed.
+     */
+    private Map<String, Long> readVersions(final Object[] apiKeys) throws SQLException {
+        var versions = new HashMap<String, Long>();
+        if (apiKeys.length == 0) {
+            return versions;
+        }
+        try (var statement = connection.prepareStatement("SELECT api_key, collection_version FROM model WHERE api_key = ANY(?)")) {
+            statement.setArray(1, connection.createArrayOf("text", apiKeys));
+            try (var resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    versions.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+        }
+
+        return versions;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close notification connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    private String toJson(final CacheActionDto action) {
+        try {
+            return objectMapper.writeValueAsString(action);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static CacheActionDto copyOf(final CacheActionDto action) {
+        return CacheActionDto.builder()
+                             .cacheAction(action.getCacheAction())
+                             .apiKey(action.getApiKey())
+                             .serverUUID(action.getServerUUID())
+                             .embeddingIds(action.getEmbeddingIds())
+                             .subjectName(action.getSubjectName())
+                             .newSubjectName(action.getNewSubjectName())
+                             .build();
     }
 }
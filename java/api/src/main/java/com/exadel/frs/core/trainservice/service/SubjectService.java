@@ -3,7 +3,6 @@ package com.exadel.frs.core.trainservice.service;
 import static java.math.RoundingMode.HALF_UP;
 import com.exadel.frs.commonservice.entity.Embedding;
 import com.exadel.frs.commonservice.entity.Subject;
-import com.exadel.frs.commonservice.exception.EmbeddingNotFoundException;
 import com.exadel.frs.commonservice.exception.TooManyFacesException;
 import com.exadel.frs.commonservice.exception.WrongEmbeddingCountException;
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
@@ -21,11 +20,11 @@ import com.exadel.frs.core.trainservice.dto.FaceVerification;
 import com.exadel.frs.core.trainservice.dto.ProcessEmbeddingsParams;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
 import com.exadel.frs.core.trainservice.system.global.Constants;
+import com.exadel.frs.core.trainservice.util.MultipartFileData;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -76,10 +75,7 @@ public class SubjectService {
         if (StringUtils.isNotEmpty(subjectName)) {
             removed = subjectDao.removeAllSubjectEmbeddings(apiKey, subjectName);
             if (removed > 0) {
-                embeddingCacheProvider.ifPresent(
-                        apiKey,
-                        c -> c.removeEmbeddingsBySubjectName(subjectName)
-                );
+                embeddingCacheProvider.removeEmbeddingsBySubjectName(apiKey, subjectName);
             }
         } else {
             removed = subjectDao.removeAllSubjectEmbeddings(apiKey);
@@ -101,10 +97,7 @@ public class SubjectService {
         var subject = subjectDao.deleteSubjectByName(apiKey, subjectName);
 
         // remove subject from cache if required
-        embeddingCacheProvider.ifPresent(
-                apiKey,
-                c -> c.removeEmbeddingsBySubjectName(subjectName)
-        );
+        embeddingCacheProvider.removeEmbeddingsBySubjectName(apiKey, subjectName);
 
         return subject;
     }
@@ -113,22 +106,20 @@ public class SubjectService {
         var embedding = subjectDao.removeSubjectEmbedding(apiKey, embeddingId);
 
         // remove embedding from cache if required
-        embeddingCacheProvider.ifPresent(
-                apiKey,
-                c -> c.removeEmbedding(embedding)
-        );
+        embeddingCacheProvider.removeEmbeddings(apiKey, List.of(embedding.getId()));
 
         return embedding;
     }
-    public List<Embedding> removeSubjectEmbeddings(final String apiKey, final List<UUID> embeddingIds){
-        List<Embedding> result = new ArrayList<>();
-        for (UUID id: embeddingIds) {
-            try {
-                result.add(removeSubjectEmbedding(apiKey, id));
-            } catch (EmbeddingNotFoundException e){
-                e.printStackTrace();
-            }
+    public List<Embedding> removeSubjectEmbeddings(final String apiKey, final List<UUID> embeddingIds) {
+        // embeddings, which are not found, are skipped
+        var result = subjectDao.removeSubjectEmbeddings(apiKey, embeddingIds);
+
+        if (!result.isEmpty()) {
+            // remove all embeddings from cache at once (single snapshot and single notification)
+            var removedIds = result.stream().map(Embedding::getId).toList();
+            embeddingCacheProvider.removeEmbeddings(apiKey, removedIds);
         }
+
         return result;
     }
 
@@ -142,10 +133,7 @@ public class SubjectService {
 
         if (updated) {
             // update cache if required
-            embeddingCacheProvider.ifPresent(
-                    apiKey,
-                    c -> c.updateSubjectName(oldSubjectName, newSubjectName)
-            );
+            embeddingCacheProvider.updateSubjectName(apiKey, oldSubjectName, newSubjectName);
         }
 
         return updated;
@@ -156,8 +144,10 @@ public class SubjectService {
             final String subjectName,
             final Double detProbThreshold,
             final String modelKey) {
-        var findFacesResponse = facesApiClient.findFacesBase64WithCalculator(
-                base64photo,
+        // decoded once, the same bytes are sent to Faces API and saved
+        var photo = MultipartFileData.fromBase64(base64photo);
+        var findFacesResponse = facesApiClient.findFacesWithCalculator(
+                photo,
                 MAX_FACES_TO_RECOGNIZE,
                 detProbThreshold,
                 null,
@@ -165,7 +155,7 @@ public class SubjectService {
         );
 
         return saveCalculatedEmbedding(
-                Base64.getDecoder().decode(base64photo),
+                photo.getBytes(),
                 subjectName,
                 modelKey,
                 findFacesResponse
@@ -178,8 +168,10 @@ public class SubjectService {
             final Double detProbThreshold,
             final String modelKey
     ) throws IOException {
+        // read from the uploaded file once, the same bytes are sent to Faces API and saved
+        var content = file.getBytes();
         var findFacesResponse = facesApiClient.findFacesWithCalculator(
-                file,
+                new MultipartFileData(content, file.getOriginalFilename(), file.getContentType()),
                 MAX_FACES_TO_RECOGNIZE,
                 detProbThreshold,
                 null,
@@ -187,7 +179,7 @@ public class SubjectService {
         );
 
         return saveCalculatedEmbedding(
-                file.getBytes(),
+                content,
                 subjectName,
                 modelKey,
                 findFacesResponse
@@ -217,10 +209,7 @@ public class SubjectService {
 
         final Pair<Subject, Embedding> pair = subjectDao.addEmbedding(modelKey, subjectName, embeddingToSave);
 
-        embeddingCacheProvider.ifPresent(
-                modelKey,
-                subjectCollection -> subjectCollection.addEmbedding(pair.getRight())
-        );
+        embeddingCacheProvider.addEmbedding(modelKey, pair.getRight());
 
         return pair;
     }
@@ -232,7 +221,7 @@ public class SubjectService {
             findFacesResponse = facesApiClient.findFacesWithCalculator(file, processImageParams.getLimit(),
                     processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins(), true);
         } else {
-            findFacesResponse = facesApiClient.findFacesBase64WithCalculator(processImageParams.getImageBase64(),
+            findFacesResponse = facesApiClient.findFacesWithCalculator(MultipartFileData.fromBase64(processImageParams.getImageBase64()),
                     processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins(), true);
         }
 
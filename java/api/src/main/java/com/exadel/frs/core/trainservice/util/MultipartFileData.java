@@ -16,15 +16,21 @@
 
 package com.exadel.frs.core.trainservice.util;
 
+import com.exadel.frs.commonservice.exception.InvalidBase64Exception;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Base64;
+import java.util.regex.Pattern;
 import org.springframework.web.multipart.MultipartFile;
 
 public class MultipartFileData implements MultipartFile {
 
+    private static final String BASE64_FILE_NAME = "base64";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     private final byte[] content;
     private final String name;
     private final String contentType;
@@ -35,6 +41,19 @@ public class MultipartFileData implements MultipartFile {
         this.contentType = contentType;
     }
 
+    /**
+     * Decodes the image once, so that the same bytes are sent to Faces API as multipart and saved afterwards.
+     * Whitespace (e.g. line breaks) is ignored, like by the validator, any other character outside of base64 alphabet
+     * is rejected.
+     */
+    public static MultipartFileData fromBase64(final String base64) {
+        try {
+            return new MultipartFileData(Base64.getDecoder().decode(WHITESPACE.matcher(base64).replaceAll("")), BASE64_FILE_NAME, null);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidBase64Exception();
+        }
+    }
+
     @Override
     public String getName() {
         return name;
@@ -0,0 +1,152 @@
+package com.exadel.frs.core.trainservice.util;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Selects indexes of the largest values of a primitive array with a bounded binary heap:
+ * O(n log k) time and a single {@code int[k]} allocation, no boxing.
+ */
+@UtilityClass
+public class TopKSelector {
+
+    /**
+     * @param k      max number of indexes to select
+     * @param filter indexes, which could be selected
+     * @return indexes of up to k largest values, the largest first. Equal values are ordered by index
+     */
+    public int[] largest(final double[] values, final int k, final IntPredicate filter) {
+        return largest(values, 0, values.length, k, filter);
+    }
+
+    /**
+     * The same as {@link #largest(double[], int, IntPredicate)}, but only indexes in [fromIndex, toIndex) are selected.
+     */
+    public int[] largest(final double[] values, final int fromIndex, final int toIndex, final int k, final IntPredicate filter) {
+        if (k == 1) {
+            return largestOne(values, fromIndex, toIndex, filter);
+        }
+
+        var heap = new int[Math.max(0, Math.min(k, toIndex - fromIndex))];
+        if (heap.length == 0) {
+            return heap;
+        }
+
+        // min-heap: the worst of selected indexes is on top
+        int size = 0;
+        for (int index = fromIndex; index < toIndex; index++) {
+            if (!filter.test(index)) {
+                continue;
+            }
+
+            if (size < heap.length) {
+                siftUp(values, heap, size++, index);
+            } else if (isBetter(values, index, heap[0])) {
+                siftDown(values, heap, size, index);
+            }
+        }
+
+        // extract the worst ones first, filling the result from the end
+        var result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            siftDown(values, heap, i, heap[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return indexes of all the values accepted by the filter, the largest first. Equal values are ordered by index
+     */
+    public int[] sorted(final double[] values, final IntPredicate filter) {
+        return largest(values, values.length, filter);
+    }
+
+    /**
+     * Merges selections of disjoint index ranges.
+     *
+     * @param candidates results of {@link #largest(double[], int, int, int, IntPredicate)} for the ranges
+     * @return indexes of up to k largest values among the candidates, ordered as by a single selection
+     */
+    public int[] merge(final double[] values, final int[][] candidates, final int k) {
+        int count = 0;
+        for (var selected : candidates) {
+            count += selected.length;
+        }
+
+        var merged = new int[count];
+        int position = 0;
+        for (var selected : candidates) {
+            System.arraycopy(selected, 0, merged, position, selected.length);
+            position += selected.length;
+        }
+        // equal values are ordered by index, so candidates are compared in index order
+        Arrays.sort(merged);
+
+        var mergedValues = new double[count];
+        for (int i = 0; i < count; i++) {
+            mergedValues[i] = values[merged[i]];
+        }
+
+        var top = largest(mergedValues, k, index -> true);
+        for (int i = 0; i < top.length; i++) {
+            top[i] = merged[top[i]];
+        }
+
+        return top;
+    }
+
+    private static int[] largestOne(final double[] values, final int fromIndex, final int toIndex, final IntPredicate filter) {
+        int best = -1;
+        for (int index = fromIndex; index < toIndex; index++) {
+            if (filter.test(index) && (best < 0 || isBetter(values, index, best))) {
+                best = index;
+            }
+        }
+
+        return best < 0 ? new int[0] : new int[]{best};
+    }
+
+    private static void siftUp(final double[] values, final int[] heap, final int position, final int index) {
+        int i = position;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!isBetter(values, heap[parent], index)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = index;
+    }
+
+    /**
+     * Replaces top of the heap of given size with the index.
+     */
+    private static void siftDown(final double[] values, final int[] heap, final int size, final int index) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && isBetter(values, heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!isBetter(values, index, heap[child])) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (size > 0) {
+            heap[i] = index;
+        }
+    }
+
+    private static boolean isBetter(final double[] values, final int index, final int other) {
+        int compared = Double.compare(values[index], values[other]);
+
+        return compared > 0 || (compared == 0 && index < other);
+    }
+}
@@ -0,0 +1,113 @@
+package com.exadel.frs.core.trainservice.benchmark;
+
+import com.exadel.frs.core.trainservice.cache.EmbeddingMatrix;
+import com.exadel.frs.core.trainservice.cache.EmbeddingPrecision;
+import com.exadel.frs.core.trainservice.cache.HnswIndex;
+import com.exadel.frs.core.trainservice.cache.HnswOptions;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Recall and latency of {@link HnswIndex} against the exact scan of {@link EmbeddingMatrix}.
+ * <p>
+ * Gallery is made of subjects with several photos each (unit vectors around the subject's one),
+ * queries are new photos of random subjects. Is not a part of test suite, run it from test classpath:
+ * {@code AnnRecallReport <rows> <dimension> <queries> [m] [efConstruction] [efSearch...]},
+ * the index is built once and queried with every given efSearch.
+ */
+public class AnnRecallReport {
+
+    private static final int PHOTOS_PER_SUBJECT = 5;
+    private static final double PHOTO_SPREAD = 0.4;
+    private static final int K = 10;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        int m = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int efConstruction = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+        int[] efSearches = args.length > 5
+                ? Arrays.stream(args, 5, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{16, 32, 64, 128};
+
+        var random = new Random(42);
+        var matrix = new EmbeddingMatrix(EmbeddingPrecision.FLOAT32, dimension, rows);
+        var subjects = new double[rows / PHOTOS_PER_SUBJECT + 1][];
+        for (int row = 0; row < rows; row++) {
+            int subject = row / PHOTOS_PER_SUBJECT;
+            if (subjects[subject] == null) {
+                subjects[subject] = BenchmarkData.randomUnitVector(random, dimension);
+            }
+            matrix.append(UUID.randomUUID(), subject, BenchmarkData.randomNeighbourOf(random, subjects[subject], PHOTO_SPREAD));
+        }
+
+        var queryVectors = new float[queries][];
+        for (int i = 0; i < queries; i++) {
+            var subject = subjects[random.nextInt(rows / PHOTOS_PER_SUBJECT)];
+            queryVectors[i] = BenchmarkData.toFloatVector(BenchmarkData.randomNeighbourOf(random, subject, PHOTO_SPREAD));
+        }
+
+        var exact = new UUID[queries][];
+        var exactLatencies = new long[queries];
+        var distances = new double[rows];
+        for (int i = 0; i < queries; i++) {
+            long start = System.nanoTime();
+            matrix.distances(queryVectors[i], distances);
+            var nearest = IntStream.range(0, rows)
+                                   .boxed()
+                                   .sorted((first, second) -> Double.compare(distances[first], distances[second]))
+                                   .limit(K)
+                                   .map(matrix::embeddingId)
+                                   .toArray(UUID[]::new);
+            exactLatencies[i] = System.nanoTime() - start;
+            exact[i] = nearest;
+        }
+
+        System.out.printf("rows=%d dimension=%d queries=%d m=%d efConstruction=%d%n", rows, dimension, queries, m, efConstruction);
+        System.out.printf("exact scan: p50=%.3f ms p99=%.3f ms%n", percentile(exactLatencies, 50), percentile(exactLatencies, 99));
+
+        var options = new HnswOptions(true, 0, m, efConstruction, efSearches[0]);
+        var index = new HnswIndex(EmbeddingPrecision.FLOAT32, dimension, options);
+
+        long buildStart = System.nanoTime();
+        for (int row = 0; row < rows; row++) {
+            index.add(matrix.embeddingId(row), matrix.row(row), () -> true);
+        }
+        System.out.printf("hnsw build: %d ms%n", (System.nanoTime() - buildStart) / 1_000_000);
+
+        for (int efSearch : efSearches) {
+            var latencies = new long[queries];
+            int top1 = 0;
+            int topK = 0;
+            for (int i = 0; i < queries; i++) {
+                long start = System.nanoTime();
+                var neighbours = index.search(queryVectors[i], K, efSearch);
+                latencies[i] = System.nanoTime() - start;
+
+                var found = new HashSet<UUID>();
+                neighbours.forEach(neighbour -> found.add(neighbour.embeddingId()));
+                if (neighbours.get(0).embeddingId().equals(exact[i][0])) {
+                    top1++;
+                }
+                topK += (int) Arrays.stream(exact[i]).filter(found::contains).count();
+            }
+
+            System.out.printf(
+                    "hnsw efSearch=%d: recall@1=%.4f recall@%d=%.4f p50=%.3f ms p99=%.3f ms%n",
+                    efSearch, (double) top1 / queries, K, (double) topK / (queries * K),
+                    percentile(latencies, 50), percentile(latencies, 99)
+            );
+        }
+    }
+
+    private static double percentile(final long[] nanos, final int percentile) {
+        var sorted = nanos.clone();
+        Arrays.sort(sorted);
+
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1e6;
+    }
+}
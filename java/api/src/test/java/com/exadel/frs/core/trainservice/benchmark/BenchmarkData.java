@@ -0,0 +1,55 @@
+package com.exadel.frs.core.trainservice.benchmark;
+
+import java.util.Random;
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+class BenchmarkData {
+
+    /**
+     * @return random vector of unit length, the same way as embeddings are stored after normalization
+     */
+    double[] randomUnitVector(final Random random, final int dimension) {
+        var vector = new double[dimension];
+        double norm = 0;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < dimension; i++) {
+            vector[i] /= norm;
+        }
+
+        return vector;
+    }
+
+    /**
+     * @return random vector of unit length near the given one, like another photo of the same person
+     */
+    double[] randomNeighbourOf(final Random random, final double[] center, final double spread) {
+        var vector = new double[center.length];
+        double norm = 0;
+        for (int i = 0; i < center.length; i++) {
+            vector[i] = center[i] + random.nextGaussian() * spread / Math.sqrt(center.length);
+            norm += vector[i] * vector[i];
+        }
+
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < center.length; i++) {
+            vector[i] /= norm;
+        }
+
+        return vector;
+    }
+
+    float[] toFloatVector(final double[] vector) {
+        var result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+
+        return result;
+    }
+}
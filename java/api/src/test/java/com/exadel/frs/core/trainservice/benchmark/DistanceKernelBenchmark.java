@@ -0,0 +1,101 @@
+package com.exadel.frs.core.trainservice.benchmark;
+
+import com.exadel.frs.core.trainservice.cache.DistanceKernel;
+import com.exadel.frs.core.trainservice.cache.EmbeddingMatrix;
+import com.exadel.frs.core.trainservice.cache.EmbeddingPrecision;
+import com.exadel.frs.core.trainservice.cache.SimilarityFunction;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares scalar and SIMD {@link DistanceKernel}s: one face scored against the whole matrix, distances fused with
+ * the similarity transform.
+ * <p>
+ * 1M rows of 512 floats take 2GB off-heap, so the biggest case needs a machine with enough memory.
+ * Is not a part of test suite, run it with {@code main} method from test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-XX:MaxDirectMemorySize=3g", "--add-modules=jdk.incubator.vector"})
+public class DistanceKernelBenchmark {
+
+    private static final SimilarityFunction SIMILARITY = new SimilarityFunction(1.1, 5.0);
+
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    @Param({"128", "512"})
+    private int dimension;
+
+    @Param({"FLOAT32", "FLOAT16"})
+    private EmbeddingPrecision precision;
+
+    private EmbeddingMatrix scalarEmbeddings;
+    private EmbeddingMatrix vectorEmbeddings;
+    private float[][] query;
+    private double[][] result;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        scalarEmbeddings = new EmbeddingMatrix(precision, dimension, rows, DistanceKernel.scalar());
+        for (int i = 0; i < rows; i++) {
+            scalarEmbeddings.append(UUID.randomUUID(), 0, BenchmarkData.randomUnitVector(random, dimension));
+        }
+
+        // the same rows, only the kernel differs
+        vectorEmbeddings = new EmbeddingMatrix(precision, dimension, rows, DistanceKernel.defaultKernel());
+        vectorEmbeddings.appendAll(scalarEmbeddings, 0, rows);
+
+        query = new float[][]{BenchmarkData.toFloatVector(BenchmarkData.randomUnitVector(random, dimension))};
+        result = new double[1][rows];
+    }
+
+    @TearDown
+    public void tearDown() {
+        // matrices of the biggest cases don't fit into memory together
+        scalarEmbeddings = null;
+        vectorEmbeddings = null;
+        System.gc();
+    }
+
+    @Benchmark
+    public double[][] scalar() {
+        scalarEmbeddings.similarities(query, 0, rows, SIMILARITY, result, 0);
+
+        return result;
+    }
+
+    @Benchmark
+    public double[][] vector() {
+        vectorEmbeddings.similarities(query, 0, rows, SIMILARITY, result, 0);
+
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DistanceKernelBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,113 @@
+package com.exadel.frs.core.trainservice.benchmark;
+
+import com.exadel.frs.core.trainservice.cache.EmbeddingMatrix;
+import com.exadel.frs.core.trainservice.cache.EmbeddingPrecision;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares scoring of one face against the whole collection: legacy Nd4j path (copy of double matrix per request)
+ * vs {@link EmbeddingMatrix} scanned in place.
+ * <p>
+ * Is not a part of test suite, run it with {@code main} method from test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EmbeddingScoringBenchmark {
+
+    private static final double COEFFICIENT_0 = 1.1;
+    private static final double COEFFICIENT_1 = 5.0;
+
+    @Param({"10000", "200000"})
+    private int rows;
+
+    @Param({"128", "512"})
+    private int dimension;
+
+    private INDArray nd4jEmbeddings;
+    private INDArray nd4jQuery;
+
+    private EmbeddingMatrix float32Embeddings;
+    private EmbeddingMatrix float16Embeddings;
+    private float[] query;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        var raw = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            raw[i] = BenchmarkData.randomUnitVector(random, dimension);
+        }
+        var rawQuery = BenchmarkData.randomUnitVector(random, dimension);
+
+        nd4jEmbeddings = Nd4j.create(raw);
+        nd4jQuery = Nd4j.create(rawQuery);
+
+        float32Embeddings = new EmbeddingMatrix(EmbeddingPrecision.FLOAT32, dimension, rows);
+        float16Embeddings = new EmbeddingMatrix(EmbeddingPrecision.FLOAT16, dimension, rows);
+        for (double[] embedding : raw) {
+            var embeddingId = UUID.randomUUID();
+            float32Embeddings.append(embeddingId, 0, embedding);
+            float16Embeddings.append(embeddingId, 0, embedding);
+        }
+
+        query = BenchmarkData.toFloatVector(rawQuery);
+    }
+
+    @Benchmark
+    public double[] nd4j() {
+        // mirrors former EuclideanDistanceClassifier: getEmbeddings() copy, subi, norm2, similarity transform
+        var distance = nd4jEmbeddings.dup().subi(nd4jQuery).norm2(1);
+
+        return Transforms.tanh(distance.rsubi(COEFFICIENT_0).muli(COEFFICIENT_1), false).addi(1).divi(2).toDoubleVector();
+    }
+
+    @Benchmark
+    public double[] float32Matrix() {
+        return score(float32Embeddings);
+    }
+
+    @Benchmark
+    public double[] float16Matrix() {
+        return score(float16Embeddings);
+    }
+
+    private double[] score(final EmbeddingMatrix embeddings) {
+        var result = new double[embeddings.size()];
+        embeddings.distances(query, result);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (Math.tanh((COEFFICIENT_0 - result[i]) * COEFFICIENT_1) + 1) / 2;
+        }
+
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EmbeddingScoringBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
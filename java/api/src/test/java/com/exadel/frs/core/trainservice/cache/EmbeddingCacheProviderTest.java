@@ -18,22 +18,45 @@ package com.exadel.frs.core.trainservice.cache;
 
 import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEnhancedEmbeddingProjection;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.projection.EmbeddingProjection;
 import com.exadel.frs.commonservice.projection.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.dto.CacheActionDto;
 import com.exadel.frs.core.trainservice.service.EmbeddingService;
 import com.exadel.frs.core.trainservice.service.NotificationReceiverService;
 import com.exadel.frs.core.trainservice.service.NotificationSenderService;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
 
 @ExtendWith(MockitoExtension.class)
 class EmbeddingCacheProviderTest {
@@ -49,6 +72,9 @@ class EmbeddingCacheProviderTest {
     @Mock
     private NotificationReceiverService notificationReceiverService;
 
+    @Mock
+    private EmbeddingSnapshotStore snapshotStore;
+
     @InjectMocks
     private EmbeddingCacheProvider embeddingCacheProvider;
 
@@ -71,6 +97,349 @@ class EmbeddingCacheProviderTest {
         assertThat(actual, notNullValue());
         assertThat(actual.getProjections(), notNullValue());
         assertThat(actual.getProjections().size(), is(projections.length));
-        assertThat(actual.getEmbeddings(), notNullValue());
+        assertThat(actual.size(), is(projections.length));
+    }
+
+    @Test
+    void collectionsAreEvictedByMemory() {
+        // every collection takes about 1MB, while two of them fit into the cache
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(any(), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(randomProjections(1024, 256));
+                });
+        ReflectionTestUtils.setField(embeddingCacheProvider, "maxSize", DataSize.ofKilobytes(2500));
+        ReflectionTestUtils.setField(embeddingCacheProvider, "pinnedApiKeys", Set.of("pinned"));
+        embeddingCacheProvider.configure();
+
+        embeddingCacheProvider.getOrLoad("pinned");
+        embeddingCacheProvider.getOrLoad("first");
+        embeddingCacheProvider.getOrLoad("second");
+        embeddingCacheProvider.getOrLoad("third");
+
+        assertThat(isCached("pinned"), is(true));
+        assertThat(Stream.of("first", "second", "third").filter(this::isCached).count(), is(2L));
+    }
+
+    @Test
+    void concurrentCallersShareSingleLoad() throws Exception {
+        var loadStarted = new CountDownLatch(1);
+        var loadAllowed = new CountDownLatch(1);
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    loadStarted.countDown();
+                    loadAllowed.await();
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
+
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var first = executor.submit(() -> embeddingCacheProvider.getOrLoad(API_KEY));
+            loadStarted.await();
+            var others = IntStream.range(0, 7)
+                                  .mapToObj(i -> executor.submit(() -> embeddingCacheProvider.getOrLoad(API_KEY)))
+                                  .toList();
+            loadAllowed.countDown();
+
+            var collection = first.get(10, TimeUnit.SECONDS);
+            for (var other : others) {
+                assertThat(other.get(10, TimeUnit.SECONDS), is(sameInstance(collection)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(embeddingService, times(1)).doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any());
+        verify(notificationSenderService, times(1)).notifyCacheChange(any());
+    }
+
+    @Test
+    void failedLoadIsNotCached() {
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenThrow(new IllegalStateException("database is unavailable"))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
+
+        assertThrows(IllegalStateException.class, () -> embeddingCacheProvider.getOrLoad(API_KEY));
+        assertThat(embeddingCacheProvider.getOrLoad(API_KEY).size(), is(1));
+    }
+
+    @Test
+    void persistedCollectionIsReconciledWithDatabase() {
+        var kept = UUID.randomUUID();
+        var removed = UUID.randomUUID();
+        var renamed = UUID.randomUUID();
+        var base = new EmbeddingMatrix(EmbeddingPrecision.FLOAT32, 3, 16);
+        base.append(kept, 0, new double[]{1, 1, 1});
+        base.append(removed, 0, new double[]{2, 2, 2});
+        base.append(renamed, 1, new double[]{3, 3, 3});
+        when(snapshotStore.read(API_KEY, EmbeddingPrecision.FLOAT32, EmbeddingCollection.UNKNOWN_VERSION))
+                .thenReturn(Optional.of(new EmbeddingSnapshotStore.PersistedCollection(base, new String[]{"A", "B"})));
+
+        var added = makeEnhancedEmbeddingProjection("A");
+        when(embeddingService.doWithEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(
+                            new EmbeddingProjection(kept, "A"),
+                            new EmbeddingProjection(renamed, "C"),
+                            new EmbeddingProjection(added.embeddingId(), "A")
+                    ));
+                });
+        when(embeddingService.getEnhancedEmbeddingProjections(API_KEY, List.of(added.embeddingId())))
+                .thenReturn(List.of(added));
+
+        var actual = embeddingCacheProvider.getOrLoad(API_KEY);
+
+        assertThat(actual.getProjections(), containsInAnyOrder(
+                new EmbeddingProjection(kept, "A"),
+                new EmbeddingProjection(renamed, "C"),
+                new EmbeddingProjection(added.embeddingId(), "A")
+        ));
+        assertThat(actual.getRawEmbeddingById(renamed).orElseThrow()[0], is(3f));
+        verify(embeddingService, never()).doWithEnhancedEmbeddingProjectionStream(any(), any());
+    }
+
+    @Test
+    void outdatedPersistedCollectionIsReloaded() {
+        var first = UUID.randomUUID();
+        var second = UUID.randomUUID();
+        var base = new EmbeddingMatrix(EmbeddingPrecision.FLOAT32, 3, 16);
+        base.append(first, 0, new double[]{1, 1, 1});
+        base.append(second, 0, new double[]{2, 2, 2});
+        when(snapshotStore.read(API_KEY, EmbeddingPrecision.FLOAT32, EmbeddingCollection.UNKNOWN_VERSION))
+                .thenReturn(Optional.of(new EmbeddingSnapshotStore.PersistedCollection(base, new String[]{"A"})));
+
+        // embeddings of the same persisted subject belong to different subjects now
+        when(embeddingService.doWithEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(new EmbeddingProjection(first, "B"), new EmbeddingProjection(second, "C")));
+                });
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(
+                            new EnhancedEmbeddingProjection(first, new double[]{1, 1, 1}, "B"),
+                            new EnhancedEmbeddingProjection(second, new double[]{2, 2, 2}, "C")
+                    ));
+                });
+
+        var actual = embeddingCacheProvider.getOrLoad(API_KEY);
+
+        assertThat(actual.getSubjectNameByEmbeddingId(second).orElseThrow(), is("C"));
+        verify(snapshotStore).writeAsync(eq(API_KEY), any(), eq(EmbeddingCollection.UNKNOWN_VERSION));
+    }
+
+    @Test
+    void deltasAreSentToOtherNodes() {
+        var embeddingIds = Stream.generate(UUID::randomUUID).limit(250).toList();
+
+        embeddingCacheProvider.removeEmbeddings(API_KEY, embeddingIds);
+        embeddingCacheProvider.updateSubjectName(API_KEY, "A", "B");
+
+        var captor = ArgumentCaptor.forClass(CacheActionDto.class);
+        verify(notificationSenderService, times(2)).notifyCacheChange(captor.capture());
+        var deltas = captor.getAllValues();
+        assertThat(deltas.get(0).getCacheAction(), is(CacheActionDto.REMOVE_EMBEDDINGS));
+        assertThat(deltas.get(0).getEmbeddingIds(), is(embeddingIds));
+        assertThat(deltas.get(1).getCacheAction(), is(CacheActionDto.RENAME_SUBJECT));
+        assertThat(deltas.get(1).getNewSubjectName(), is("B"));
+        assertThat(deltas.get(1).getEmbeddingIds(), is(nullValue()));
+    }
+
+    @Test
+    void receivedDeltasAreAppliedInPlace() {
+        var first = makeEnhancedEmbeddingProjection("A");
+        var second = makeEnhancedEmbeddingProjection("B");
+        var added = makeEnhancedEmbeddingProjection("A");
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(first, second));
+                });
+        when(embeddingService.getEnhancedEmbeddingProjections(API_KEY, List.of(added.embeddingId())))
+                .thenReturn(List.of(added));
+        var collection = embeddingCacheProvider.getOrLoad(API_KEY);
+
+        embeddingCacheProvider.receiveDelta(
+                delta(1).cacheAction(CacheActionDto.ADD_EMBEDDINGS).embeddingIds(List.of(added.embeddingId())).build()
+        );
+        embeddingCacheProvider.receiveDelta(
+                delta(2).cacheAction(CacheActionDto.REMOVE_EMBEDDINGS).embeddingIds(List.of(first.embeddingId())).build()
+        );
+        embeddingCacheProvider.receiveDelta(
+                delta(3).cacheAction(CacheActionDto.RENAME_SUBJECT).subjectName("B").newSubjectName("C").build()
+        );
+        embeddingCacheProvider.receiveDelta(
+                delta(4).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("A").build()
+        );
+
+        assertThat(collection.getProjections(), contains(new EmbeddingProjection(second.embeddingId(), "C")));
+        verify(embeddingService, times(1)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+    }
+
+    @Test
+    void missedDeltaReloadsCollection() {
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
+        embeddingCacheProvider.getOrLoad(API_KEY);
+
+        embeddingCacheProvider.receiveDelta(delta(1).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("B").build());
+        embeddingCacheProvider.receiveDelta(delta(3).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("B").build());
+
+        verify(embeddingService, times(2)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+    }
+
+    @Test
+    void firstDeltaOfSenderIsCheckedByVersion() {
+        when(embeddingService.getCollectionVersion(API_KEY)).thenReturn(Optional.of(5L));
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A"), makeEnhancedEmbeddingProjection("B")));
+                });
+        var collection = embeddingCacheProvider.getOrLoad(API_KEY);
+
+        // sequence of the sender is unknown after restart, the delta is the next change of the collection though
+        embeddingCacheProvider.receiveDelta(delta(42).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("A").version(6L).build());
+        assertThat(collection.size(), is(1));
+        verify(embeddingService, times(1)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+
+        // the first delta of another sender follows a missed change
+        embeddingCacheProvider.receiveDelta(
+                delta(7).serverUUID("third-server").cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("B").version(8L).build()
+        );
+        verify(embeddingService, times(2)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+    }
+
+    @Test
+    void deltaReceivedDuringLoadReloadsCollection() throws Exception {
+        var loadStarted = new CountDownLatch(1);
+        var loadAllowed = new CountDownLatch(1);
+        when(embeddingService.getCollectionVersion(API_KEY)).thenReturn(Optional.of(5L), Optional.of(6L));
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    loadStarted.countDown();
+                    loadAllowed.await();
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A"), makeEnhancedEmbeddingProjection("B")));
+                })
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("B")));
+                });
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var load = executor.submit(() -> embeddingCacheProvider.getOrLoad(API_KEY));
+            loadStarted.await();
+            // the load read embeddings before the change was committed
+            embeddingCacheProvider.receiveDelta(delta(1).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("A").version(6L).build());
+            loadAllowed.countDown();
+
+            var collection = load.get(10, TimeUnit.SECONDS);
+            assertThat(collection.getVersion(), is(6L));
+            assertThat(collection.size(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(embeddingService, times(2)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+    }
+
+    @Test
+    void sequenceIsNotAdvancedWithoutCollection() {
+        when(embeddingService.getCollectionVersion(API_KEY)).thenReturn(Optional.of(5L));
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
+
+        embeddingCacheProvider.receiveDelta(delta(1).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("B").version(6L).build());
+        // the collection is loaded before the first change
+        embeddingCacheProvider.getOrLoad(API_KEY);
+        embeddingCacheProvider.receiveDelta(delta(2).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("C").version(7L).build());
+
+        verify(embeddingService, times(2)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+    }
+
+    @Test
+    void upToDateCollectionIsNotReloaded() {
+        when(embeddingService.getCollectionVersion(API_KEY)).thenReturn(Optional.of(5L), Optional.of(7L));
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
+        var collection = embeddingCacheProvider.getOrLoad(API_KEY);
+
+        // changes reflected by the loaded collection are skipped, even if some deltas are missed
+        embeddingCacheProvider.receivePutOnCache(API_KEY, 5L);
+        embeddingCacheProvider.receiveDelta(delta(2).cacheAction(CacheActionDto.REMOVE_SUBJECT).subjectName("A").version(4L).build());
+        assertThat(collection.size(), is(1));
+        verify(embeddingService, times(1)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+
+        embeddingCacheProvider.receivePutOnCache(API_KEY, 6L);
+        verify(embeddingService, times(2)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+        assertThat(embeddingCacheProvider.getOrLoad(API_KEY).getVersion(), is(7L));
+    }
+
+    @Test
+    void loadDoesNotReloadCollectionOnOtherNodes() {
+        when(embeddingService.getCollectionVersion(API_KEY)).thenReturn(Optional.of(5L));
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
+        var anotherNode = new EmbeddingCacheProvider(embeddingService, notificationSenderService, snapshotStore);
+        anotherNode.getOrLoad(API_KEY);
+
+        // the collection is evicted on this node and loaded once again, while nothing is changed
+        embeddingCacheProvider.getOrLoad(API_KEY);
+        var captor = ArgumentCaptor.forClass(CacheActionDto.class);
+        verify(notificationSenderService, times(2)).notifyCacheChange(captor.capture());
+        var update = captor.getValue();
+        assertThat(update.getCacheAction(), is(CacheActionDto.UPDATE));
+        assertThat(update.isLoadOnly(), is(true));
+
+        // the sender stamps it with the current version, see NotificationSenderServiceTest
+        update.setVersion(5L);
+        anotherNode.receivePutOnCache(update.getApiKey(), update.getVersion());
+        embeddingCacheProvider.resync(API_KEY, 5L);
+
+        verify(embeddingService, times(2)).doWithEnhancedEmbeddingProjectionStream(any(), any());
+    }
+
+    private static CacheActionDto.CacheActionDtoBuilder delta(final long sequence) {
+        return CacheActionDto.builder()
+                             .apiKey(API_KEY)
+                             .serverUUID("another-server")
+                             .sequence(sequence);
+    }
+
+    private boolean isCached(final String apiKey) {
+        var cached = new AtomicBoolean();
+        embeddingCacheProvider.ifPresent(apiKey, collection -> cached.set(true));
+
+        return cached.get();
+    }
+
+    private static Stream<EnhancedEmbeddingProjection> randomProjections(final int count, final int dimension) {
+        var random = new Random(42);
+
+        return IntStream.range(0, count)
+                        .mapToObj(i -> new EnhancedEmbeddingProjection(
+                                UUID.randomUUID(),
+                                random.doubles(dimension).toArray(),
+                                "subject" + i
+                        ));
     }
 }
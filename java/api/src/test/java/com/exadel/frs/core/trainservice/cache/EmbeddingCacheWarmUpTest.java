@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.core.trainservice.cache;
+
+import static com.exadel.frs.commonservice.enums.ModelType.RECOGNITION;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.repository.ModelStatisticRepository;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@ExtendWith(MockitoExtension.class)
+class EmbeddingCacheWarmUpTest {
+
+    @Mock
+    private ModelStatisticRepository statisticRepository;
+
+    @Mock
+    private EmbeddingCacheProvider embeddingCacheProvider;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @InjectMocks
+    private EmbeddingCacheWarmUp warmUp;
+
+    @Test
+    void preloadsMostRequestedModels() {
+        when(statisticRepository.findMostRequestedApiKeys(eq(RECOGNITION), any(), eq(PageRequest.of(0, 10))))
+                .thenReturn(List.of("first", "second", "broken"));
+        doAnswer(invocation -> {
+            if ("broken".equals(invocation.getArgument(0))) {
+                throw new IllegalStateException();
+            }
+            return null;
+        }).when(embeddingCacheProvider).preload(any());
+
+        warmUp.warmUp();
+
+        verify(embeddingCacheProvider).preload("first");
+        verify(embeddingCacheProvider).preload("second");
+        assertThat(readiness(), is(ReadinessState.ACCEPTING_TRAFFIC));
+    }
+
+    @Test
+    void refusesTrafficUntilFinished() {
+        warmUp.onReadinessChange(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+        assertThat(readiness(), is(ReadinessState.REFUSING_TRAFFIC));
+
+        ReflectionTestUtils.setField(warmUp, "enabled", false);
+        warmUp.onApplicationReady();
+        assertThat(readiness(), is(ReadinessState.ACCEPTING_TRAFFIC));
+    }
+
+    @Test
+    void doesNotRefuseTrafficOnceFinished() {
+        when(statisticRepository.findMostRequestedApiKeys(any(), any(), any())).thenReturn(List.of());
+        warmUp.warmUp();
+
+        warmUp.onReadinessChange(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+
+        assertThat(readinessStates(), is(List.of(ReadinessState.ACCEPTING_TRAFFIC)));
+    }
+
+    @Test
+    void becomesReadyOnTimeout() throws InterruptedException {
+        ReflectionTestUtils.setField(warmUp, "timeout", Duration.ofMillis(50));
+        var release = new CountDownLatch(1);
+        when(statisticRepository.findMostRequestedApiKeys(eq(RECOGNITION), any(), any())).thenReturn(List.of("slow"));
+        doAnswerAwaiting(release);
+
+        warmUp.warmUp();
+
+        assertThat(readiness(), is(ReadinessState.ACCEPTING_TRAFFIC));
+        release.countDown();
+    }
+
+    @Test
+    void becomesReadyOnFailedStatisticQuery() {
+        when(statisticRepository.findMostRequestedApiKeys(any(), any(), any())).thenThrow(new IllegalStateException());
+
+        warmUp.warmUp();
+
+        assertThat(readiness(), is(ReadinessState.ACCEPTING_TRAFFIC));
+        verifyNoInteractions(embeddingCacheProvider);
+    }
+
+    @Test
+    void disabledWarmUpIsReadyImmediately() {
+        ReflectionTestUtils.setField(warmUp, "enabled", false);
+
+        warmUp.onApplicationReady();
+
+        assertThat(readiness(), is(ReadinessState.ACCEPTING_TRAFFIC));
+        verifyNoInteractions(statisticRepository);
+    }
+
+    /**
+     * @return readiness states published by warm-up, in order
+     */
+    private List<ReadinessState> readinessStates() {
+        var events = ArgumentCaptor.forClass(AvailabilityChangeEvent.class);
+        verify(eventPublisher, atLeastOnce()).publishEvent(events.capture());
+
+        return events.getAllValues().stream().map(event -> (ReadinessState) event.getState()).toList();
+    }
+
+    private ReadinessState readiness() {
+        var states = readinessStates();
+
+        return states.get(states.size() - 1);
+    }
+
+    private void doAnswerAwaiting(final CountDownLatch release) {
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(embeddingCacheProvider).preload("slow");
+    }
+}
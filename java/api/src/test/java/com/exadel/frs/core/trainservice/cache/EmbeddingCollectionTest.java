@@ -19,9 +19,15 @@ package com.exadel.frs.core.trainservice.cache;
 import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEmbedding;
 import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEnhancedEmbeddingProjection;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import com.exadel.frs.commonservice.exception.IncorrectImageIdException;
 import com.exadel.frs.commonservice.projection.EmbeddingProjection;
 import com.exadel.frs.commonservice.projection.EnhancedEmbeddingProjection;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 
@@ -40,13 +46,13 @@ class EmbeddingCollectionTest {
     @Test
     void testAddToEmpty() {
         var embeddingCollection = EmbeddingCollection.from(Stream.of());
-        assertThat(embeddingCollection.getEmbeddings().isEmpty()).isTrue();
+        assertThat(embeddingCollection.isEmpty()).isTrue();
         assertThat(embeddingCollection.getIndexMap()).isEmpty();
         assertThat(embeddingCollection.getProjections()).isEmpty();
 
-        embeddingCollection.addEmbedding(makeEmbedding("A", API_KEY));
+        embeddingCollection.addEmbedding(makeEmbedding(UUID.randomUUID(), "A", API_KEY));
 
-        assertThat(embeddingCollection.getEmbeddings().isEmpty()).isFalse();
+        assertThat(embeddingCollection.isEmpty()).isFalse();
         assertThat(embeddingCollection.getProjections()).hasSize(1);
     }
 
@@ -75,7 +81,7 @@ class EmbeddingCollectionTest {
                 makeEnhancedEmbeddingProjection("C")
         };
         var embeddingCollection = EmbeddingCollection.from(Stream.of(projections));
-        var newEmbedding = makeEmbedding("D", API_KEY);
+        var newEmbedding = makeEmbedding(UUID.randomUUID(), "D", API_KEY);
 
         var key = embeddingCollection.addEmbedding(newEmbedding);
         assertThat(key).isNotNull();
@@ -98,4 +104,230 @@ class EmbeddingCollectionTest {
         assertThat(embeddingCollection.getIndexMap()).containsEntry(0, EmbeddingProjection.from(projection2));
         assertThat(embeddingCollection.getIndexMap()).containsEntry(1, EmbeddingProjection.from(projection3));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testRemoveBySubjectName() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var projection3 = makeEnhancedEmbeddingProjection("A");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2, projection3));
+
+        var removed = embeddingCollection.removeEmbeddingsBySubjectName("A");
+
+        assertThat(removed).containsExactly(EmbeddingProjection.from(projection1), EmbeddingProjection.from(projection3));
+        assertThat(embeddingCollection.getIndexMap()).containsOnly(entry(0, EmbeddingProjection.from(projection2)));
+    }
+
+    @Test
+    void testUpdateSubjectName() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2));
+
+        embeddingCollection.updateSubjectName("A", "C");
+
+        assertThat(embeddingCollection.getSubjectNameByEmbeddingId(projection1.embeddingId())).contains("C");
+        assertThat(embeddingCollection.getSubjectNameByEmbeddingId(projection2.embeddingId())).contains("B");
+
+        // rename to existing subject merges embeddings
+        embeddingCollection.updateSubjectName("C", "B");
+
+        assertThat(embeddingCollection.getSubjectNameByEmbeddingId(projection1.embeddingId())).contains("B");
+    }
+
+    @Test
+    void testGetRawEmbeddingById() {
+        var projection = makeEnhancedEmbeddingProjection("A");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection));
+
+        assertThat(embeddingCollection.getRawEmbeddingById(projection.embeddingId())).hasValueSatisfying(
+                raw -> assertThat(raw).containsExactly(1.1f, 2.2f, 3.3f)
+        );
+        assertThatThrownBy(() -> embeddingCollection.getRawEmbeddingById(UUID.randomUUID()))
+                .isInstanceOf(IncorrectImageIdException.class);
+    }
+
+    @Test
+    void testSnapshotIsNotAffectedByModifications() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2));
+
+        var snapshot = embeddingCollection.snapshot();
+
+        embeddingCollection.addEmbedding(makeEmbedding(UUID.randomUUID(), "C", API_KEY));
+        embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection1));
+        embeddingCollection.updateSubjectName("B", "D");
+
+        assertThat(snapshot.size()).isEqualTo(2);
+        assertThat(snapshot.projection(0)).isEqualTo(EmbeddingProjection.from(projection1));
+        assertThat(snapshot.projection(1)).isEqualTo(EmbeddingProjection.from(projection2));
+
+        var current = embeddingCollection.snapshot();
+        assertThat(current.version()).isGreaterThan(snapshot.version());
+        assertThat(current.size()).isEqualTo(2);
+        assertThat(current.rowCount()).isEqualTo(3);
+        assertThat(current.isRemoved(0)).isTrue();
+        assertThat(current.subjectName(1)).isEqualTo("D");
+        assertThat(current.subjectName(2)).isEqualTo("C");
+        assertThat(snapshot.isRemoved(0)).isFalse();
+    }
+
+    @Test
+    void testRemoveMergedSubjectByName() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var projection3 = makeEnhancedEmbeddingProjection("C");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2, projection3));
+        var embedding = makeEmbedding(UUID.randomUUID(), "A", API_KEY);
+        embeddingCollection.addEmbedding(embedding);
+
+        embeddingCollection.updateSubjectName("A", "B");
+        var removed = embeddingCollection.removeEmbeddingsBySubjectName("B");
+
+        assertThat(removed).containsExactly(
+                new EmbeddingProjection(projection1.embeddingId(), "B"),
+                new EmbeddingProjection(projection2.embeddingId(), "B"),
+                new EmbeddingProjection(embedding.getId(), "B")
+        );
+        assertThat(embeddingCollection.getProjections()).containsExactly(EmbeddingProjection.from(projection3));
+        assertThat(embeddingCollection.removeEmbeddingsBySubjectName("A")).isEmpty();
+    }
+
+    @Test
+    void testCompactMergesDelta() {
+        var projection = makeEnhancedEmbeddingProjection("A");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection));
+        var embeddings = IntStream.range(0, 1000)
+                                  .mapToObj(i -> makeEmbedding(UUID.randomUUID(), "S" + i, API_KEY))
+                                  .toList();
+        embeddings.forEach(embeddingCollection::addEmbedding);
+        var beforeCompaction = embeddingCollection.getIndexMap();
+
+        embeddingCollection.compact();
+
+        var snapshot = embeddingCollection.snapshot();
+        assertThat(snapshot.deltaSize()).isZero();
+        assertThat(snapshot.baseSize()).isEqualTo(embeddings.size() + 1);
+        assertThat(embeddingCollection.getIndexMap()).isEqualTo(beforeCompaction);
+        assertThat(snapshot.row(500)).containsExactly(1.1f, 2.2f, 3.3f);
+    }
+
+    @Test
+    void testCompactDropsRemovedRows() {
+        var projections = IntStream.range(0, 10)
+                                   .mapToObj(i -> makeEnhancedEmbeddingProjection("S" + i))
+                                   .toArray(EnhancedEmbeddingProjection[]::new);
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projections));
+        embeddingCollection.addEmbedding(makeEmbedding(UUID.randomUUID(), "D", API_KEY));
+        embeddingCollection.removeEmbeddingsBySubjectName("S3");
+        embeddingCollection.removeEmbeddingsBySubjectName("S7");
+        var beforeCompaction = embeddingCollection.getIndexMap();
+
+        embeddingCollection.compact();
+
+        var snapshot = embeddingCollection.snapshot();
+        assertThat(snapshot.removedCount()).isZero();
+        assertThat(snapshot.rowCount()).isEqualTo(9);
+        assertThat(snapshot.deltaSize()).isZero();
+        assertThat(embeddingCollection.getIndexMap()).isEqualTo(beforeCompaction);
+    }
+
+    @Test
+    void testRemoveEmbeddings() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var projection3 = makeEnhancedEmbeddingProjection("C");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2, projection3));
+        var version = embeddingCollection.snapshot().version();
+
+        var removed = embeddingCollection.removeEmbeddings(
+                List.of(projection1.embeddingId(), projection3.embeddingId(), UUID.randomUUID())
+        );
+
+        assertThat(removed).containsExactly(EmbeddingProjection.from(projection1), EmbeddingProjection.from(projection3));
+        assertThat(embeddingCollection.getProjections()).containsExactly(EmbeddingProjection.from(projection2));
+        // all the embeddings are removed with a single snapshot
+        assertThat(embeddingCollection.snapshot().version()).isEqualTo(version + 1);
+    }
+
+    @Test
+    void testAnnIndex() throws InterruptedException {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var options = new EmbeddingCollectionOptions(EmbeddingPrecision.FLOAT32, 0.2, new HnswOptions(true, 2, 4, 8, 8));
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2), options);
+
+        var index = awaitAnnIndex(embeddingCollection, 2);
+        embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection1));
+        var embedding = makeEmbedding(UUID.randomUUID(), "C", API_KEY);
+        embeddingCollection.addEmbedding(embedding);
+        awaitAnnIndex(embeddingCollection, 2);
+
+        assertThat(index.search(new float[]{1.1f, 2.2f, 3.3f}, 3))
+                .extracting(HnswIndex.Neighbour::embeddingId)
+                .containsExactlyInAnyOrder(projection2.embeddingId(), embedding.getId());
+    }
+
+    @Test
+    void testAnnIndexIsNotBuiltForSmallCollection() {
+        var options = new EmbeddingCollectionOptions(EmbeddingPrecision.FLOAT32, 0.2, new HnswOptions(true, 10, 4, 8, 8));
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(makeEnhancedEmbeddingProjection("A")), options);
+
+        assertThat(embeddingCollection.annIndex()).isEmpty();
+    }
+
+    @Test
+    void testAnnIndexIsNotUsedWhenCollectionShrinks() throws InterruptedException {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var options = new EmbeddingCollectionOptions(EmbeddingPrecision.FLOAT32, 0.2, new HnswOptions(true, 2, 4, 8, 8));
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2), options);
+
+        awaitAnnIndex(embeddingCollection, 2);
+        embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection1));
+
+        assertThat(embeddingCollection.annIndex()).isEmpty();
+    }
+
+    private static HnswIndex awaitAnnIndex(EmbeddingCollection embeddingCollection, int size) throws InterruptedException {
+        // index is built (and updated) in background
+        for (int attempt = 0; attempt < 100; attempt++) {
+            var index = embeddingCollection.annIndex();
+            if (index.isPresent() && index.get().size() == size) {
+                return index.get();
+            }
+            Thread.sleep(100);
+        }
+
+        throw new AssertionError("ANN index of " + size + " embeddings is not built");
+    }
+
+    @Test
+    void testRemovedRowsAreNotScored() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2));
+        embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection1));
+
+        var snapshot = embeddingCollection.snapshot();
+        var distances = new double[snapshot.rowCount()];
+        snapshot.distances(new float[]{1.1f, 2.2f, 3.3f}, distances);
+
+        assertThat(distances[0]).isEqualTo(Double.POSITIVE_INFINITY);
+        assertThat(distances[1]).isZero();
+        assertThat(snapshot.indexOf(projection1.embeddingId())).isEqualTo(-1);
+
+        var batch = new double[2][snapshot.rowCount()];
+        snapshot.distances(new float[][]{{1.1f, 2.2f, 3.3f}, {1.1f, 2.2f, 3.3f}}, batch);
+
+        assertThat(batch[0]).containsExactly(distances);
+        assertThat(batch[1]).containsExactly(distances);
+
+        var similarities = new double[1][snapshot.rowCount()];
+        snapshot.similarities(new float[][]{{1.1f, 2.2f, 3.3f}}, new SimilarityFunction(1.1, 5.0), similarities);
+
+        assertThat(similarities[0][0]).isZero();
+        assertThat(similarities[0][1]).isCloseTo((Math.tanh(5.5) + 1) / 2, within(1e-6));
+    }
+}
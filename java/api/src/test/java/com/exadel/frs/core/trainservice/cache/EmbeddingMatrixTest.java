@@ -0,0 +1,167 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class EmbeddingMatrixTest {
+
+    private static final float TOLERANCE = 1e-3f;
+
+    @ParameterizedTest
+    @EnumSource(EmbeddingPrecision.class)
+    void testAppendAndGrow(EmbeddingPrecision precision) {
+        var matrix = new EmbeddingMatrix(precision, 3, 1);
+        var ids = new UUID[100];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            assertThat(matrix.append(ids[i], i % 7, new double[]{i, -i, 0.5})).isEqualTo(i);
+        }
+
+        assertThat(matrix.size()).isEqualTo(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(matrix.embeddingId(i)).isEqualTo(ids[i]);
+            assertThat(matrix.subject(i)).isEqualTo(i % 7);
+            assertThat(matrix.get(i, 2)).isCloseTo(0.5f, within(TOLERANCE));
+        }
+        assertThat(matrix.indexOf(ids[42], matrix.size())).isEqualTo(42);
+        assertThat(matrix.indexOf(UUID.randomUUID(), matrix.size())).isEqualTo(-1);
+    }
+
+    @ParameterizedTest
+    @EnumSource(EmbeddingPrecision.class)
+    void testAppendAllAndCopy(EmbeddingPrecision precision) {
+        var source = new EmbeddingMatrix(precision, 2, 16);
+        var first = UUID.randomUUID();
+        var second = UUID.randomUUID();
+        var third = UUID.randomUUID();
+        source.append(first, 0, new double[]{0.1, 0.2});
+        source.append(second, 1, new double[]{0.3, 0.4});
+        source.append(third, 2, new double[]{0.5, 0.6});
+
+        var target = new EmbeddingMatrix(precision, 2, 1);
+        target.appendAll(source, 1, 3);
+
+        assertThat(target.size()).isEqualTo(2);
+        assertThat(target.embeddingId(0)).isEqualTo(second);
+        assertThat(target.embeddingId(1)).isEqualTo(third);
+        assertThat(target.subject(1)).isEqualTo(2);
+        assertThat(target.row(0)).containsExactly(new float[]{0.3f, 0.4f}, within(TOLERANCE));
+        assertThat(target.row(1)).containsExactly(new float[]{0.5f, 0.6f}, within(TOLERANCE));
+
+        var copy = source.copyOf(64);
+
+        assertThat(copy.capacity()).isEqualTo(64);
+        assertThat(copy.size()).isEqualTo(3);
+        assertThat(copy.embeddingId(0)).isEqualTo(first);
+    }
+
+    @Test
+    void testIndexes() {
+        var matrix = new EmbeddingMatrix(EmbeddingPrecision.FLOAT32, 1, 1);
+        var ids = new UUID[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            matrix.append(ids[i], i % 3, new double[]{i});
+        }
+        var copy = new EmbeddingMatrix(EmbeddingPrecision.FLOAT32, 1, 1);
+        copy.appendAll(matrix, 500, 1000);
+
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(matrix.indexOf(ids[i], matrix.size())).isEqualTo(i);
+        }
+        assertThat(matrix.indexOf(ids[999], 999)).isEqualTo(-1);
+        assertThat(copy.indexOf(ids[700], copy.size())).isEqualTo(200);
+        assertThat(copy.indexOf(ids[100], copy.size())).isEqualTo(-1);
+
+        var rows = new ArrayList<Integer>();
+        copy.forEachRowOfSubject(1, rows::add);
+
+        assertThat(rows).hasSize(166).allMatch(row -> copy.subject(row) == 1);
+        assertThat(rows.get(0)).isEqualTo(497);
+
+        rows.clear();
+        copy.forEachRowOfSubject(42, rows::add);
+
+        assertThat(rows).isEmpty();
+    }
+
+    @ParameterizedTest
+    @EnumSource(EmbeddingPrecision.class)
+    void testDistances(EmbeddingPrecision precision) {
+        var matrix = new EmbeddingMatrix(precision, 2, 16);
+        matrix.append(UUID.randomUUID(), 0, new double[]{0, 0});
+        matrix.append(UUID.randomUUID(), 0, new double[]{3, 4});
+
+        var distances = new double[matrix.size()];
+        matrix.distances(new float[]{0, 0}, distances);
+
+        assertThat(distances).containsExactly(new double[]{0, 5}, within((double) TOLERANCE));
+
+        var range = new double[2];
+        matrix.distances(new float[]{0, 0}, 1, 2, range, 1);
+
+        assertThat(range).containsExactly(new double[]{0, 5}, within((double) TOLERANCE));
+        assertThat(matrix.distance(1, new float[]{3, 0})).isCloseTo(4, within((double) TOLERANCE));
+    }
+
+    @ParameterizedTest
+    @EnumSource(EmbeddingPrecision.class)
+    void testBatchDistances(EmbeddingPrecision precision) {
+        // several blocks of rows are scanned
+        int dimension = 128;
+        var random = new Random(42);
+        var matrix = new EmbeddingMatrix(precision, dimension, 16);
+        for (int i = 0; i < 300; i++) {
+            matrix.append(UUID.randomUUID(), 0, random.doubles(dimension).toArray());
+        }
+
+        var queries = new float[3][dimension];
+        for (var query : queries) {
+            for (int i = 0; i < dimension; i++) {
+                query[i] = random.nextFloat();
+            }
+        }
+
+        var batch = new double[queries.length][matrix.size() + 1];
+        matrix.distances(queries, 0, matrix.size(), batch, 1);
+
+        for (int q = 0; q < queries.length; q++) {
+            var single = new double[matrix.size()];
+            matrix.distances(queries[q], single);
+
+            assertThat(batch[q][0]).isZero();
+            assertThat(Arrays.copyOfRange(batch[q], 1, batch[q].length)).containsExactly(single, within(1e-9));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(EmbeddingPrecision.class)
+    void testDimensionMismatch(EmbeddingPrecision precision) {
+        var matrix = new EmbeddingMatrix(precision, 2, 16);
+        var embeddingId = UUID.randomUUID();
+
+        assertThatThrownBy(() -> matrix.append(embeddingId, 0, new double[]{1, 2, 3}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testHalfPrecisionConversion() {
+        float[] values = {0f, -0f, 1f, -1f, 0.1f, 0.33333f, 65504f, 1e-5f, -2.5e-6f};
+
+        for (float value : values) {
+            float converted = EmbeddingPrecision.halfToFloat(EmbeddingPrecision.floatToHalf(value));
+            assertThat(converted).isCloseTo(value, within(Math.max(Math.abs(value) * 1e-3f, 1e-7f)));
+        }
+        assertThat(EmbeddingPrecision.halfToFloat(EmbeddingPrecision.floatToHalf(1e6f))).isInfinite();
+        assertThat(EmbeddingPrecision.halfToFloat(EmbeddingPrecision.floatToHalf(Float.NaN))).isNaN();
+    }
+}
@@ -0,0 +1,136 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import com.exadel.frs.commonservice.projection.EmbeddingProjection;
+import com.exadel.frs.commonservice.projection.EnhancedEmbeddingProjection;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class EmbeddingSnapshotStoreTest {
+
+    private static final String API_KEY = "model_key";
+    private static final long CALCULATION_VERSION = 3;
+
+    @TempDir
+    Path directory;
+
+    private final EmbeddingSnapshotStore store = new EmbeddingSnapshotStore();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ReflectionTestUtils.setField(store, "dir", directory.toString());
+        store.configure();
+    }
+
+    @ParameterizedTest
+    @EnumSource(EmbeddingPrecision.class)
+    void liveRowsAreRestored(EmbeddingPrecision precision) {
+        var projections = IntStream.range(0, 100)
+                                   .mapToObj(i -> new EnhancedEmbeddingProjection(
+                                           UUID.randomUUID(), new double[]{i, -i, 0.5}, "subject" + i % 3
+                                   ))
+                                   .toList();
+        var collection = EmbeddingCollection.from(projections.stream(), options(precision));
+        // removed rows, rows of the delta segment and renamed subjects
+        collection.removeEmbedding(EmbeddingProjection.from(projections.get(10)));
+        collection.updateSubjectName("subject1", "subject2");
+        var added = collection.addEmbedding(new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{7, 7, 7}, "new"));
+
+        store.write(API_KEY, collection.snapshot(), CALCULATION_VERSION);
+        var persisted = store.read(API_KEY, precision, CALCULATION_VERSION).orElseThrow();
+        var restored = EmbeddingCollection.restore(persisted.base(), persisted.subjectNames(), options(precision));
+
+        assertThat(restored.size()).isEqualTo(100);
+        assertThat(restored.getProjections()).containsExactlyInAnyOrderElementsOf(collection.getProjections());
+        assertThat(restored.getRawEmbeddingById(projections.get(42).embeddingId()).orElseThrow())
+                .containsExactly(new float[]{42, -42, 0.5f}, within(1e-3f));
+        assertThat(restored.getRawEmbeddingById(added.embeddingId()).orElseThrow())
+                .containsExactly(new float[]{7, 7, 7}, within(1e-3f));
+        assertThat(restored.snapshot().indexOf(projections.get(10).embeddingId())).isNegative();
+    }
+
+    @Test
+    void restoredCollectionIsModifiable() {
+        var first = new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1, 2, 3}, "A");
+        store.write(API_KEY, EmbeddingCollection.from(List.of(first).stream()).snapshot(), CALCULATION_VERSION);
+        var persisted = store.read(API_KEY, EmbeddingPrecision.FLOAT32, CALCULATION_VERSION).orElseThrow();
+        var restored = EmbeddingCollection.restore(persisted.base(), persisted.subjectNames(), EmbeddingCollectionOptions.DEFAULT);
+
+        var second = restored.addEmbedding(new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{4, 5, 6}, "A"));
+        restored.compact();
+
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(restored.getSubjectNameByEmbeddingId(second.embeddingId())).hasValue("A");
+    }
+
+    @Test
+    void incompatibleFilesAreDeleted() throws IOException {
+        var projection = new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1, 2, 3}, "A");
+        store.write(API_KEY, EmbeddingCollection.from(List.of(projection).stream()).snapshot(), CALCULATION_VERSION);
+
+        assertThat(store.read(API_KEY, EmbeddingPrecision.FLOAT16, CALCULATION_VERSION)).isEmpty();
+        assertThat(store.read(API_KEY, EmbeddingPrecision.FLOAT32, CALCULATION_VERSION)).isEmpty();
+
+        store.write(API_KEY, EmbeddingCollection.from(List.of(projection).stream()).snapshot(), CALCULATION_VERSION);
+        try (var files = Files.list(directory)) {
+            var file = files.findFirst().orElseThrow();
+            Files.write(file, new byte[]{1, 2, 3});
+        }
+
+        assertThat(store.read(API_KEY, EmbeddingPrecision.FLOAT32, CALCULATION_VERSION)).isEmpty();
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void recalculatedEmbeddingsAreNotRestored() throws IOException {
+        var projection = new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1, 2, 3}, "A");
+        store.write(API_KEY, EmbeddingCollection.from(List.of(projection).stream()).snapshot(), CALCULATION_VERSION);
+
+        assertThat(store.read(API_KEY, EmbeddingPrecision.FLOAT32, CALCULATION_VERSION + 1)).isEmpty();
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void deletionCancelsPendingWrite() throws Exception {
+        var projection = new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1, 2, 3}, "A");
+        store.writeAsync(API_KEY, EmbeddingCollection.from(List.of(projection).stream()).snapshot(), CALCULATION_VERSION);
+        store.delete(API_KEY);
+
+        // waits for the writer
+        store.shutdown();
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void emptyCollectionIsNotPersisted() {
+        var projection = new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1, 2, 3}, "A");
+        var collection = EmbeddingCollection.from(List.of(projection).stream());
+        store.write(API_KEY, collection.snapshot(), CALCULATION_VERSION);
+
+        collection.removeEmbeddingsBySubjectName("A");
+        store.write(API_KEY, collection.snapshot(), CALCULATION_VERSION);
+
+        assertThat(store.read(API_KEY, EmbeddingPrecision.FLOAT32, CALCULATION_VERSION)).isEmpty();
+    }
+
+    private static EmbeddingCollectionOptions options(final EmbeddingPrecision precision) {
+        return new EmbeddingCollectionOptions(precision, 0.2, HnswOptions.DISABLED);
+    }
+}
@@ -0,0 +1,108 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 16;
+    private static final HnswOptions OPTIONS = new HnswOptions(true, 0, 8, 64, 32);
+
+    private final Random random = new Random(42);
+
+    @Test
+    void testSearchFindsNearestNeighbours() {
+        var index = new HnswIndex(EmbeddingPrecision.FLOAT32, DIMENSION, OPTIONS);
+        var ids = new UUID[2000];
+        var vectors = new float[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            vectors[i] = randomVector();
+            index.add(ids[i], vectors[i], () -> true);
+        }
+
+        int found = 0;
+        int queries = 100;
+        for (int q = 0; q < queries; q++) {
+            var query = randomVector();
+            int exact = IntStream.range(0, ids.length)
+                                 .boxed()
+                                 .min(Comparator.comparingDouble(i -> distance(vectors[i], query)))
+                                 .orElseThrow();
+
+            var neighbours = index.search(query, 5);
+
+            assertThat(neighbours).hasSize(5).isSortedAccordingTo(Comparator.comparingDouble(HnswIndex.Neighbour::distance));
+            if (neighbours.get(0).embeddingId().equals(ids[exact])) {
+                found++;
+            }
+        }
+
+        assertThat(index.size()).isEqualTo(ids.length);
+        assertThat(found).isGreaterThanOrEqualTo(queries * 9 / 10);
+    }
+
+    @Test
+    void testRemovedEmbeddingsAreSkipped() {
+        var index = new HnswIndex(EmbeddingPrecision.FLOAT16, DIMENSION, OPTIONS);
+        var ids = new UUID[100];
+        var vectors = new float[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            vectors[i] = randomVector();
+            index.add(ids[i], vectors[i], () -> true);
+        }
+
+        assertThat(index.search(vectors[7], 1).get(0).embeddingId()).isEqualTo(ids[7]);
+        assertThat(index.remove(ids[7])).isTrue();
+        assertThat(index.remove(ids[7])).isFalse();
+
+        assertThat(index.search(vectors[7], 100)).hasSize(99).noneMatch(neighbour -> neighbour.embeddingId().equals(ids[7]));
+        assertThat(index.size()).isEqualTo(99);
+        assertThat(index.removedCount()).isEqualTo(1);
+
+        // the same embedding is revived
+        assertThat(index.add(ids[7], vectors[7], () -> true)).isTrue();
+        assertThat(index.search(vectors[7], 1).get(0).embeddingId()).isEqualTo(ids[7]);
+        assertThat(index.removedCount()).isZero();
+    }
+
+    @Test
+    void testAdd() {
+        var index = new HnswIndex(EmbeddingPrecision.FLOAT32, DIMENSION, OPTIONS);
+        var id = UUID.randomUUID();
+
+        assertThat(index.search(randomVector(), 1)).isEmpty();
+        assertThat(index.add(UUID.randomUUID(), randomVector(), () -> false)).isFalse();
+        assertThat(index.add(id, randomVector(), () -> true)).isTrue();
+        assertThat(index.add(id, randomVector(), () -> true)).isFalse();
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    private float[] randomVector() {
+        var vector = new float[DIMENSION];
+        double norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+
+        return vector;
+    }
+
+    private static double distance(final float[] first, final float[] second) {
+        double sum = 0;
+        for (int i = 0; i < first.length; i++) {
+            sum += (first[i] - second[i]) * (first[i] - second[i]);
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,82 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class VectorDistanceKernelTest {
+
+    private static final SimilarityFunction SIMILARITY = new SimilarityFunction(1.1, 5.0);
+    // dimensions with and without a tail, which doesn't fill the vector lanes
+    private static final int[] DIMENSIONS = {3, 128, 133};
+    private static final int ROWS = 37;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void testVectorKernelIsDefault() {
+        // surefire adds jdk.incubator.vector module
+        assertThat(DistanceKernel.defaultKernel()).isInstanceOf(VectorDistanceKernel.class);
+    }
+
+    @ParameterizedTest
+    @EnumSource(EmbeddingPrecision.class)
+    void testVectorKernelMatchesScalar(EmbeddingPrecision precision) {
+        var vector = new VectorDistanceKernel();
+        var scalar = DistanceKernel.scalar();
+
+        for (int dimension : DIMENSIONS) {
+            var matrix = new EmbeddingMatrix(precision, dimension, ROWS);
+            for (int i = 0; i < ROWS; i++) {
+                matrix.append(UUID.randomUUID(), 0, randomVector(dimension));
+            }
+            var query = randomVector(dimension);
+            var floatQuery = new float[dimension];
+            for (int i = 0; i < dimension; i++) {
+                floatQuery[i] = (float) query[i];
+            }
+
+            var expectedDistances = score(scalar, matrix, floatQuery, null);
+            var expectedSimilarities = score(scalar, matrix, floatQuery, SIMILARITY);
+
+            assertThat(score(vector, matrix, floatQuery, null)).containsExactly(expectedDistances, within(1e-5));
+            assertThat(score(vector, matrix, floatQuery, SIMILARITY)).containsExactly(expectedSimilarities, within(1e-5));
+            for (int i = 0; i < ROWS; i++) {
+                assertThat(expectedSimilarities[i]).isCloseTo(SIMILARITY.apply(expectedDistances[i]), within(1e-12));
+            }
+        }
+    }
+
+    private static double[] score(final DistanceKernel kernel, final EmbeddingMatrix matrix,
+                                  final float[] query, final SimilarityFunction similarity) {
+        var copy = new EmbeddingMatrix(matrix.precision(), matrix.dimension(), matrix.size(), kernel);
+        copy.appendAll(matrix, 0, matrix.size());
+
+        // one extra slot before the scores checks the offset
+        var scores = new double[1][matrix.size() + 1];
+        if (similarity == null) {
+            copy.distances(new float[][]{query}, 0, copy.size(), scores, 1);
+        } else {
+            copy.similarities(new float[][]{query}, 0, copy.size(), similarity, scores, 1);
+        }
+        assertThat(scores[0][0]).isZero();
+
+        var result = new double[matrix.size()];
+        System.arraycopy(scores[0], 1, result, 0, result.length);
+
+        return result;
+    }
+
+    private double[] randomVector(final int dimension) {
+        var vector = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = random.nextGaussian() / Math.sqrt(dimension);
+        }
+
+        return vector;
+    }
+}
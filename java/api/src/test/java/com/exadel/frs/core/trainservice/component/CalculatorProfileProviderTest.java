@@ -0,0 +1,79 @@
+package com.exadel.frs.core.trainservice.component;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
+import com.exadel.frs.core.trainservice.cache.SimilarityFunction;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+
+class CalculatorProfileProviderTest {
+
+    @Mock
+    private FacesApiClient facesApiClient;
+
+    @InjectMocks
+    private CalculatorProfileProvider calculatorProfileProvider;
+
+    @BeforeEach
+    void setUp() {
+        initMocks(this);
+    }
+
+    @Test
+    void testProfileIsLoadedOnce() {
+        when(facesApiClient.getStatus()).thenReturn(status("calculator-1", 1.1, 10.0));
+
+        var profile = calculatorProfileProvider.get();
+
+        assertThat(calculatorProfileProvider.get()).isSameAs(profile);
+        assertThat(profile.calculatorVersion()).isEqualTo("calculator-1");
+        assertThat(profile.similarity(1.1)).isCloseTo(0.5, within(1e-9));
+        assertThat(profile.similarities(new double[]{0, 1.1})).containsExactly(new double[]{(Math.tanh(11) + 1) / 2, 0.5}, within(1e-9));
+        verify(facesApiClient).getStatus();
+    }
+
+    @Test
+    void testRefreshPicksUpNewCalculator() {
+        when(facesApiClient.getStatus()).thenReturn(status("calculator-1", 1.1, 10.0), status("calculator-2", 0.9, 5.0));
+        calculatorProfileProvider.get();
+
+        calculatorProfileProvider.refresh();
+
+        assertThat(calculatorProfileProvider.get()).isEqualTo(new CalculatorProfile("calculator-2", new SimilarityFunction(0.9, 5.0)));
+        verify(facesApiClient, times(2)).getStatus();
+    }
+
+    @Test
+    void testFailedRefreshKeepsProfile() {
+        when(facesApiClient.getStatus()).thenReturn(status("calculator-1", 1.1, 10.0)).thenThrow(new FacesServiceException("unavailable"));
+        var profile = calculatorProfileProvider.get();
+
+        calculatorProfileProvider.refresh();
+
+        assertThat(calculatorProfileProvider.get()).isSameAs(profile);
+    }
+
+    @Test
+    void testNoStatus() {
+        when(facesApiClient.getStatus()).thenReturn(new FacesStatusResponse());
+
+        assertThatThrownBy(() -> calculatorProfileProvider.get()).isInstanceOf(FacesServiceException.class);
+    }
+
+    private static FacesStatusResponse status(final String calculatorVersion, final double coefficient0, final double coefficient1) {
+        return new FacesStatusResponse()
+                .setCalculatorVersion(calculatorVersion)
+                .setSimilarityCoefficients(List.of(coefficient0, coefficient1));
+    }
+}
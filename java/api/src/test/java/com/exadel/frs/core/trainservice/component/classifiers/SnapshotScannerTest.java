@@ -0,0 +1,85 @@
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.component.classifiers.EuclideanDistanceClassifier.PREDICTION_COUNT_INFINITY;
+import static org.assertj.core.api.Assertions.assertThat;
+import com.exadel.frs.commonservice.projection.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import com.exadel.frs.core.trainservice.cache.SimilarityFunction;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class SnapshotScannerTest {
+
+    private static final int DIMENSION = 8;
+    private static final SimilarityFunction SIMILARITY = new SimilarityFunction(1.1, 5.0);
+
+    private final Random random = new Random(42);
+    // shards of 100 rows, every snapshot of at least 150 rows is scanned in parallel
+    private final SnapshotScanner parallelScanner = new SnapshotScanner(150, 100, 3);
+    private final SnapshotScanner serialScanner = new SnapshotScanner(Integer.MAX_VALUE, 100, 1);
+
+    @AfterEach
+    void tearDown() {
+        parallelScanner.shutdown();
+        serialScanner.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 5, 1000, PREDICTION_COUNT_INFINITY})
+    void testParallelScanMatchesSerial(int resultCount) {
+        var collection = randomCollection(1050);
+        collection.removeEmbeddings(IntStream.range(0, 1050)
+                                             .filter(i -> i % 7 == 0)
+                                             .mapToObj(i -> collection.snapshot().embeddingId(i))
+                                             .toList());
+        var snapshot = collection.snapshot();
+        var queries = new float[][]{randomVector(), randomVector(), randomVector()};
+
+        var parallelScores = new double[queries.length][snapshot.rowCount()];
+        var serialScores = new double[queries.length][snapshot.rowCount()];
+        var parallel = parallelScanner.scan(queries, snapshot, SIMILARITY, resultCount, parallelScores);
+        var serial = serialScanner.scan(queries, snapshot, SIMILARITY, resultCount, serialScores);
+
+        for (int q = 0; q < queries.length; q++) {
+            assertThat(parallelScores[q]).containsExactly(serialScores[q]);
+            assertThat(parallel[q]).containsExactly(serial[q]);
+            assertThat(IntStream.of(parallel[q]).noneMatch(snapshot::isRemoved)).isTrue();
+        }
+        assertThat(parallel[0]).hasSize(resultCount == PREDICTION_COUNT_INFINITY ? 900 : Math.min(resultCount, 900));
+    }
+
+    @Test
+    void testSmallSnapshotIsScannedByCaller() {
+        var snapshot = randomCollection(100).snapshot();
+        var scores = new double[1][snapshot.rowCount()];
+
+        var result = parallelScanner.scan(new float[][]{randomVector()}, snapshot, SIMILARITY, 3, scores);
+
+        assertThat(result[0]).hasSize(3);
+        assertThat(scores[0][result[0][0]]).isGreaterThanOrEqualTo(scores[0][result[0][2]]);
+    }
+
+    private EmbeddingCollection randomCollection(final int size) {
+        return EmbeddingCollection.from(IntStream.range(0, size).mapToObj(i -> {
+            var embedding = new double[DIMENSION];
+            for (int j = 0; j < DIMENSION; j++) {
+                embedding[j] = random.nextGaussian();
+            }
+            return new EnhancedEmbeddingProjection(UUID.randomUUID(), embedding, "subject" + i % 10);
+        }));
+    }
+
+    private float[] randomVector() {
+        var vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+
+        return vector;
+    }
+}
@@ -57,8 +57,10 @@ class MigrationComponentTest extends EmbeddedPostgreSQLTest {
         // with image; with outdated calculator
         var outdatedEmbedding = dbHelper.insertEmbeddingWithImg(subject, "outdatedCalculator");
 
+        var calculationVersion = embeddingRepository.getCalculationVersion(model.getApiKey()).orElseThrow();
         int recalculated = migrationComponent.recalculateEmbeddingsWithOutdatedCalculator();
         assertThat(recalculated).isEqualTo(1);
+        assertThat(embeddingRepository.getCalculationVersion(model.getApiKey())).hasValue(calculationVersion + 1);
 
         final Embedding recalculatedEmbedding = embeddingRepository.findById(outdatedEmbedding.getId()).orElseThrow();
         assertThat(recalculatedEmbedding.getCalculator()).isEqualTo(currentCalculator);
@@ -19,6 +19,7 @@ import com.exadel.frs.commonservice.exception.BasicException;
 import com.exadel.frs.commonservice.exception.FileExtensionException;
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
 import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceUnavailableException;
 import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
 import com.exadel.frs.commonservice.system.global.Constants;
@@ -42,14 +43,17 @@ import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 import static com.exadel.frs.core.trainservice.system.global.Constants.API_V1;
 import static com.exadel.frs.core.trainservice.system.global.Constants.X_FRS_API_KEY_HEADER;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @IntegrationTest
@@ -91,7 +95,8 @@ class DetectionControllerTest extends EmbeddedPostgreSQLTest {
     static Stream<Arguments> verifyClientReturnsException() {
         return Stream.of(
                 Arguments.of(new NoFacesFoundException(), status().isBadRequest()),
-                Arguments.of(new FacesServiceException("error"), status().isInternalServerError())
+                Arguments.of(new FacesServiceException("error"), status().isInternalServerError()),
+                Arguments.of(new FacesServiceUnavailableException("overloaded", 1), status().isServiceUnavailable())
         );
     }
 
@@ -102,14 +107,18 @@ class DetectionControllerTest extends EmbeddedPostgreSQLTest {
         String fileName = "file";
         val mockFile = new MockMultipartFile(fileName, "test data".getBytes());
         doNothing().when(validator).validate(mockFile);
-        when(client.findFaces(any(), any(), any(), any(), any())).thenThrow(exception);
+        when(client.findFacesAsync(any(), any(), any(), any(), any())).thenReturn(CompletableFuture.failedFuture(exception));
 
         // when
-        mockMvc.perform(
+        val result = mockMvc.perform(
                 multipart(API_V1 + DETECT)
                         .file(mockFile)
                         .header(X_FRS_API_KEY_HEADER, API_KEY)
         )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andDo(MockMvcResultHandlers.print())
                 // then
                 .andExpect(matcher);
@@ -122,14 +131,18 @@ class DetectionControllerTest extends EmbeddedPostgreSQLTest {
         val mockFile = new MockMultipartFile(fileName, "test data".getBytes());
         val findResponse = new FindFacesResponse();
         doNothing().when(validator).validate(mockFile);
-        when(client.findFaces(any(), any(), any(), any(), any())).thenReturn(findResponse);
+        when(client.findFacesAsync(any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(findResponse));
 
         // when
-        mockMvc.perform(
+        val result = mockMvc.perform(
                 multipart(API_V1 + DETECT)
                         .file(mockFile)
                         .header(X_FRS_API_KEY_HEADER, API_KEY)
         )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 // then
                 .andExpect(status().isOk());
     }
@@ -139,13 +152,13 @@ class DetectionControllerTest extends EmbeddedPostgreSQLTest {
         // given
         val findResponse = new FindFacesResponse();
         doNothing().when(validator).validateBase64(any());
-        when(client.findFacesBase64(any(), any(), any(), any(), any())).thenReturn(findResponse);
+        when(client.findFacesAsync(any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(findResponse));
 
         Base64File request = new Base64File();
         request.setContent(Base64.getEncoder().encodeToString(new byte[]{(byte) 0xCA}));
 
         // when
-        mockMvc.perform(
+        val result = mockMvc.perform(
                 post(API_V1 + DETECT)
                         .queryParam("limit", "4")
                         .queryParam(Constants.DET_PROB_THRESHOLD, "0.7")
@@ -154,6 +167,10 @@ class DetectionControllerTest extends EmbeddedPostgreSQLTest {
                         .contentType(MediaType.APPLICATION_JSON_VALUE).content(objectMapper.writeValueAsString(request))
                         .header(X_FRS_API_KEY_HEADER, API_KEY)
         )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 // then
                 .andExpect(status().isOk());
     }
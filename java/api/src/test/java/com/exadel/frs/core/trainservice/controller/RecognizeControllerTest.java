@@ -86,7 +86,7 @@ class RecognizeControllerTest extends EmbeddedPostgreSQLTest {
                 .build();
 
         when(client.findFacesWithCalculator(any(), any(), any(), isNull(), any())).thenReturn(findFacesResponse);
-        when(predictor.predict(any(), any(), anyInt())).thenReturn(List.of(Pair.of(1.0, "")));
+        when(predictor.predictBatch(any(), any(), anyInt())).thenReturn(List.of(List.of(Pair.of(1.0, ""))));
         doNothing().when(validator).validate(mockFile);
 
         mockMvc.perform(
@@ -106,8 +106,8 @@ class RecognizeControllerTest extends EmbeddedPostgreSQLTest {
                 ))
                 .build();
 
-        when(client.findFacesBase64WithCalculator(any(), any(), any(), isNull(), any())).thenReturn(findFacesResponse);
-        when(predictor.predict(any(), any(), anyInt())).thenReturn(List.of(Pair.of(1.0, "")));
+        when(client.findFacesWithCalculator(any(), any(), any(), isNull(), any())).thenReturn(findFacesResponse);
+        when(predictor.predictBatch(any(), any(), anyInt())).thenReturn(List.of(List.of(Pair.of(1.0, ""))));
         doNothing().when(validator).validateBase64(any());
 
         Base64File request = new Base64File();
@@ -20,11 +20,18 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -46,6 +53,9 @@ class SubjectDaoTest extends EmbeddedPostgreSQLTest {
     @Autowired
     ImgRepository imgRepository;
 
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
     @Test
     void testCreateSubjectByNameAlreadyExists() {
         var subjectName = "subject";
@@ -152,6 +162,33 @@ class SubjectDaoTest extends EmbeddedPostgreSQLTest {
         assertThat(subjectRepository.findById(subject.getId())).isPresent();
     }
 
+    @Test
+    void testRemoveSubjectEmbeddings() {
+        var subject = dbHelper.insertSubject("subject");
+        var sharedImg = dbHelper.insertImg();
+        var img = dbHelper.insertImg();
+
+        var embedding1 = dbHelper.insertEmbeddingWithImg(subject, "calc1", new double[]{1.1, 2.2}, img);
+        var embedding2 = dbHelper.insertEmbeddingWithImg(subject, "calc1", new double[]{2.3, 3.4}, sharedImg);
+        var embedding3 = dbHelper.insertEmbeddingWithImg(subject, "calc2", new double[]{4.5, 5.6}, sharedImg);
+        var anotherModelEmbedding = dbHelper.insertEmbeddingWithImg(dbHelper.insertSubject("another"));
+
+        var removed = subjectDao.removeSubjectEmbeddings(
+                subject.getApiKey(),
+                List.of(embedding2.getId(), UUID.randomUUID(), anotherModelEmbedding.getId(), embedding1.getId())
+        );
+
+        assertThat(removed).extracting(Embedding::getId).containsExactly(embedding2.getId(), embedding1.getId());
+        assertThat(removed).extracting(embedding -> embedding.getSubject().getSubjectName()).containsOnly("subject");
+        assertThat(embeddingRepository.findById(embedding1.getId())).isEmpty();
+        assertThat(embeddingRepository.findById(embedding2.getId())).isEmpty();
+        assertThat(embeddingRepository.findById(embedding3.getId())).isPresent();
+        assertThat(embeddingRepository.findById(anotherModelEmbedding.getId())).isPresent();
+        // image of the removed embedding is deleted, the one still referenced is kept
+        assertThat(imgRepository.findById(img.getId())).isEmpty();
+        assertThat(imgRepository.findById(sharedImg.getId())).isPresent();
+    }
+
     @Test
     void testDeleteSubjectsByApiKey() {
         var model = dbHelper.insertModel();
@@ -236,6 +273,48 @@ class SubjectDaoTest extends EmbeddedPostgreSQLTest {
         assertThat(img).isPresent();
     }
 
+    @Test
+    void testConcurrentAddEmbeddingsToSameModel() throws Exception {
+        var model = dbHelper.insertModel();
+        var added = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(5);
+        try {
+            // transaction of the first embedding stays open, until the others are added
+            var open = executor.submit(() -> new TransactionTemplate(transactionManager).execute(status -> {
+                subjectDao.addEmbedding(model.getApiKey(), "subject", new EmbeddingInfo("calc", new double[]{1.1, 5.6}, null));
+                added.countDown();
+                try {
+                    return release.await(30, SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            assertThat(added.await(10, SECONDS)).isTrue();
+
+            var concurrent = IntStream.range(0, 4)
+                                      .mapToObj(i -> executor.submit(() -> subjectDao.addEmbedding(
+                                              model.getApiKey(),
+                                              "subject" + i,
+                                              new EmbeddingInfo("calc", new double[]{1.1, 5.6}, null)
+                                      )))
+                                      .toList();
+            for (var future : concurrent) {
+                assertThat(future.get(10, SECONDS).getRight()).isNotNull();
+            }
+
+            release.countDown();
+            assertThat(open.get(10, SECONDS)).isTrue();
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertThat(embeddingRepository.findBySubjectApiKey(model.getApiKey(), Pageable.unpaged())).hasSize(5);
+        // versions are bumped by cache notifications sender, not by writes
+        assertThat(embeddingRepository.getCollectionVersion(model.getApiKey())).hasValue(0L);
+    }
+
     static Stream<Arguments> namePairs() {
         return Stream.of(
                 Arguments.of("oldSubjectName", "newSubjectName"),
@@ -29,6 +29,7 @@ import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -121,6 +122,31 @@ class SecurityValidationFilterTest {
         );
     }
 
+    @Test
+    void testDoFilterOfHealthProbeWithoutApiKey() throws IOException, ServletException {
+        when(httpServletRequest.getRequestURI()).thenReturn("/actuator/health/readiness");
+
+        securityValidationFilter.doFilter(httpServletRequest, httpServletResponse, filterChain);
+
+        verify(filterChain).doFilter(httpServletRequest, httpServletResponse);
+    }
+
+    @Test
+    void testDoFilterOfOtherActuatorEndpointWithoutApiKey() throws IOException, ServletException {
+        when(httpServletRequest.getRequestURI()).thenReturn("/actuator/metrics");
+        when(httpServletRequest.getHeaderNames()).thenReturn(emptyEnumeration());
+        when(exceptionHandler.handleMissingRequestHeader(anyString())).thenCallRealMethod();
+
+        securityValidationFilter.doFilter(httpServletRequest, httpServletResponse, filterChain);
+
+        verify(filterChain, never()).doFilter(httpServletRequest, httpServletResponse);
+        verify(httpServletResponse).setStatus(
+                exceptionHandler.handleMissingRequestHeader(X_FRS_API_KEY_HEADER)
+                                .getStatusCode()
+                                .value()
+        );
+    }
+
     @Test
     void testDoFilterWithValidApiKey() throws IOException, ServletException {
         var validationResult = new ModelValidationResult(1L, OK);
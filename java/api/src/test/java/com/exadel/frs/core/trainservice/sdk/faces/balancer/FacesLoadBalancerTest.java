@@ -0,0 +1,120 @@
+package com.exadel.frs.core.trainservice.sdk.faces.balancer;
+
+import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
+import static org.assertj.core.api.Assertions.assertThat;
+import com.exadel.frs.commonservice.sdk.faces.balancer.FacesLoadBalancer;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class FacesLoadBalancerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    @Test
+    void callsGoToEndpointWithFewerOutstandingCalls() {
+        var balancer = balancer("http://first:3000, http://second:3000/", Duration.ofMinutes(1));
+        var calls = new HashMap<URI, Integer>();
+        var pending = new CompletableFuture<String>();
+
+        for (int i = 0; i < 10; i++) {
+            balancer.callAsync(endpoint -> {
+                calls.merge(endpoint, 1, Integer::sum);
+                return pending;
+            });
+        }
+
+        assertThat(balancer.getEndpoints()).containsExactly("http://first:3000", "http://second:3000");
+        assertThat(calls).containsOnlyKeys(URI.create("http://first:3000"), URI.create("http://second:3000"))
+                         .allSatisfy((endpoint, count) -> assertThat(count).isEqualTo(5));
+        pending.complete("done");
+    }
+
+    @Test
+    void failingEndpointIsEjected() throws Exception {
+        var first = server(new AtomicInteger(200));
+        var second = server(new AtomicInteger(200));
+        var balancer = balancer(first + "," + second, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 100 && available(first); i++) {
+            try {
+                balancer.call(endpoint -> endpoint.toString().equals(first) ? fail() : "ok");
+            } catch (FacesServiceException e) {
+                // expected from the first endpoint
+            }
+        }
+
+        assertThat(available(first)).isFalse();
+        assertThat(calledEndpoints(balancer)).containsOnly(second);
+    }
+
+    @Test
+    void unhealthyEndpointIsEjectedUntilHealthCheckSucceeds() throws Exception {
+        var status = new AtomicInteger(503);
+        var first = server(status);
+        var second = server(new AtomicInteger(200));
+        var balancer = balancer(first + "," + second, Duration.ofMillis(100));
+
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertThat(calledEndpoints(balancer)).containsOnly(second);
+
+        status.set(200);
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertThat(calledEndpoints(balancer)).contains(first, second);
+    }
+
+    private List<String> calledEndpoints(final FacesLoadBalancer balancer) {
+        var called = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            called.add(balancer.call(URI::toString));
+        }
+        return called;
+    }
+
+    private boolean available(final String endpoint) {
+        return meterRegistry.find("faces.endpoint.available").tag("endpoint", endpoint).gauge().value() == 1;
+    }
+
+    private FacesLoadBalancer balancer(final String urls, final Duration healthCheckPeriod) {
+        var server = new EnvironmentProperties.ServerInfo();
+        server.setUrl(urls);
+        return new FacesLoadBalancer(
+                new EnvironmentProperties(Map.of(PYTHON, server)), meterRegistry, healthCheckPeriod, 3, Duration.ofMinutes(1)
+        );
+    }
+
+    private String server(final AtomicInteger status) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/status", exchange -> {
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        servers.add(server);
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static String fail() {
+        throw new FacesServiceException("error");
+    }
+}
@@ -0,0 +1,114 @@
+package com.exadel.frs.core.trainservice.sdk.faces.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import com.exadel.frs.commonservice.sdk.faces.cache.FacesResponseCache;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesBox;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResult;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.PluginsVersions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+class FacesResponseCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void sameImageAndParametersAreProcessedOnce() {
+        var cache = cache(true, Duration.ofMinutes(1));
+
+        var first = cache.get(image("face"), 1, 0.8, "calculator", true, () -> response("Facenet2018"));
+        var second = cache.get(image("face"), 1, 0.8, "calculator", true, () -> response("Facenet2018"));
+        var async = cache.getAsync(image("face"), 1, 0.8, "calculator", true, () -> CompletableFuture.completedFuture(response("Facenet2018")));
+
+        assertThat(calls).hasValue(1);
+        assertThat(second).isEqualTo(first).isNotSameAs(first);
+        assertThat(async.join()).isEqualTo(first);
+        // a hit is a copy, which can be changed by the caller
+        second.getResult().get(0).getBox().setProbability(0.5);
+        assertThat(cache.get(image("face"), 1, 0.8, "calculator", true, () -> response("Facenet2018")))
+                .isEqualTo(first);
+
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "faces.responses").tag("result", "hit").functionCounter().count())
+                .isEqualTo(3);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "faces.responses").tag("result", "miss").functionCounter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void otherImageOrParametersAreProcessedAgain() {
+        var cache = cache(true, Duration.ofMinutes(1));
+
+        cache.get(image("face"), 1, 0.8, "calculator", true, () -> response("Facenet2018"));
+        cache.get(image("other face"), 1, 0.8, "calculator", true, () -> response("Facenet2018"));
+        cache.get(image("face"), 0, 0.8, "calculator", true, () -> response("Facenet2018"));
+        cache.get(image("face"), 1, 0.5, "calculator", true, () -> response("Facenet2018"));
+        cache.get(image("face"), 1, 0.8, "calculator,age", true, () -> response("Facenet2018"));
+        cache.get(image("face"), 1, 0.8, "calculator", false, () -> response("Facenet2018"));
+
+        assertThat(calls).hasValue(6);
+    }
+
+    @Test
+    void responsesOfPreviousCalculatorAreNotUsed() {
+        var cache = cache(true, Duration.ofMinutes(1));
+
+        cache.get(image("face"), 1, null, "calculator", true, () -> response("Facenet2018"));
+        cache.calculatorVersion("Mobilenet");
+        var response = cache.get(image("face"), 1, null, "calculator", true, () -> response("Mobilenet"));
+        cache.get(image("face"), 1, null, "calculator", true, () -> response("Mobilenet"));
+
+        assertThat(calls).hasValue(2);
+        assertThat(response.getPluginsVersions().getCalculator()).isEqualTo("Mobilenet");
+    }
+
+    @Test
+    void responsesExpire() throws Exception {
+        var cache = cache(true, Duration.ofMillis(100));
+
+        cache.get(image("face"), 1, null, "calculator", true, () -> response("Facenet2018"));
+        TimeUnit.MILLISECONDS.sleep(200);
+        cache.get(image("face"), 1, null, "calculator", true, () -> response("Facenet2018"));
+
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void disabledCacheMakesEveryCall() {
+        var cache = cache(false, Duration.ofMinutes(1));
+
+        cache.get(image("face"), 1, null, "calculator", true, () -> response("Facenet2018"));
+        cache.get(image("face"), 1, null, "calculator", true, () -> response("Facenet2018"));
+
+        assertThat(calls).hasValue(2);
+        assertThat(meterRegistry.find("cache.gets").meters()).isEmpty();
+    }
+
+    private FacesResponseCache cache(final boolean enabled, final Duration ttl) {
+        return new FacesResponseCache(meterRegistry, enabled, DataSize.ofMegabytes(1), ttl);
+    }
+
+    private FindFacesResponse response(final String calculator) {
+        calls.incrementAndGet();
+        return FindFacesResponse.builder()
+                                .pluginsVersions(PluginsVersions.builder().calculator(calculator).build())
+                                .result(List.of(FindFacesResult.builder()
+                                                               .embedding(new Double[]{1.0, 2.0})
+                                                               .box(new FacesBox().setProbability(0.99))
+                                                               .build()))
+                                .build();
+    }
+
+    private static MockMultipartFile image(final String content) {
+        return new MockMultipartFile("file", "face.jpg", "image/jpeg", content.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,121 @@
+package com.exadel.frs.core.trainservice.sdk.faces.limiter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import com.exadel.frs.commonservice.sdk.config.FacesLimiterProperties;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceUnavailableException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.commonservice.sdk.faces.limiter.FacesCallLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class FacesCallLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void excessCallsAreQueuedAndThenRejected() throws Exception {
+        var properties = properties();
+        properties.setMaxQueue(1);
+        properties.setQueueTimeout(Duration.ofMillis(200));
+        var limiter = new FacesCallLimiter(properties, meterRegistry);
+        var inFlight = new CompletableFuture<String>();
+
+        var first = limiter.callAsync(() -> inFlight);
+        var second = limiter.callAsync(() -> CompletableFuture.completedFuture("second"));
+        var third = limiter.callAsync(() -> CompletableFuture.completedFuture("third"));
+
+        assertThat(limiter.getQueued()).isEqualTo(1);
+        assertThatThrownBy(third::join).hasCauseInstanceOf(FacesServiceUnavailableException.class);
+        inFlight.complete("first");
+        assertThat(first.get(1, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(second.get(1, TimeUnit.SECONDS)).isEqualTo("second");
+
+        var blocked = new CompletableFuture<String>();
+        limiter.callAsync(() -> blocked);
+        var expired = limiter.callAsync(() -> CompletableFuture.completedFuture("expired"));
+        assertThatThrownBy(() -> expired.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(FacesServiceUnavailableException.class);
+        assertThat(meterRegistry.counter("faces.calls.rejected", "reason", "queue_full").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("faces.calls.rejected", "reason", "queue_timeout").count()).isEqualTo(1);
+    }
+
+    @Test
+    void circuitOpensOnConsecutiveFailuresAndClosesAfterSuccessfulProbe() throws Exception {
+        var properties = properties();
+        properties.setFailureThreshold(3);
+        properties.setOpenDuration(Duration.ofMillis(200));
+        var limiter = new FacesCallLimiter(properties, meterRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> limiter.call(this::fail)).isInstanceOf(FacesServiceException.class);
+        }
+
+        assertThat(limiter.isCircuitClosed()).isFalse();
+        assertThatThrownBy(() -> limiter.call(() -> "rejected"))
+                .isInstanceOf(FacesServiceUnavailableException.class)
+                .satisfies(e -> assertThat(((FacesServiceUnavailableException) e).getRetryAfterSeconds()).isPositive());
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        var probe = new CompletableFuture<String>();
+        var probed = limiter.callAsync(() -> probe);
+        // a single probe is let through
+        assertThatThrownBy(() -> limiter.call(() -> "rejected")).isInstanceOf(FacesServiceUnavailableException.class);
+        probe.completeExceptionally(new NoFacesFoundException());
+        assertThatThrownBy(probed::join).hasCauseInstanceOf(NoFacesFoundException.class);
+
+        assertThat(limiter.isCircuitClosed()).isTrue();
+        assertThat(limiter.call(() -> "accepted")).isEqualTo("accepted");
+    }
+
+    @Test
+    void limitFollowsLatencyAndFailures() throws Exception {
+        var limiter = new FacesCallLimiter(new FacesLimiterProperties(), meterRegistry);
+
+        // saturated with steady latency, the limit grows
+        for (int round = 0; round < 10; round++) {
+            var calls = new CompletableFuture<?>[limiter.getLimit()];
+            var response = new CompletableFuture<String>();
+            for (int i = 0; i < calls.length; i++) {
+                calls[i] = limiter.callAsync(() -> response);
+            }
+            TimeUnit.MILLISECONDS.sleep(5);
+            response.complete("ok");
+            CompletableFuture.allOf(calls).join();
+        }
+        int grown = limiter.getLimit();
+        assertThat(grown).isGreaterThan(8);
+
+        // latency grows several times, the limit shrinks
+        var slow = new CompletableFuture<?>[grown];
+        var response = new CompletableFuture<String>();
+        for (int i = 0; i < slow.length; i++) {
+            slow[i] = limiter.callAsync(() -> response);
+        }
+        TimeUnit.MILLISECONDS.sleep(100);
+        response.complete("ok");
+        CompletableFuture.allOf(slow).join();
+        int shrunk = limiter.getLimit();
+        assertThat(shrunk).isLessThan(grown);
+
+        // the limit is a whole number of calls, a single backoff may not get it below the next integer
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> limiter.call(this::fail)).isInstanceOf(FacesServiceException.class);
+        }
+        assertThat(limiter.getLimit()).isLessThan(shrunk);
+        assertThat(meterRegistry.get("faces.calls.limit").gauge().value()).isEqualTo(limiter.getLimit());
+    }
+
+    private String fail() {
+        throw new FacesServiceException("error");
+    }
+
+    private static FacesLimiterProperties properties() {
+        var properties = new FacesLimiterProperties();
+        properties.setInitialLimit(1);
+        return properties;
+    }
+}
@@ -0,0 +1,215 @@
+package com.exadel.frs.core.trainservice.sdk.faces.service;
+
+import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.sdk.config.FacesLimiterProperties;
+import com.exadel.frs.commonservice.sdk.faces.balancer.FacesLoadBalancer;
+import com.exadel.frs.commonservice.sdk.faces.cache.FacesResponseCache;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.commonservice.sdk.faces.limiter.FacesCallLimiter;
+import com.exadel.frs.commonservice.sdk.faces.service.FacesHttpApiClient;
+import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+class FacesHttpApiClientTest {
+
+    private static final String FOUND = "{\"plugins_versions\": {\"calculator\": \"Facenet2018\"}, \"result\": []}";
+
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void imageIsSentAsMultipart() {
+        server.createContext("/find_faces", exchange -> respond(exchange, 200, FOUND));
+
+        var response = client(4).findFacesWithCalculator(
+                new MockMultipartFile("file", "face.jpg", "image/jpeg", "image".getBytes(UTF_8)), 1, 0.8, "age", true
+        );
+
+        assertThat(response.getPluginsVersions().getCalculator()).isEqualTo("Facenet2018");
+        assertThat(requests).singleElement().satisfies(request -> assertThat(request)
+                .contains("name=\"file\"; filename=\"face.jpg\"", "Content-Type: image/jpeg", "image")
+                .contains("name=\"limit\"\r\n\r\n1\r\n")
+                .contains("name=\"det_prob_threshold\"\r\n\r\n0.8\r\n")
+                .contains("name=\"face_plugins\"\r\n\r\ncalculator,age\r\n")
+                .contains("name=\"detect_faces\"\r\n\r\ntrue\r\n"));
+    }
+
+    @Test
+    void sameImageWithCalculatorIsProcessedOnce() {
+        server.createContext("/find_faces", exchange -> respond(exchange, 200, FOUND));
+        var client = client(4);
+
+        var first = client.findFacesWithCalculator(new MockMultipartFile("file", "face.jpg", "image/jpeg", "image".getBytes(UTF_8)), 1, null, null, true);
+        var second = client.findFacesWithCalculator(new MockMultipartFile("file", "again.jpg", "image/jpeg", "image".getBytes(UTF_8)), 1, null, null, true);
+
+        assertThat(requests).hasSize(1);
+        assertThat(second).isEqualTo(first).isNotSameAs(first);
+    }
+
+    @Test
+    void imageIsStreamedWithKnownLength() {
+        var image = new byte[1024 * 1024];
+        Arrays.fill(image, (byte) 'x');
+        var photo = new MockMultipartFile("file", "face.jpg", "image/jpeg", image) {
+            @Override
+            public byte[] getBytes() {
+                throw new UnsupportedOperationException("the image should not be read onto heap");
+            }
+        };
+        var contentLength = new AtomicLong();
+        server.createContext("/find_faces", exchange -> {
+            contentLength.set(Long.parseLong(exchange.getRequestHeaders().getFirst("Content-Length")));
+            respond(exchange, 200, FOUND);
+        });
+
+        client(4).findFaces(photo, 1, null, null, true);
+
+        assertThat(requests).singleElement().satisfies(request -> {
+            assertThat(request.getBytes(UTF_8)).hasSize((int) contentLength.get());
+            assertThat(request).contains(new String(image, UTF_8));
+        });
+    }
+
+    @Test
+    void base64ImageIsSentAsJson() {
+        server.createContext("/find_faces_base64", exchange -> {
+            requests.add(exchange.getRequestURI().getQuery());
+            respond(exchange, 200, FOUND);
+        });
+
+        client(4).findFacesBase64("aW1hZ2U=", null, null, "age", false);
+
+        assertThat(requests).containsExactly("face_plugins=age&detect_faces=false", "{\"file\":\"aW1hZ2U=\"}");
+    }
+
+    @Test
+    void errorsAreMapped() {
+        var status = new AtomicInteger(400);
+        server.createContext("/find_faces_base64", exchange -> respond(exchange, status.get(), "error"));
+        var client = client(4);
+
+        assertThatThrownBy(() -> client.findFacesBase64Async("aW1hZ2U=", 0, null, null, true).join())
+                .hasCauseInstanceOf(NoFacesFoundException.class);
+        status.set(500);
+        assertThatThrownBy(() -> client.findFacesBase64("aW1hZ2U=", 0, null, null, true))
+                .isInstanceOf(FacesServiceException.class)
+                .hasMessageContaining("500");
+        server.stop(0);
+        assertThatThrownBy(() -> client.findFacesBase64("aW1hZ2U=", 0, null, null, true))
+                .isInstanceOf(FacesServiceException.class);
+    }
+
+    @Test
+    void requestRejectedByClientFails() {
+        var client = client(1);
+        var httpClient = mock(HttpClient.class);
+        when(httpClient.sendAsync(any(), any())).thenThrow(new IllegalArgumentException("unsupported header"));
+        ReflectionTestUtils.setField(client, "httpClient", httpClient);
+
+        // the connection is released, so the second request doesn't wait for it
+        for (int i = 0; i < 2; i++) {
+            assertThat(client.findFacesBase64Async("aW1hZ2U=", 0, null, null, true))
+                    .failsWithin(Duration.ofSeconds(5))
+                    .withThrowableOfType(ExecutionException.class)
+                    .withCauseInstanceOf(FacesServiceException.class)
+                    .withMessageContaining("unsupported header");
+        }
+    }
+
+    @Test
+    void requestsInFlightAreLimited() throws Exception {
+        var release = new CountDownLatch(1);
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+        server.createContext("/find_faces_base64", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            respond(exchange, 200, FOUND);
+        });
+        var client = client(2);
+
+        var responses = List.of(
+                client.findFacesBase64Async("aW1hZ2U=", 0, null, null, true),
+                client.findFacesBase64Async("aW1hZ2U=", 0, null, null, true),
+                client.findFacesBase64Async("aW1hZ2U=", 0, null, null, true),
+                client.findFacesBase64Async("aW1hZ2U=", 0, null, null, true)
+        );
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertThat(responses).noneMatch(CompletableFuture::isDone);
+        assertThat(inFlight).hasValue(2);
+        release.countDown();
+
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertThat(maxInFlight).hasValue(2);
+    }
+
+    private FacesHttpApiClient client(final int maxConnections) {
+        var server = new EnvironmentProperties.ServerInfo();
+        server.setUrl("http://localhost:" + this.server.getAddress().getPort());
+        var meterRegistry = new SimpleMeterRegistry();
+        return new FacesHttpApiClient(
+                1000, 5000, maxConnections,
+                new FacesCallLimiter(new FacesLimiterProperties(), meterRegistry),
+                new FacesLoadBalancer(
+                        new EnvironmentProperties(Map.of(PYTHON, server)), meterRegistry, Duration.ofSeconds(10), 3, Duration.ofSeconds(30)
+                ),
+                new FacesResponseCache(meterRegistry, true, DataSize.ofMegabytes(1), Duration.ofMinutes(1))
+        );
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        requests.add(new String(exchange.getRequestBody().readAllBytes(), UTF_8));
+        var bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
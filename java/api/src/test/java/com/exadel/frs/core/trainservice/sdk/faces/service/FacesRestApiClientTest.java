@@ -15,19 +15,29 @@
  */
 package com.exadel.frs.core.trainservice.sdk.faces.service;
 
+import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
 import static com.exadel.frs.core.trainservice.system.global.Constants.CALCULATOR_PLUGIN;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.sdk.config.FacesLimiterProperties;
+import com.exadel.frs.commonservice.sdk.faces.balancer.FacesLoadBalancer;
+import com.exadel.frs.commonservice.sdk.faces.cache.FacesResponseCache;
 import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
 import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
 import com.exadel.frs.commonservice.sdk.faces.feign.FacesFeignClient;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.commonservice.sdk.faces.limiter.FacesCallLimiter;
 import com.exadel.frs.commonservice.sdk.faces.service.FacesRestApiClient;
+import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
 import feign.FeignException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -37,14 +47,26 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 @ExtendWith(MockitoExtension.class)
 class FacesRestApiClientTest {
 
+    private static final URI ENDPOINT = URI.create("http://compreface-core:3000");
+
     @Mock
     private FacesFeignClient feignClient;
+    @Spy
+    private FacesCallLimiter limiter = new FacesCallLimiter(new FacesLimiterProperties(), new SimpleMeterRegistry());
+    @Spy
+    private FacesLoadBalancer balancer = new FacesLoadBalancer(
+            new EnvironmentProperties(Map.of(PYTHON, server())), new SimpleMeterRegistry(), Duration.ofSeconds(10), 3, Duration.ofSeconds(30)
+    );
+    @Spy
+    private FacesResponseCache cache = new FacesResponseCache(new SimpleMeterRegistry(), false, DataSize.ofMegabytes(1), Duration.ofMinutes(1));
     @InjectMocks
     private FacesRestApiClient restApiClient;
 
@@ -63,7 +85,7 @@ class FacesRestApiClientTest {
         Integer faceLimit = 1;
         Double thresholdC = 1.0;
         String facePlugins = "plugins";
-        when(feignClient.findFaces(photo, faceLimit, thresholdC, facePlugins, true)).thenThrow(caughtClass);
+        when(feignClient.findFaces(ENDPOINT, photo, faceLimit, thresholdC, facePlugins, true)).thenThrow(caughtClass);
 
         // when
         Executable action = () -> restApiClient.findFaces(photo, faceLimit, thresholdC, facePlugins, true);
@@ -80,7 +102,7 @@ class FacesRestApiClientTest {
         Integer faceLimit = 1;
         Double thresholdC = 1.0;
         String facePlugins = "plugins";
-        when(feignClient.findFaces(photo, faceLimit, thresholdC, facePlugins, true)).thenReturn(expected);
+        when(feignClient.findFaces(ENDPOINT, photo, faceLimit, thresholdC, facePlugins, true)).thenReturn(expected);
 
         // when
         FindFacesResponse actual = restApiClient.findFaces(photo, faceLimit, thresholdC, facePlugins, true);
@@ -106,7 +128,7 @@ class FacesRestApiClientTest {
         MultipartFile photo = mock(MultipartFile.class);
         Integer faceLimit = 1;
         Double thresholdC = 1.0;
-        when(feignClient.findFaces(photo, faceLimit, thresholdC, outPlugins, true)).thenReturn(expected);
+        when(feignClient.findFaces(ENDPOINT, photo, faceLimit, thresholdC, outPlugins, true)).thenReturn(expected);
 
         // when
         FindFacesResponse actual = restApiClient.findFacesWithCalculator(photo, faceLimit, thresholdC, inPlugins, true);
@@ -122,7 +144,7 @@ class FacesRestApiClientTest {
         MultipartFile photo = mock(MultipartFile.class);
         Integer faceLimit = 1;
         Double thresholdC = 1.0;
-        when(feignClient.findFaces(photo, faceLimit, thresholdC, CALCULATOR_PLUGIN, true)).thenThrow(caughtClass);
+        when(feignClient.findFaces(ENDPOINT, photo, faceLimit, thresholdC, CALCULATOR_PLUGIN, true)).thenThrow(caughtClass);
 
         // when
         Executable action = () -> restApiClient.findFacesWithCalculator(photo, faceLimit, thresholdC, null, true);
@@ -134,7 +156,7 @@ class FacesRestApiClientTest {
     @Test
     void testGetStatusWithException() {
         // given
-        when(feignClient.getStatus()).thenThrow(FeignException.class);
+        when(feignClient.getStatus(ENDPOINT)).thenThrow(FeignException.class);
 
         // when
         Executable action = () -> restApiClient.getStatus();
@@ -147,7 +169,7 @@ class FacesRestApiClientTest {
     void testGetStatus() {
         // given
         FacesStatusResponse expected = mock(FacesStatusResponse.class);
-        when(feignClient.getStatus()).thenReturn(expected);
+        when(feignClient.getStatus(ENDPOINT)).thenReturn(expected);
 
         // when
         FacesStatusResponse actual = restApiClient.getStatus();
@@ -155,4 +177,10 @@ class FacesRestApiClientTest {
         // then
         assertThat(actual, is(expected));
     }
-}
\ No newline at end of file
+
+    private static EnvironmentProperties.ServerInfo server() {
+        var server = new EnvironmentProperties.ServerInfo();
+        server.setUrl(ENDPOINT.toString());
+        return server;
+    }
+}
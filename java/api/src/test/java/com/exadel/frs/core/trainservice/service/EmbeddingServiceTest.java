@@ -11,9 +11,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 
+import java.util.List;
 import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 
@@ -64,6 +66,22 @@ class EmbeddingServiceTest extends EmbeddedPostgreSQLTest {
         assertThat(page.getSize(), is(size));
     }
 
+    @Test
+    void testEmbeddingProjectionsOfModel() {
+        final Model model = dbHelper.insertModel();
+        var first = dbHelper.insertEmbeddingNoImg(dbHelper.insertSubject(model, "subject1"));
+        var second = dbHelper.insertEmbeddingNoImg(dbHelper.insertSubject(model, "subject2"));
+        dbHelper.insertEmbeddingNoImg(dbHelper.insertSubject(dbHelper.insertModel(), "subject1"));
+
+        var projections = embeddingService.doWithEmbeddingProjectionStream(model.getApiKey(), stream -> stream.toList());
+        var enhancedProjections = embeddingService.getEnhancedEmbeddingProjections(model.getApiKey(), List.of(second.getId()));
+
+        assertThat(projections, containsInAnyOrder(EmbeddingProjection.from(first), EmbeddingProjection.from(second)));
+        assertThat(enhancedProjections.size(), is(1));
+        assertThat(enhancedProjections.get(0).subjectName(), is("subject2"));
+        assertThat(enhancedProjections.get(0).embeddingData(), is(second.getEmbedding()));
+    }
+
     @Test
     void testCountEmbeddingsByApiKeyAndCalculatorNotEq() {
         var currentCalc = "Facenet2018";
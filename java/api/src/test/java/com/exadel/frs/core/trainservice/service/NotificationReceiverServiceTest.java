@@ -0,0 +1,168 @@
+package com.exadel.frs.core.trainservice.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.dto.CacheActionDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.impossibl.postgres.api.jdbc.PGConnection;
+import com.impossibl.postgres.api.jdbc.PGNotificationListener;
+import com.impossibl.postgres.jdbc.PGDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class NotificationReceiverServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PGDataSource dataSource = mock(PGDataSource.class);
+    private final EmbeddingCacheProvider embeddingCacheProvider = mock(EmbeddingCacheProvider.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final NotificationReceiverService receiver =
+            new NotificationReceiverService(dataSource, embeddingCacheProvider, objectMapper, meterRegistry);
+
+    @Test
+    void changedCollectionsAreResynchronizedAfterReconnection() throws Exception {
+        var listener = new AtomicReference<PGNotificationListener>();
+        var first = connection(listener, Map.of("a", 1L, "b", 1L, "c", 1L));
+        var second = connection(listener, Map.of("a", 2L, "b", 1L, "d", 1L));
+        when(dataSource.getConnection()).thenReturn(first, second);
+        ReflectionTestUtils.setField(receiver, "checkPeriod", Duration.ofMillis(100));
+
+        receiver.setUpNotification();
+        verify(first, timeout(5000)).addNotificationListener(any());
+        listener.get().closed();
+
+        verify(embeddingCacheProvider, timeout(5000)).resync("a", 2L);
+        verify(embeddingCacheProvider, timeout(5000)).receiveInvalidateCache("c");
+        verify(embeddingCacheProvider, timeout(5000)).resync("d", 1L);
+        verify(embeddingCacheProvider, never()).resync(eq("b"), anyLong());
+        receiver.shutdown();
+        assertThat(meterRegistry.counter("embedding.cache.listener.reconnects").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("embedding.cache.listener.resyncs").count()).isEqualTo(3);
+    }
+
+    @Test
+    void notificationsOfOtherNodesAreApplied() throws Exception {
+        when(dataSource.getConnection()).thenThrow(new SQLException("not available"));
+        receiver.setUpNotification();
+        var delta = CacheActionDto.builder()
+                                  .cacheAction(CacheActionDto.REMOVE_SUBJECT)
+                                  .apiKey("a")
+                                  .serverUUID("another-server")
+                                  .sequence(1L)
+                                  .subjectName("A")
+                                  .timestamp(System.currentTimeMillis())
+                                  .build();
+
+        receiver.synchronizeCacheWithNotification(objectMapper.writeValueAsString(delta));
+        receiver.synchronizeCacheWithNotification(
+                objectMapper.writeValueAsString(new CacheActionDto(CacheActionDto.DELETE, "b", "another-server"))
+        );
+
+        verify(embeddingCacheProvider, timeout(5000)).receiveDelta(delta);
+        verify(embeddingCacheProvider, timeout(5000)).receiveInvalidateCache("b");
+        assertThat(meterRegistry.timer("embedding.cache.notifications.lag").count()).isEqualTo(1);
+        receiver.shutdown();
+    }
+
+    @Test
+    void notificationsOfModelAreAppliedInOrderAndNewestReloadWins() throws Exception {
+        when(dataSource.getConnection()).thenThrow(new SQLException("not available"));
+        var reloadStarted = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0).equals("slow")) {
+                reloadStarted.countDown();
+                release.await();
+            }
+            return null;
+        }).when(embeddingCacheProvider).receivePutOnCache(anyString(), any());
+        receiver.setUpNotification();
+
+        receiver.synchronizeCacheWithNotification(update("slow"));
+        reloadStarted.await();
+        receiver.synchronizeCacheWithNotification(update("slow"));
+        receiver.synchronizeCacheWithNotification(objectMapper.writeValueAsString(
+                CacheActionDto.builder()
+                              .cacheAction(CacheActionDto.REMOVE_SUBJECT)
+                              .apiKey("slow")
+                              .serverUUID("another-server")
+                              .sequence(1L)
+                              .subjectName("A")
+                              .build()
+        ));
+        receiver.synchronizeCacheWithNotification(update("slow"));
+        receiver.synchronizeCacheWithNotification(update("fast"));
+
+        // the slow reload blocks neither the driver's thread, nor other models
+        verify(embeddingCacheProvider, timeout(5000)).receivePutOnCache("fast", null);
+        release.countDown();
+
+        var inOrder = inOrder(embeddingCacheProvider);
+        inOrder.verify(embeddingCacheProvider, timeout(5000)).receiveDelta(any());
+        inOrder.verify(embeddingCacheProvider, timeout(5000)).receivePutOnCache(eq("slow"), any());
+        receiver.shutdown();
+        verify(embeddingCacheProvider, times(2)).receivePutOnCache(eq("slow"), any());
+        assertThat(meterRegistry.get("embedding.cache.notifications.backlog").gauge().value()).isZero();
+    }
+
+    @SneakyThrows
+    private String update(final String apiKey) {
+        return objectMapper.writeValueAsString(new CacheActionDto(CacheActionDto.UPDATE, apiKey, "another-server"));
+    }
+
+    /**
+     * Connection, which returns the same versions on every read.
+     */
+    @SneakyThrows
+    private static PGConnection connection(final AtomicReference<PGNotificationListener> listener, final Map<String, Long> versions) {
+        var connection = mock(PGConnection.class);
+        when(connection.unwrap(PGConnection.class)).thenReturn(connection);
+        when(connection.createStatement()).thenAnswer(invocation -> {
+            var statement = mock(Statement.class);
+            when(statement.executeQuery(anyString())).thenAnswer(query -> resultSet(versions));
+            return statement;
+        });
+        doAnswer(invocation -> {
+            listener.set(invocation.getArgument(0));
+            return null;
+        }).when(connection).addNotificationListener(any());
+        return connection;
+    }
+
+    @SneakyThrows
+    private static ResultSet resultSet(final Map<String, Long> versions) {
+        Iterator<Map.Entry<String, Long>> rows = new ArrayList<>(versions.entrySet()).iterator();
+        var row = new AtomicReference<Map.Entry<String, Long>>();
+        var resultSet = mock(ResultSet.class);
+        when(resultSet.next()).thenAnswer(invocation -> {
+            row.set(rows.hasNext() ? rows.next() : null);
+            return row.get() != null;
+        });
+        when(resultSet.getString(1)).thenAnswer(invocation -> row.get().getKey());
+        when(resultSet.getLong(2)).thenAnswer(invocation -> row.get().getValue());
+        return resultSet;
+    }
+}
@@ -0,0 +1,191 @@
+package com.exadel.frs.core.trainservice.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.core.trainservice.dto.CacheActionDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.impossibl.postgres.jdbc.PGDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class NotificationSenderServiceTest {
+
+    private static final String API_KEY = "model_key";
+    private static final String SERVER_UUID = "server";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PGDataSource dataSource = mock(PGDataSource.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final NotificationSenderService sender = new NotificationSenderService(dataSource, objectMapper, meterRegistry);
+
+    @Test
+    void deltasAreMergedSplitAndNumbered() {
+        var embeddingIds = Stream.generate(UUID::randomUUID).limit(250).toList();
+
+        var deltas = sender.coalesce(List.of(
+                delta(CacheActionDto.REMOVE_EMBEDDINGS).embeddingIds(embeddingIds.subList(0, 200)).build(),
+                delta(CacheActionDto.REMOVE_EMBEDDINGS).embeddingIds(embeddingIds.subList(200, 250)).build(),
+                delta(CacheActionDto.RENAME_SUBJECT).subjectName("A").newSubjectName("B").build()
+        ));
+
+        assertThat(deltas).extracting(CacheActionDto::getSequence).containsExactly(1L, 2L, 3L);
+        assertThat(deltas.get(0).getEmbeddingIds()).isEqualTo(embeddingIds.subList(0, NotificationSenderService.DELTA_MAX_IDS));
+        assertThat(deltas.get(1).getEmbeddingIds()).isEqualTo(embeddingIds.subList(NotificationSenderService.DELTA_MAX_IDS, 250));
+        assertThat(deltas.get(2).getCacheAction()).isEqualTo(CacheActionDto.RENAME_SUBJECT);
+        assertThat(deltas).allSatisfy(delta -> assertThat(json(delta).length()).isLessThan(8000));
+
+        var next = sender.coalesce(List.of(delta(CacheActionDto.REMOVE_SUBJECT).subjectName("B").build()));
+        assertThat(next.get(0).getSequence()).isEqualTo(4L);
+    }
+
+    @Test
+    void reloadSupersedesPreviousActions() {
+        var actions = sender.coalesce(List.of(
+                delta(CacheActionDto.ADD_EMBEDDINGS).embeddingIds(List.of(UUID.randomUUID())).build(),
+                new CacheActionDto(CacheActionDto.UPDATE, API_KEY, SERVER_UUID),
+                new CacheActionDto(CacheActionDto.UPDATE, API_KEY, SERVER_UUID),
+                new CacheActionDto(CacheActionDto.UPDATE, "another_key", SERVER_UUID),
+                delta(CacheActionDto.REMOVE_SUBJECT).subjectName("A").build()
+        ));
+
+        assertThat(actions).extracting(CacheActionDto::getApiKey, CacheActionDto::getCacheAction, CacheActionDto::getSequence)
+                           .containsExactly(
+                                   tuple(API_KEY, CacheActionDto.UPDATE, null),
+                                   tuple(API_KEY, CacheActionDto.REMOVE_SUBJECT, 1L),
+                                   tuple("another_key", CacheActionDto.UPDATE, null)
+                           );
+    }
+
+    @Test
+    void sequencesOfDeletedCollectionsAreForgotten() {
+        sender.coalesce(List.of(
+                delta(CacheActionDto.REMOVE_SUBJECT).subjectName("A").build(),
+                CacheActionDto.builder().cacheAction(CacheActionDto.REMOVE_SUBJECT).apiKey("another_key").serverUUID(SERVER_UUID)
+                              .subjectName("A").build()
+        ));
+
+        var actions = sender.coalesce(List.of(
+                delta(CacheActionDto.REMOVE_SUBJECT).subjectName("B").build(),
+                new CacheActionDto(CacheActionDto.DELETE, API_KEY, SERVER_UUID)
+        ));
+
+        assertThat(actions).extracting(CacheActionDto::getCacheAction).containsExactly(CacheActionDto.DELETE);
+        assertThat(sequences()).containsOnlyKeys("another_key");
+    }
+
+    @Test
+    void notificationsAreStampedWithVersionsAndResentOnNewConnection() throws Exception {
+        var broken = connection();
+        var healthy = connection();
+        var versions = mock(ResultSet.class);
+        when(versions.next()).thenReturn(true, false);
+        when(versions.getString(1)).thenReturn(API_KEY);
+        when(versions.getLong(2)).thenReturn(7L);
+        when(healthy.prepareStatement("").executeQuery()).thenReturn(versions);
+        when(broken.prepareStatement(anyString())).thenThrow(new SQLException("connection is closed"));
+        when(dataSource.getConnection()).thenReturn(broken, healthy);
+
+        sender.setUp();
+        sender.notifyCacheChange(new CacheActionDto(CacheActionDto.UPDATE, API_KEY, SERVER_UUID));
+
+        var statement = healthy.prepareStatement("");
+        verify(statement, timeout(5000)).execute();
+        verify(broken).close();
+        var arrays = ArgumentCaptor.forClass(Object[].class);
+        verify(healthy, times(2)).createArrayOf(eq("text"), arrays.capture());
+        assertThat(arrays.getAllValues().get(0)).containsExactly(API_KEY);
+        assertThat(parse((String) arrays.getAllValues().get(1)[0]).getVersion()).isEqualTo(7L);
+        sender.shutdown();
+        assertThat(meterRegistry.counter("embedding.cache.notifications.sent").count()).isEqualTo(1);
+        assertThat(meterRegistry.get("embedding.cache.notifications.pending").gauge().value()).isZero();
+    }
+
+    @Test
+    void versionIsNotBumpedAfterLoad() throws Exception {
+        var connection = connection();
+        var versions = mock(ResultSet.class);
+        when(versions.next()).thenReturn(true, false);
+        when(versions.getString(1)).thenReturn(API_KEY);
+        when(versions.getLong(2)).thenReturn(5L);
+        when(connection.prepareStatement("").executeQuery()).thenReturn(versions);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        sender.setUp();
+        sender.notifyCacheChange(loaded(API_KEY));
+
+        verify(connection.prepareStatement(""), timeout(5000)).execute();
+        verify(connection).prepareStatement(startsWith("SELECT api_key, collection_version"));
+        verify(connection, never()).prepareStatement(startsWith("UPDATE"));
+        var arrays = ArgumentCaptor.forClass(Object[].class);
+        verify(connection, times(2)).createArrayOf(eq("text"), arrays.capture());
+        assertThat(parse((String) arrays.getAllValues().get(1)[0]).getVersion()).isEqualTo(5L);
+        sender.shutdown();
+    }
+
+    @Test
+    void loadDoesNotCancelBumpOfChanges() {
+        var actions = sender.coalesce(List.of(
+                delta(CacheActionDto.REMOVE_SUBJECT).subjectName("A").build(),
+                loaded(API_KEY),
+                loaded("another_key")
+        ));
+
+        assertThat(actions).extracting(CacheActionDto::getApiKey, CacheActionDto::isLoadOnly)
+                           .containsExactly(tuple(API_KEY, false), tuple("another_key", true));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> sequences() {
+        return (Map<String, Long>) ReflectionTestUtils.getField(sender, "sequences");
+    }
+
+    @SneakyThrows
+    private static Connection connection() {
+        var connection = mock(Connection.class);
+        var statement = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(mock(ResultSet.class));
+        when(connection.createArrayOf(eq("text"), any())).thenReturn(mock(Array.class));
+        return connection;
+    }
+
+    @SneakyThrows
+    private String json(final CacheActionDto action) {
+        return objectMapper.writeValueAsString(action);
+    }
+
+    @SneakyThrows
+    private CacheActionDto parse(final String payload) {
+        return objectMapper.readValue(payload, CacheActionDto.class);
+    }
+
+    private static CacheActionDto loaded(final String apiKey) {
+        return CacheActionDto.builder().cacheAction(CacheActionDto.UPDATE).apiKey(apiKey).serverUUID(SERVER_UUID).loadOnly(true).build();
+    }
+
+    private static CacheActionDto.CacheActionDtoBuilder delta(final String action) {
+        return CacheActionDto.builder().cacheAction(action).apiKey(API_KEY).serverUUID(SERVER_UUID);
+    }
+}
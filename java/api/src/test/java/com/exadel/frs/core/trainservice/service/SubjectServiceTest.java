@@ -26,6 +26,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -34,6 +35,7 @@ import com.exadel.frs.commonservice.dto.ExecutionTimeDto;
 import com.exadel.frs.commonservice.entity.Embedding;
 import com.exadel.frs.commonservice.entity.Subject;
 import com.exadel.frs.commonservice.exception.IncorrectImageIdException;
+import com.exadel.frs.commonservice.exception.InvalidBase64Exception;
 import com.exadel.frs.commonservice.exception.TooManyFacesException;
 import com.exadel.frs.commonservice.exception.WrongEmbeddingCountException;
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
@@ -46,10 +48,13 @@ import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
 import com.exadel.frs.core.trainservice.component.FaceClassifierPredictor;
 import com.exadel.frs.core.trainservice.component.classifiers.EuclideanDistanceClassifier;
 import com.exadel.frs.core.trainservice.dao.SubjectDao;
+import com.exadel.frs.core.trainservice.dto.EmbeddingInfo;
 import com.exadel.frs.core.trainservice.dto.EmbeddingVerificationProcessResult;
 import com.exadel.frs.core.trainservice.dto.ProcessEmbeddingsParams;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
 import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -63,6 +68,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.mock.web.MockMultipartFile;
@@ -116,7 +122,7 @@ class SubjectServiceTest {
         // verify deleted from DB
         verify(subjectDao).removeAllSubjectEmbeddings(API_KEY, subjectName);
         // verify cache
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).removeEmbeddingsBySubjectName(API_KEY, subjectName);
     }
 
     @Test
@@ -127,21 +133,37 @@ class SubjectServiceTest {
         // verify deleted from DB
         verify(subjectDao).deleteSubjectByName(API_KEY, subjectName);
         // verify cache
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).removeEmbeddingsBySubjectName(API_KEY, subjectName);
     }
 
     @Test
     void testRemoveSubjectEmbedding() {
         var embeddingId = UUID.randomUUID();
 
-        when(subjectDao.removeSubjectEmbedding(API_KEY, embeddingId)).thenReturn(new Embedding());
+        when(subjectDao.removeSubjectEmbedding(API_KEY, embeddingId)).thenReturn(new Embedding().setId(embeddingId));
 
         subjectService.removeSubjectEmbedding(API_KEY, embeddingId);
 
         // verify deleted from DB
         verify(subjectDao).removeSubjectEmbedding(API_KEY, embeddingId);
         // verify cache update attempt
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).removeEmbeddings(API_KEY, List.of(embeddingId));
+    }
+
+    @Test
+    void testRemoveSubjectEmbeddings() {
+        var embeddingId1 = UUID.randomUUID();
+        var embeddingId2 = UUID.randomUUID();
+        var missingId = UUID.randomUUID();
+
+        when(subjectDao.removeSubjectEmbeddings(API_KEY, List.of(embeddingId1, missingId, embeddingId2)))
+                .thenReturn(List.of(new Embedding().setId(embeddingId1), new Embedding().setId(embeddingId2)));
+
+        var removed = subjectService.removeSubjectEmbeddings(API_KEY, List.of(embeddingId1, missingId, embeddingId2));
+
+        assertThat(removed).extracting(Embedding::getId).containsExactly(embeddingId1, embeddingId2);
+        // verify cache is updated once for all the embeddings
+        verify(embeddingCacheProvider, times(1)).removeEmbeddings(API_KEY, List.of(embeddingId1, embeddingId2));
     }
 
     static Stream<Arguments> subjectNamePairsFailed() {
@@ -176,7 +198,7 @@ class SubjectServiceTest {
         assertThat(updated).isTrue();
 
         // verify cache update attempt
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).updateSubjectName(API_KEY, oldSubjectName, newSubjectName);
     }
 
     @Test
@@ -184,17 +206,53 @@ class SubjectServiceTest {
         var subjectName = "subject_name";
         var detProbThreshold = 0.7;
         MultipartFile file = new MockMultipartFile("anyname", new byte[]{0xA});
+        var photo = ArgumentCaptor.forClass(MultipartFile.class);
+        var embeddingInfo = ArgumentCaptor.forClass(EmbeddingInfo.class);
 
-        when(facesApiClient.findFacesWithCalculator(file, MAX_FACES_TO_RECOGNIZE, detProbThreshold, null, true))
+        when(facesApiClient.findFacesWithCalculator(photo.capture(), eq(MAX_FACES_TO_RECOGNIZE), eq(detProbThreshold), eq(null), eq(true)))
                 .thenReturn(findFacesResponse(1));
         when(euclideanDistanceClassifier.normalizeOne(any()))
                 .thenReturn(new double[]{1.1, 2.2});
-        when(subjectDao.addEmbedding(eq(API_KEY), eq(subjectName), any()))
+        when(subjectDao.addEmbedding(eq(API_KEY), eq(subjectName), embeddingInfo.capture()))
                 .thenReturn(Pair.of(new Subject(), new Embedding()));
 
         var pair = subjectService.saveCalculatedEmbedding(file, subjectName, detProbThreshold, API_KEY);
 
         assertThat(pair).isNotNull();
+        // the uploaded file is read once
+        assertThat(photo.getValue().getBytes()).isEqualTo(file.getBytes());
+        assertThat(embeddingInfo.getValue().getSource()).isSameAs(photo.getValue().getBytes());
+    }
+
+    @Test
+    void testSaveCalculatedEmbeddingBase64() throws IOException {
+        var subjectName = "subject_name";
+        var detProbThreshold = 0.7;
+        var image = new byte[]{(byte) 0xCA, (byte) 0xFE};
+        var photo = ArgumentCaptor.forClass(MultipartFile.class);
+        var embeddingInfo = ArgumentCaptor.forClass(EmbeddingInfo.class);
+
+        when(facesApiClient.findFacesWithCalculator(photo.capture(), eq(MAX_FACES_TO_RECOGNIZE), eq(detProbThreshold), eq(null), eq(true)))
+                .thenReturn(findFacesResponse(1));
+        when(euclideanDistanceClassifier.normalizeOne(any()))
+                .thenReturn(new double[]{1.1, 2.2});
+        when(subjectDao.addEmbedding(eq(API_KEY), eq(subjectName), embeddingInfo.capture()))
+                .thenReturn(Pair.of(new Subject(), new Embedding()));
+
+        subjectService.saveCalculatedEmbedding(Base64.getEncoder().encodeToString(image), subjectName, detProbThreshold, API_KEY);
+
+        // the image is sent as multipart bytes, and the same bytes are saved
+        assertThat(photo.getValue().getBytes()).isEqualTo(image);
+        assertThat(embeddingInfo.getValue().getSource()).isSameAs(photo.getValue().getBytes());
+    }
+
+    @Test
+    void invalidBase64IsRejected() {
+        assertThatThrownBy(() ->
+                subjectService.saveCalculatedEmbedding("yv4=yv4=", "subject_name", 0.7, API_KEY)
+        ).isInstanceOf(InvalidBase64Exception.class);
+
+        verifyNoInteractions(facesApiClient, subjectDao);
     }
 
     @Test
@@ -203,7 +261,7 @@ class SubjectServiceTest {
         var detProbThreshold = 0.7;
         MultipartFile file = new MockMultipartFile("anyname", new byte[]{0xA});
 
-        when(facesApiClient.findFacesWithCalculator(file, MAX_FACES_TO_RECOGNIZE, detProbThreshold, null, true))
+        when(facesApiClient.findFacesWithCalculator(any(), eq(MAX_FACES_TO_RECOGNIZE), eq(detProbThreshold), eq(null), eq(true)))
                 .thenReturn(findFacesResponse(3));
 
         assertThatThrownBy(() ->
@@ -0,0 +1,26 @@
+package com.exadel.frs.core.trainservice.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import com.exadel.frs.commonservice.exception.InvalidBase64Exception;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MultipartFileDataTest {
+
+    @Test
+    void whitespaceIsIgnored() {
+        var file = MultipartFileData.fromBase64("aW1h\r\nZ2Ug\n ZGF0 YQ==\t");
+
+        assertThat(new String(file.getBytes(), UTF_8)).isEqualTo("image data");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"aW1h*Z2U=", "aW1h.Z2U=", "aW1hZ2U=aW1h"})
+    void malformedBase64IsRejected(String base64) {
+        assertThatThrownBy(() -> MultipartFileData.fromBase64(base64))
+                .isInstanceOf(InvalidBase64Exception.class);
+    }
+}
@@ -0,0 +1,66 @@
+package com.exadel.frs.core.trainservice.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TopKSelectorTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 100, 1000, 2000})
+    void testLargestMatchesFullSort(int k) {
+        var random = new Random(k);
+        var values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            // a lot of equal values
+            values[i] = random.nextInt(100) / 100.0;
+        }
+
+        var expected = IntStream.range(0, values.length)
+                                .filter(i -> i % 3 != 0)
+                                .boxed()
+                                .sorted(Comparator.<Integer>comparingDouble(i -> values[i]).reversed())
+                                .limit(k)
+                                .mapToInt(i -> i)
+                                .toArray();
+
+        assertThat(TopKSelector.largest(values, k, i -> i % 3 != 0)).containsExactly(expected);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 50, 300})
+    void testMergeOfRangesMatchesSingleSelection(int k) {
+        var random = new Random(k);
+        var values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(100) / 100.0;
+        }
+
+        var ranges = new int[][]{
+                TopKSelector.largest(values, 0, 300, k, i -> i % 3 != 0),
+                TopKSelector.largest(values, 300, 600, k, i -> i % 3 != 0),
+                TopKSelector.largest(values, 600, 1000, k, i -> i % 3 != 0)
+        };
+
+        assertThat(TopKSelector.merge(values, ranges, k)).containsExactly(TopKSelector.largest(values, k, i -> i % 3 != 0));
+    }
+
+    @Test
+    void testSorted() {
+        var values = new double[]{0.1, 0.9, 0.5, 0.9, 0.3};
+
+        assertThat(TopKSelector.sorted(values, i -> true)).containsExactly(1, 3, 2, 4, 0);
+        assertThat(TopKSelector.sorted(values, i -> i != 1)).containsExactly(3, 2, 4, 0);
+    }
+
+    @Test
+    void testNothingToSelect() {
+        assertThat(TopKSelector.largest(new double[0], 1, i -> true)).isEmpty();
+        assertThat(TopKSelector.largest(new double[]{1, 2}, 3, i -> false)).isEmpty();
+        assertThat(TopKSelector.largest(new double[]{1, 2}, 0, i -> true)).isEmpty();
+    }
+}
@@ -56,6 +56,7 @@ public enum CommonExceptionCode implements HttpExceptionCode {
     SUBJECT_NOT_FOUND(42, NOT_FOUND),
     SUBJECT_ALREADY_EXISTS(43, BAD_REQUEST),
     EMBEDDING_NOT_FOUND(44, NOT_FOUND),
+    FACES_SERVICE_UNAVAILABLE(45, SERVICE_UNAVAILABLE),
 
     UNDEFINED(0, BAD_REQUEST);
 
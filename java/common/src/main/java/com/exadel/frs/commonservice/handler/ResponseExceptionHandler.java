@@ -31,6 +31,7 @@ import com.exadel.frs.commonservice.exception.MissingPathVarException;
 import com.exadel.frs.commonservice.exception.MissingRequestParamException;
 import com.exadel.frs.commonservice.exception.MissingRequestPartException;
 import com.exadel.frs.commonservice.exception.PatternMatchException;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceUnavailableException;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.http.HttpHeaders;
@@ -64,6 +65,16 @@ public class ResponseExceptionHandler extends ResponseEntityExceptionHandler {
                 .body(buildBody(ex));
     }
 
+    @ExceptionHandler(FacesServiceUnavailableException.class)
+    public ResponseEntity<ExceptionResponseDto> handleFacesServiceUnavailable(final FacesServiceUnavailableException ex) {
+        log.debug("Request is rejected: {}", ex.getMessage());
+
+        return ResponseEntity
+                .status(ex.getExceptionCode().getHttpStatus())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(buildBody(ex));
+    }
+
     @ExceptionHandler(value = {MissingRequestHeaderException.class})
     public ResponseEntity<ExceptionResponseDto> handleMissingRequestHeader(final MissingRequestHeaderException e) {
         return handleMissingRequestHeader(e.getHeaderName());
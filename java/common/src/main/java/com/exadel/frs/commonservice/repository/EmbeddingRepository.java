@@ -4,7 +4,9 @@ import com.exadel.frs.commonservice.entity.Embedding;
 import com.exadel.frs.commonservice.projection.EmbeddingProjection;
 import com.exadel.frs.commonservice.projection.EnhancedEmbeddingProjection;
 import com.exadel.frs.commonservice.entity.Subject;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Stream;
 import org.springframework.data.domain.Page;
@@ -30,9 +32,44 @@ public interface EmbeddingRepository extends JpaRepository<Embedding, UUID> {
             """)
     Stream<EnhancedEmbeddingProjection> findBySubjectApiKey(@Param("apiKey") String apiKey);
 
+    // Note: consumer should consume in transaction
+    @Query("""
+            select
+                new com.exadel.frs.commonservice.projection.EmbeddingProjection(e.id, s.subjectName)
+            from
+                Embedding e
+            left join
+                e.subject s
+            where
+                s.apiKey = :apiKey
+            """)
+    Stream<EmbeddingProjection> streamBySubjectApiKey(@Param("apiKey") String apiKey);
+
+    @Query("""
+            select
+                new com.exadel.frs.commonservice.projection.EnhancedEmbeddingProjection(e.id, e.embedding, s.subjectName)
+            from
+                Embedding e
+            left join
+                e.subject s
+            where
+                s.apiKey = :apiKey
+            and
+                e.id in :ids
+            """)
+    List<EnhancedEmbeddingProjection> findBySubjectApiKeyAndIdIn(@Param("apiKey") String apiKey, @Param("ids") Collection<UUID> ids);
+
     @EntityGraph("embedding-with-subject")
     List<Embedding> findBySubjectId(UUID subjectId);
 
+    @EntityGraph("embedding-with-subject")
+    @Query("select e from Embedding e where e.subject.apiKey = :apiKey and e.id in :ids")
+    List<Embedding> findWithSubjectByApiKeyAndIdIn(@Param("apiKey") String apiKey, @Param("ids") Collection<UUID> ids);
+
+    @Modifying
+    @Query("delete from Embedding e where e.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<UUID> ids);
+
     @Query("select e from Embedding e where e.img is not null and e.calculator <> :calculator")
     List<Embedding> getWithImgAndCalculatorNotEq(@Param("calculator") String calculator);
 
@@ -76,6 +113,22 @@ public interface EmbeddingRepository extends JpaRepository<Embedding, UUID> {
             """)
     Page<EmbeddingProjection> findBySubjectApiKeyAndSubjectName(String apiKey, String subjectName, Pageable pageable);
 
+    /**
+     * Version of embeddings of the model, it is bumped by cache notifications sender after changes of them are committed.
+     */
+    @Query(value = "select collection_version from model where api_key = :apiKey", nativeQuery = true)
+    Optional<Long> getCollectionVersion(@Param("apiKey") String apiKey);
+
+    /**
+     * Version of embedding values of the model, it is bumped once embeddings are recalculated by a new calculator.
+     */
+    @Query(value = "select calculation_version from model where api_key = :apiKey", nativeQuery = true)
+    Optional<Long> getCalculationVersion(@Param("apiKey") String apiKey);
+
+    @Modifying
+    @Query(value = "update model set calculation_version = calculation_version + 1", nativeQuery = true)
+    int bumpCalculationVersions();
+
     @Query("select distinct(e.calculator) from Embedding e")
     List<String> getUniqueCalculators();
 
@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -24,6 +25,10 @@ public interface ImgRepository extends PagingAndSortingRepository<Img, UUID> {
     @Query("delete from Img where id in (select distinct(i.id) from Img i join Embedding e on e.img.id = i.id where e.subject.apiKey = :apiKey)")
     void deleteBySubjectApiKey(@Param("apiKey") String apiKey);
 
+    @Modifying
+    @Query("delete from Img i where i.id in :ids and not exists (select e.id from Embedding e where e.img.id = i.id)")
+    void deleteUnreferencedByIdIn(@Param("ids") Collection<UUID> ids);
+
     @Query("select i from Img i join Embedding e on e.img.id = i.id where e.id = :embeddingId and e.subject.apiKey = :apiKey")
     Optional<Img> getImgByEmbeddingId(@Param("apiKey") String apiKey, @Param("embeddingId") UUID embeddingId);
 
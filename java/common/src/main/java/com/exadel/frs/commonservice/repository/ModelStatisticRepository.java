@@ -1,12 +1,14 @@
 package com.exadel.frs.commonservice.repository;
 
 import com.exadel.frs.commonservice.entity.ModelStatistic;
+import com.exadel.frs.commonservice.enums.ModelType;
 import com.exadel.frs.commonservice.projection.ModelStatisticProjection;
 import java.time.LocalDateTime;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
@@ -33,4 +35,22 @@ public interface ModelStatisticRepository extends JpaRepository<ModelStatistic,
                 cast(statistic.createdDate as date) desc
             """)
     List<ModelStatisticProjection> findAllSummarizedByDay(String modelGuid, Date startDate, Date endDate);
+
+    @Query("""
+            select
+                model.apiKey
+            from
+                ModelStatistic as statistic
+            join
+                statistic.model as model
+            where
+                model.type = :type
+            and
+                statistic.createdDate >= :since
+            group by
+                model.apiKey
+            order by
+                sum(statistic.requestCount) desc
+            """)
+    List<String> findMostRequestedApiKeys(ModelType type, LocalDateTime since, Pageable pageable);
 }
@@ -0,0 +1,45 @@
+package com.exadel.frs.commonservice.sdk.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Admission control of calls to Faces API, see {@link com.exadel.frs.commonservice.sdk.faces.limiter.FacesCallLimiter}.
+ * The limits are global, they are not applied per endpoint or per instance.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "app.faces.limiter")
+@Data
+public class FacesLimiterProperties {
+
+    /**
+     * Calls in flight, before the limit is adapted to observed latency.
+     */
+    private int initialLimit = 8;
+
+    private int minLimit = 1;
+
+    private int maxLimit = 64;
+
+    /**
+     * Calls waiting for admission. Further calls are rejected at once.
+     */
+    private int maxQueue = 100;
+
+    /**
+     * Calls, which are not admitted in time, are rejected.
+     */
+    private Duration queueTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Consecutive failures, which open the circuit.
+     */
+    private int failureThreshold = 5;
+
+    /**
+     * While the circuit is open, calls are rejected. Then a single probe call is let through.
+     */
+    private Duration openDuration = Duration.ofSeconds(10);
+}
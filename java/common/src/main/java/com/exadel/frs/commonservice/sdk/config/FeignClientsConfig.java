@@ -16,13 +16,12 @@
 
 package com.exadel.frs.commonservice.sdk.config;
 
-import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
 import static com.zaxxer.hikari.util.ClockSource.toMillis;
-import static feign.Logger.Level.FULL;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import com.exadel.frs.commonservice.sdk.faces.balancer.FacesLoadBalancer;
 import com.exadel.frs.commonservice.sdk.faces.feign.FacesFeignClient;
-import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
 import feign.Feign;
+import feign.Logger;
 import feign.Request;
 import feign.Retryer;
 import feign.form.spring.SpringFormEncoder;
@@ -46,17 +45,22 @@ public class FeignClientsConfig {
     @Value("${app.feign.faces.retryer.max-attempts}")
     private int facesRetryerMaxAttempts;
 
-    private final EnvironmentProperties properties;
+    // HEADERS and FULL levels buffer whole responses
+    @Value("${app.feign.faces.log-level:NONE}")
+    private Logger.Level facesLogLevel;
+
+    private final FacesLoadBalancer balancer;
 
     @Bean
     public FacesFeignClient facesFeignClient() {
         return Feign.builder()
                     .encoder(new SpringFormEncoder(new JacksonEncoder()))
                     .decoder(new JacksonDecoder())
-                    .logLevel(FULL)
+                    .logLevel(facesLogLevel)
                     .retryer(facesFeignRetryer())
                     .options(new Request.Options(facesConnectTimeout, MILLISECONDS, facesReadTimeout, MILLISECONDS, true))
-                    .target(FacesFeignClient.class, properties.getServers().get(PYTHON).getUrl());
+                    // calls go to endpoints chosen by the balancer, the first one is the default
+                    .target(FacesFeignClient.class, balancer.getEndpoints().get(0));
     }
 
     @Bean
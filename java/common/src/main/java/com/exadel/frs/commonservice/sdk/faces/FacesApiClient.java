@@ -2,10 +2,14 @@ package com.exadel.frs.commonservice.sdk.faces;
 
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import org.springframework.web.multipart.MultipartFile;
 
 /**
  * Interface representing Client for Faces API.
+ * <p>
+ * Async methods don't block the caller, if the implementation is non-blocking. By default they call blocking methods.
  */
 public interface FacesApiClient {
 
@@ -67,4 +71,60 @@ public interface FacesApiClient {
      * @return result of operation
      */
     FacesStatusResponse getStatus();
+
+    /**
+     * Async version of {@link #findFaces}
+     */
+    default CompletableFuture<FindFacesResponse> findFacesAsync(
+            MultipartFile photo,
+            Integer faceLimit,
+            Double thresholdC,
+            String facePlugins,
+            Boolean detectFaces) {
+        return completed(() -> findFaces(photo, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    /**
+     * Async version of {@link #findFacesBase64}
+     */
+    default CompletableFuture<FindFacesResponse> findFacesBase64Async(
+            String imageAsBase64,
+            Integer faceLimit,
+            Double thresholdC,
+            String facePlugins,
+            Boolean detectFaces) {
+        return completed(() -> findFacesBase64(imageAsBase64, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    /**
+     * Async version of {@link #findFacesWithCalculator}
+     */
+    default CompletableFuture<FindFacesResponse> findFacesWithCalculatorAsync(
+            MultipartFile photo,
+            Integer faceLimit,
+            Double thresholdC,
+            String facePlugins,
+            Boolean detectFaces) {
+        return completed(() -> findFacesWithCalculator(photo, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    /**
+     * Async version of {@link #findFacesBase64WithCalculator}
+     */
+    default CompletableFuture<FindFacesResponse> findFacesBase64WithCalculatorAsync(
+            String imageAsBase64,
+            Integer faceLimit,
+            Double thresholdC,
+            String facePlugins,
+            Boolean detectFaces) {
+        return completed(() -> findFacesBase64WithCalculator(imageAsBase64, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    private static <T> CompletableFuture<T> completed(final Supplier<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -0,0 +1,250 @@
+package com.exadel.frs.commonservice.sdk.faces.balancer;
+
+import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Spreads calls over instances of Faces API, listed comma-separated in the url of PYTHON server.
+ * <p>
+ * Of two random available endpoints, the one with fewer outstanding calls is chosen. An endpoint is ejected
+ * after several consecutive failures, until a health check of its /status succeeds or the ejection expires.
+ * Health checks run periodically, if there are several endpoints. If all endpoints are ejected, calls are
+ * spread over all of them: it's better to try, than to fail every call.
+ */
+@Slf4j
+@Component
+public class FacesLoadBalancer {
+
+    private static final String STATUS = "/status";
+
+    private final List<Endpoint> endpoints;
+    private final int failuresToEject;
+    private final Duration ejectionDuration;
+    private final Duration healthCheckTimeout;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService healthChecks;
+
+    public FacesLoadBalancer(
+            final EnvironmentProperties properties,
+            final MeterRegistry meterRegistry,
+            @Value("${app.faces.balancer.health-check-period:10s}") final Duration healthCheckPeriod,
+            @Value("${app.faces.balancer.failures-to-eject:3}") final int failuresToEject,
+            @Value("${app.faces.balancer.ejection-duration:30s}") final Duration ejectionDuration
+    ) {
+        this.endpoints = Arrays.stream(properties.getServers().get(PYTHON).getUrl().split(","))
+                               .map(String::trim)
+                               .filter(StringUtils::isNotBlank)
+                               .map(url -> StringUtils.removeEnd(url, "/"))
+                               .map(Endpoint::new)
+                               .toList();
+        if (endpoints.isEmpty()) {
+            throw new IllegalStateException("No url of Faces API is configured");
+        }
+        this.failuresToEject = failuresToEject;
+        this.ejectionDuration = ejectionDuration;
+        this.healthCheckTimeout = healthCheckPeriod;
+        this.httpClient = HttpClient.newBuilder()
+                                    .version(HttpClient.Version.HTTP_1_1)
+                                    .connectTimeout(healthCheckPeriod)
+                                    .build();
+
+        for (var endpoint : endpoints) {
+            Gauge.builder("faces.endpoint.outstanding", endpoint.outstanding, AtomicInteger::get)
+                 .tag("endpoint", endpoint.url)
+                 .description("Calls to the instance of Faces API in flight")
+                 .register(meterRegistry);
+            Gauge.builder("faces.endpoint.available", endpoint, value -> value.isAvailable(System.nanoTime()) ? 1 : 0)
+                 .tag("endpoint", endpoint.url)
+                 .register(meterRegistry);
+        }
+
+        if (endpoints.size() > 1) {
+            healthChecks = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "faces-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            healthChecks.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckPeriod.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            healthChecks = null;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (healthChecks != null) {
+            healthChecks.shutdownNow();
+        }
+    }
+
+    public List<String> getEndpoints() {
+        return endpoints.stream().map(endpoint -> endpoint.url).toList();
+    }
+
+    /**
+     * Makes the call to the chosen endpoint. {@link FacesServiceException} counts as failure of the endpoint.
+     */
+    public <T> T call(final Function<URI, T> call) {
+        var endpoint = choose();
+        endpoint.outstanding.incrementAndGet();
+        try {
+            T result = call.apply(endpoint.uri);
+            succeeded(endpoint);
+            return result;
+        } catch (RuntimeException e) {
+            completed(endpoint, e);
+            throw e;
+        } finally {
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * Makes the call to the chosen endpoint without blocking the caller.
+     */
+    public <T> CompletableFuture<T> callAsync(final Function<URI, CompletableFuture<T>> call) {
+        var endpoint = choose();
+        endpoint.outstanding.incrementAndGet();
+        CompletableFuture<T> result;
+        try {
+            result = call.apply(endpoint.uri);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        return result.whenComplete((value, error) -> {
+            endpoint.outstanding.decrementAndGet();
+            if (error == null) {
+                succeeded(endpoint);
+            } else {
+                completed(endpoint, error);
+            }
+        });
+    }
+
+    /**
+     * Power of two choices: two random endpoints are compared, which avoids herding on a single least loaded one.
+     */
+    private Endpoint choose() {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+
+        long now = System.nanoTime();
+        var available = endpoints.stream().filter(endpoint -> endpoint.isAvailable(now)).toList();
+        var candidates = available.isEmpty() ? endpoints : available;
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        var random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        var a = candidates.get(first);
+        var b = candidates.get(second);
+
+        return a.outstanding.get() <= b.outstanding.get() ? a : b;
+    }
+
+    private void succeeded(final Endpoint endpoint) {
+        endpoint.failures.set(0);
+        endpoint.ejected = false;
+    }
+
+    /**
+     * Ejects the endpoint after several consecutive failures. Once ejection expires, a single failure ejects it again.
+     */
+    private void completed(final Endpoint endpoint, final Throwable error) {
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof NoFacesFoundException) {
+            // the endpoint responded
+            succeeded(endpoint);
+            return;
+        }
+        if (!(cause instanceof FacesServiceException)) {
+            return;
+        }
+
+        int failures = endpoint.failures.incrementAndGet();
+        if (endpoints.size() > 1 && failures >= failuresToEject && endpoint.isAvailable(System.nanoTime())) {
+            if (!endpoint.ejected) {
+                log.warn("{} failed {} times in a row, it is ejected for {}", endpoint.url, failures, ejectionDuration);
+            }
+            endpoint.eject(ejectionDuration);
+        }
+    }
+
+    private void checkHealth() {
+        for (var endpoint : endpoints) {
+            var request = HttpRequest.newBuilder(URI.create(endpoint.url + STATUS))
+                                     .timeout(healthCheckTimeout)
+                                     .GET()
+                                     .build();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                      .whenComplete((response, error) -> {
+                          if (error == null && response.statusCode() / 100 == 2) {
+                              if (endpoint.ejected) {
+                                  log.info("{} is healthy again", endpoint.url);
+                              }
+                              succeeded(endpoint);
+                          } else {
+                              if (!endpoint.ejected) {
+                                  log.warn("Health check of {} failed: {}", endpoint.url, error != null ? error.toString() : response.statusCode());
+                              }
+                              endpoint.eject(ejectionDuration);
+                          }
+                      });
+        }
+    }
+
+    private static final class Endpoint {
+
+        private final String url;
+        private final URI uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile boolean ejected;
+        private volatile long ejectedUntil;
+
+        private Endpoint(final String url) {
+            this.url = url;
+            this.uri = URI.create(url);
+        }
+
+        private void eject(final Duration duration) {
+            ejectedUntil = System.nanoTime() + duration.toNanos();
+            ejected = true;
+        }
+
+        private boolean isAvailable(final long now) {
+            return !ejected || now - ejectedUntil >= 0;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.exadel.frs.commonservice.sdk.faces.cache;
+
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Responses of Faces API with calculated embeddings, keyed by SHA-256 of the image, parameters of the call
+ * and version of the calculator, so an image sent again is not processed again.
+ * <p>
+ * Responses are kept serialized: their weight is known exactly, and every hit gets its own copy,
+ * which may be changed by the caller. The version of the calculator is the one of the latest response
+ * or status, so responses of a replaced calculator are not used and expire.
+ */
+@Slf4j
+@Component
+public class FacesResponseCache {
+
+    private static final String ALGORITHM = "SHA-256";
+    // key, entry and array headers
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final boolean enabled;
+    private final ObjectMapper objectMapper;
+    private final Cache<Key, byte[]> cache;
+
+    private volatile String calculatorVersion;
+
+    public FacesResponseCache(
+            final MeterRegistry meterRegistry,
+            @Value("${app.faces.cache.enabled:false}") final boolean enabled,
+            @Value("${app.faces.cache.max-size:64MB}") final DataSize maxSize,
+            @Value("${app.faces.cache.ttl:10m}") final Duration ttl
+    ) {
+        this.enabled = enabled;
+        this.objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.cache = Caffeine.newBuilder()
+                             .maximumWeight(maxSize.toBytes())
+                             .weigher((Key key, byte[] response) -> response.length + ENTRY_OVERHEAD)
+                             .expireAfterWrite(ttl)
+                             .recordStats()
+                             .build();
+        if (enabled) {
+            // faces.responses.gets{result=hit|miss}, .evictions, .size
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "faces.responses");
+            log.info("Responses of Faces API are cached for {}, up to {} MB", ttl, maxSize.toMegabytes());
+        }
+    }
+
+    /**
+     * Returns the cached response for the same image and parameters, or makes the call and caches its response.
+     */
+    public FindFacesResponse get(
+            final MultipartFile photo,
+            final Integer faceLimit,
+            final Double thresholdC,
+            final String facePlugins,
+            final Boolean detectFaces,
+            final Supplier<FindFacesResponse> call
+    ) {
+        var key = key(photo, faceLimit, thresholdC, facePlugins, detectFaces);
+        if (key == null) {
+            return call.get();
+        }
+
+        var cached = find(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var response = call.get();
+        put(key, response);
+
+        return response;
+    }
+
+    /**
+     * Async version of {@link #get}, the response is cached once it is received.
+     */
+    public CompletableFuture<FindFacesResponse> getAsync(
+            final MultipartFile photo,
+            final Integer faceLimit,
+            final Double thresholdC,
+            final String facePlugins,
+            final Boolean detectFaces,
+            final Supplier<CompletableFuture<FindFacesResponse>> call
+    ) {
+        var key = key(photo, faceLimit, thresholdC, facePlugins, detectFaces);
+        if (key == null) {
+            return call.get();
+        }
+
+        var cached = find(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return call.get().thenApply(response -> {
+            put(key, response);
+            return response;
+        });
+    }
+
+    /**
+     * Remembers the version of the calculator, reported by status of Faces API.
+     */
+    public void calculatorVersion(final String version) {
+        if (version != null) {
+            calculatorVersion = version;
+        }
+    }
+
+    private FindFacesResponse find(final Key key) {
+        var response = cache.getIfPresent(key);
+        if (response == null) {
+            return null;
+        }
+
+        try {
+            return objectMapper.readValue(response, FindFacesResponse.class);
+        } catch (IOException e) {
+            log.warn("Couldn't read cached response of Faces API: {}", e.getMessage());
+            cache.invalidate(key);
+            return null;
+        }
+    }
+
+    private void put(final Key key, final FindFacesResponse response) {
+        if (response == null || response.getPluginsVersions() == null || response.getPluginsVersions().getCalculator() == null) {
+            return;
+        }
+
+        var version = response.getPluginsVersions().getCalculator();
+        calculatorVersion(version);
+        try {
+            cache.put(key.withCalculatorVersion(version), objectMapper.writeValueAsBytes(response));
+        } catch (IOException e) {
+            log.warn("Couldn't cache response of Faces API: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return key of the call, or null, if the call should not be cached
+     */
+    private Key key(final MultipartFile photo, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        if (!enabled) {
+            return null;
+        }
+
+        String hash;
+        try {
+            hash = hash(photo);
+        } catch (IOException e) {
+            log.warn("Couldn't read image to look up cached response: {}", e.getMessage());
+            return null;
+        }
+
+        return new Key(hash, faceLimit, thresholdC, facePlugins, detectFaces, calculatorVersion);
+    }
+
+    /**
+     * The image is read in small chunks, so an uploaded file is not loaded onto heap.
+     */
+    private static String hash(final MultipartFile photo) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (InputStream content = new DigestInputStream(photo.getInputStream(), digest)) {
+            content.transferTo(OutputStream.nullOutputStream());
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private record Key(
+            String hash,
+            Integer faceLimit,
+            Double thresholdC,
+            String facePlugins,
+            Boolean detectFaces,
+            String calculatorVersion
+    ) {
+
+        private Key withCalculatorVersion(final String version) {
+            return new Key(hash, faceLimit, thresholdC, facePlugins, detectFaces, version);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.commonservice.sdk.faces.exception;
+
+import com.exadel.frs.commonservice.exception.BasicException;
+import lombok.Getter;
+
+import static com.exadel.frs.commonservice.handler.CommonExceptionCode.FACES_SERVICE_UNAVAILABLE;
+import static java.lang.String.format;
+
+/**
+ * Request is rejected without calling Faces API, because the service is overloaded or failing.
+ */
+@Getter
+public class FacesServiceUnavailableException extends BasicException {
+
+    private static final String MESSAGE = "Faces service is unavailable: %s, retry later";
+
+    private final long retryAfterSeconds;
+
+    public FacesServiceUnavailableException(final String reason, final long retryAfterSeconds) {
+        super(FACES_SERVICE_UNAVAILABLE, format(MESSAGE, reason));
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    public LogLevel getLogLevel() {
+        return LogLevel.DEBUG;
+    }
+}
@@ -22,6 +22,7 @@ import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
 import feign.Headers;
 import feign.Param;
 import feign.RequestLine;
+import java.net.URI;
 import org.springframework.http.MediaType;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -57,4 +58,41 @@ public interface FacesFeignClient {
     @RequestLine("GET /status")
     @Headers("Content-Type: multipart/form-data")
     FacesStatusResponse getStatus();
+
+    /*
+     * Same calls to the given endpoint instead of the default one
+     */
+
+    @RequestLine("POST /find_faces")
+    @Headers("Content-Type: multipart/form-data")
+    FindFacesResponse findFaces(
+            URI endpoint,
+            @Param(value = "file")
+            MultipartFile photo,
+            @Param(value = "limit")
+            Integer faceLimit,
+            @Param(value = "det_prob_threshold")
+            Double thresholdC,
+            @Param(value = "face_plugins")
+            String facePlugins,
+            @Param(value = "detect_faces")
+            Boolean detectFaces);
+
+    @RequestLine("POST /find_faces_base64?limit={limit}&det_prob_threshold={threshold}&face_plugins={plugins}&detect_faces={detect_faces}")
+    @Headers("Content-Type: " + MediaType.APPLICATION_JSON_VALUE)
+    FindFacesResponse findFacesBase64(
+            URI endpoint,
+            FindFacesRequest request,
+            @Param(value = "limit")
+            Integer faceLimit,
+            @Param(value = "threshold")
+            Double thresholdC,
+            @Param(value = "plugins")
+            String facePlugins,
+            @Param(value = "detect_faces")
+            Boolean detectFaces);
+
+    @RequestLine("GET /status")
+    @Headers("Content-Type: multipart/form-data")
+    FacesStatusResponse getStatus(URI endpoint);
 }
@@ -0,0 +1,329 @@
+package com.exadel.frs.commonservice.sdk.faces.limiter;
+
+import com.exadel.frs.commonservice.sdk.config.FacesLimiterProperties;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceUnavailableException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission control of calls to Faces API.
+ * <p>
+ * The number of calls in flight is limited. The limit follows observed latency: it grows, while latency stays close
+ * to its long-term average, and shrinks, once latency grows or calls fail. Calls above the limit wait in a bounded
+ * queue for a limited time, otherwise they are rejected at once with {@link FacesServiceUnavailableException}.
+ * After several consecutive failures the circuit opens: calls are rejected, until a probe call succeeds.
+ * <p>
+ * A single limiter is shared by all calls, whatever endpoint they go to and whichever instance serves them:
+ * the limit, the queue and the circuit are global. Latency of the endpoints is averaged together, so slow calls
+ * (e.g. of big images) shrink the limit for the fast ones too, and failures of one endpoint open the circuit for all.
+ */
+@Slf4j
+@Component
+public class FacesCallLimiter {
+
+    // latency growth, which is tolerated before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+    // number of calls, over which the long-term latency is averaged
+    private static final int LONG_WINDOW = 100;
+
+    private enum Circuit {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private enum Outcome {
+        SUCCESS, FAILURE, IGNORED
+    }
+
+    private final FacesLimiterProperties properties;
+    private final ScheduledExecutorService timer;
+    private final Counter queueFull;
+    private final Counter queueTimeout;
+    private final Counter circuitOpen;
+
+    // guarded by this
+    private double limit;
+    private double longRtt;
+    private int inFlight;
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private Circuit circuit = Circuit.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probing;
+
+    public FacesCallLimiter(final FacesLimiterProperties properties, final MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.limit = properties.getInitialLimit();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "faces-call-limiter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queueFull = rejected(meterRegistry, "queue_full");
+        this.queueTimeout = rejected(meterRegistry, "queue_timeout");
+        this.circuitOpen = rejected(meterRegistry, "circuit_open");
+        Gauge.builder("faces.calls.limit", this, FacesCallLimiter::getLimit)
+             .description("Calls to Faces API, which may be in flight")
+             .register(meterRegistry);
+        Gauge.builder("faces.calls.inflight", this, FacesCallLimiter::getInFlight)
+             .register(meterRegistry);
+        Gauge.builder("faces.calls.queued", this, FacesCallLimiter::getQueued)
+             .register(meterRegistry);
+        Gauge.builder("faces.calls.circuit.open", this, limiter -> limiter.isCircuitClosed() ? 0 : 1)
+             .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Makes the call, once it is admitted.
+     *
+     * @throws FacesServiceUnavailableException if the call is not admitted
+     */
+    public <T> T call(final Supplier<T> call) {
+        Permit permit;
+        try {
+            permit = acquire().join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+
+        try {
+            T result = call.get();
+            release(permit, Outcome.SUCCESS);
+            return result;
+        } catch (RuntimeException e) {
+            release(permit, outcomeOf(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Makes the call, once it is admitted, without blocking the caller.
+     * The result fails with {@link FacesServiceUnavailableException}, if the call is not admitted.
+     */
+    public <T> CompletableFuture<T> callAsync(final Supplier<CompletableFuture<T>> call) {
+        return acquire().thenCompose(permit -> {
+            CompletableFuture<T> result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            return result.whenComplete((value, error) -> release(permit, error == null ? Outcome.SUCCESS : outcomeOf(error)));
+        });
+    }
+
+    public synchronized int getLimit() {
+        return currentLimit();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiting.size();
+    }
+
+    public synchronized boolean isCircuitClosed() {
+        return circuit == Circuit.CLOSED;
+    }
+
+    private synchronized CompletableFuture<Permit> acquire() {
+        if (circuit != Circuit.CLOSED) {
+            if (circuit == Circuit.OPEN && System.nanoTime() - openUntil >= 0) {
+                circuit = Circuit.HALF_OPEN;
+                probing = false;
+            }
+            if (circuit == Circuit.OPEN || probing) {
+                circuitOpen.increment();
+                return CompletableFuture.failedFuture(circuitIsOpen());
+            }
+
+            probing = true;
+            return CompletableFuture.completedFuture(admit(true));
+        }
+
+        if (waiting.isEmpty() && inFlight < currentLimit()) {
+            return CompletableFuture.completedFuture(admit(false));
+        }
+        if (waiting.size() >= properties.getMaxQueue()) {
+            queueFull.increment();
+            return CompletableFuture.failedFuture(new FacesServiceUnavailableException("too many requests are in progress", 1));
+        }
+
+        var waiter = new Waiter(new CompletableFuture<>());
+        waiting.add(waiter);
+        waiter.expiration = timer.schedule(() -> expire(waiter), properties.getQueueTimeout().toMillis(), TimeUnit.MILLISECONDS);
+
+        return waiter.future;
+    }
+
+    private void expire(final Waiter waiter) {
+        synchronized (this) {
+            if (!waiting.remove(waiter)) {
+                return;
+            }
+        }
+
+        queueTimeout.increment();
+        waiter.future.completeExceptionally(new FacesServiceUnavailableException("request is not admitted in time", 1));
+    }
+
+    /**
+     * Adapts the limit and the circuit to the outcome of the call, then admits waiting calls.
+     * Futures are completed outside the lock: completion runs the admitted calls.
+     */
+    private void release(final Permit permit, final Outcome outcome) {
+        var admitted = new ArrayList<Waiter>();
+        var rejected = new ArrayList<Waiter>();
+        var permits = new ArrayList<Permit>();
+        synchronized (this) {
+            inFlight--;
+            long rtt = System.nanoTime() - permit.admittedAt;
+            switch (outcome) {
+                case SUCCESS -> {
+                    consecutiveFailures = 0;
+                    if (permit.probe) {
+                        circuit = Circuit.CLOSED;
+                        probing = false;
+                        log.info("Faces API responds again, circuit is closed");
+                    }
+                    adapt(rtt, inFlight + 1);
+                }
+                case FAILURE -> {
+                    consecutiveFailures++;
+                    limit = Math.max(properties.getMinLimit(), limit * BACKOFF_RATIO);
+                    if (permit.probe || (circuit == Circuit.CLOSED && consecutiveFailures >= properties.getFailureThreshold())) {
+                        open();
+                        rejected.addAll(waiting);
+                        waiting.clear();
+                    }
+                }
+                case IGNORED -> {
+                    if (permit.probe) {
+                        probing = false;
+                    }
+                }
+            }
+
+            while (circuit == Circuit.CLOSED && !waiting.isEmpty() && inFlight < currentLimit()) {
+                admitted.add(waiting.poll());
+                permits.add(admit(false));
+            }
+        }
+
+        for (int i = 0; i < admitted.size(); i++) {
+            var waiter = admitted.get(i);
+            waiter.expiration.cancel(false);
+            if (!waiter.future.complete(permits.get(i))) {
+                release(permits.get(i), Outcome.IGNORED);
+            }
+        }
+        for (var waiter : rejected) {
+            waiter.expiration.cancel(false);
+            circuitOpen.increment();
+            waiter.future.completeExceptionally(circuitIsOpen());
+        }
+    }
+
+    /**
+     * Gradient of latency: the limit shrinks proportionally, if latency exceeds the tolerated growth
+     * of its long-term average, and grows by a square root of itself otherwise. The limit grows
+     * only if it is in use, otherwise there is no evidence that a higher limit is safe.
+     */
+    private void adapt(final long rtt, final int inFlightBefore) {
+        longRtt = longRtt == 0 ? rtt : longRtt + (rtt - longRtt) / LONG_WINDOW;
+        if (longRtt > 2 * rtt) {
+            // latency dropped, e.g. after overload is over, long-term average catches up faster
+            longRtt *= 0.95;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / Math.max(rtt, 1)));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit && inFlightBefore < limit / 2) {
+            return;
+        }
+
+        newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(properties.getMinLimit(), Math.min(properties.getMaxLimit(), newLimit));
+    }
+
+    private void open() {
+        circuit = Circuit.OPEN;
+        openUntil = System.nanoTime() + properties.getOpenDuration().toNanos();
+        probing = false;
+        log.warn("Faces API failed {} times in a row, circuit is open for {}", consecutiveFailures, properties.getOpenDuration());
+    }
+
+    private Permit admit(final boolean probe) {
+        inFlight++;
+        return new Permit(System.nanoTime(), probe);
+    }
+
+    private int currentLimit() {
+        return (int) Math.max(properties.getMinLimit(), Math.floor(limit));
+    }
+
+    private FacesServiceUnavailableException circuitIsOpen() {
+        long retryAfter = TimeUnit.NANOSECONDS.toSeconds(Math.max(0, openUntil - System.nanoTime())) + 1;
+        return new FacesServiceUnavailableException("it failed recently", retryAfter);
+    }
+
+    /**
+     * Faces API failed, if it responded with an error or didn't respond at all. 'No faces found' is a valid response.
+     */
+    private static Outcome outcomeOf(final Throwable error) {
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof NoFacesFoundException) {
+            return Outcome.SUCCESS;
+        }
+        if (cause instanceof FacesServiceException) {
+            return Outcome.FAILURE;
+        }
+
+        return Outcome.IGNORED;
+    }
+
+    private static Counter rejected(final MeterRegistry meterRegistry, final String reason) {
+        return Counter.builder("faces.calls.rejected")
+                      .description("Calls to Faces API, which are rejected without being made")
+                      .tag("reason", reason)
+                      .register(meterRegistry);
+    }
+
+    private record Permit(long admittedAt, boolean probe) {
+    }
+
+    private static final class Waiter {
+
+        private final CompletableFuture<Permit> future;
+        private ScheduledFuture<?> expiration;
+
+        private Waiter(final CompletableFuture<Permit> future) {
+            this.future = future;
+        }
+    }
+}
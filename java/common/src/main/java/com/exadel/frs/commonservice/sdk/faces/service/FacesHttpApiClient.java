@@ -0,0 +1,319 @@
+package com.exadel.frs.commonservice.sdk.faces.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.commonservice.sdk.faces.balancer.FacesLoadBalancer;
+import com.exadel.frs.commonservice.sdk.faces.cache.FacesResponseCache;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesRequest;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.commonservice.sdk.faces.limiter.FacesCallLimiter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Non-blocking client of Faces API. Connections are kept alive and reused, the number of requests in flight
+ * (and so of open connections) is limited, further requests wait in a queue without occupying a thread.
+ * Face searches are admitted by {@link FacesCallLimiter} first, then {@link FacesLoadBalancer} chooses an instance.
+ * Images are streamed from uploaded files, which are spooled to disk by the servlet container.
+ * Responses with calculated embeddings are cached by {@link FacesResponseCache}, if it is enabled.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.faces.client", havingValue = "http")
+public class FacesHttpApiClient implements FacesApiClient {
+
+    private static final String FIND_FACES = "/find_faces";
+    private static final String FIND_FACES_BASE64 = "/find_faces_base64";
+    private static final String STATUS = "/status";
+    private static final String CRLF = "\r\n";
+
+    private final Duration readTimeout;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+    private final FacesCallLimiter limiter;
+    private final FacesLoadBalancer balancer;
+    private final FacesResponseCache cache;
+
+    private final Semaphore connections;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    public FacesHttpApiClient(
+            @Value("${app.feign.faces.connect-timeout}") final int connectTimeout,
+            @Value("${app.feign.faces.read-timeout}") final int readTimeout,
+            @Value("${app.faces.http.max-connections:16}") final int maxConnections,
+            final FacesCallLimiter limiter,
+            final FacesLoadBalancer balancer,
+            final FacesResponseCache cache
+    ) {
+        this.readTimeout = Duration.ofMillis(readTimeout);
+        this.objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "faces-http-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                                    .version(HttpClient.Version.HTTP_1_1)
+                                    .connectTimeout(Duration.ofMillis(connectTimeout))
+                                    .executor(executor)
+                                    .build();
+        this.connections = new Semaphore(Math.max(1, maxConnections));
+        this.limiter = limiter;
+        this.balancer = balancer;
+        this.cache = cache;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public FindFacesResponse findFaces(final MultipartFile photo, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        return join(findFacesAsync(photo, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    @Override
+    public FindFacesResponse findFacesBase64(final String imageAsBase64, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        return join(findFacesBase64Async(imageAsBase64, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    @Override
+    public FindFacesResponse findFacesWithCalculator(final MultipartFile photo, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        return join(findFacesWithCalculatorAsync(photo, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    @Override
+    public FindFacesResponse findFacesBase64WithCalculator(final String imageAsBase64, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        return join(findFacesBase64WithCalculatorAsync(imageAsBase64, faceLimit, thresholdC, facePlugins, detectFaces));
+    }
+
+    @Override
+    public FacesStatusResponse getStatus() {
+        return join(balancer.callAsync(endpoint -> send(
+                HttpRequest.newBuilder(URI.create(endpoint + STATUS))
+                           .timeout(readTimeout)
+                           .GET()
+                           .build(),
+                FacesStatusResponse.class
+        )).thenApply(status -> {
+            cache.calculatorVersion(status.getCalculatorVersion());
+            return status;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<FindFacesResponse> findFacesAsync(final MultipartFile photo, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        var boundary = UUID.randomUUID().toString();
+        var parts = new ArrayList<BodyPublisher>();
+        params(faceLimit, thresholdC, facePlugins, detectFaces).forEach((name, value) -> parts.add(BodyPublishers.ofString(
+                "--" + boundary + CRLF
+                        + "Content-Disposition: form-data; name=\"" + name + "\"" + CRLF + CRLF
+                        + value + CRLF,
+                UTF_8
+        )));
+        var filename = photo.getOriginalFilename() != null && !photo.getOriginalFilename().isBlank()
+                ? photo.getOriginalFilename()
+                : photo.getName();
+        var contentType = photo.getContentType() != null ? photo.getContentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        parts.add(BodyPublishers.ofString("--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename.replace("\"", "%22") + "\"" + CRLF
+                + "Content-Type: " + contentType + CRLF + CRLF, UTF_8));
+        parts.add(content(photo));
+        parts.add(BodyPublishers.ofString(CRLF + "--" + boundary + "--" + CRLF, UTF_8));
+
+        return find(endpoint -> HttpRequest.newBuilder(URI.create(endpoint + FIND_FACES))
+                                           .timeout(readTimeout)
+                                           .header("Content-Type", MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=" + boundary)
+                                           .POST(BodyPublishers.concat(parts.toArray(BodyPublisher[]::new)))
+                                           .build());
+    }
+
+    @Override
+    public CompletableFuture<FindFacesResponse> findFacesBase64Async(final String imageAsBase64, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(new FindFacesRequest(imageAsBase64));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(new IllegalStateException(e));
+        }
+
+        var query = params(faceLimit, thresholdC, facePlugins, detectFaces)
+                .entrySet()
+                .stream()
+                .map(param -> param.getKey() + "=" + URLEncoder.encode(param.getValue(), UTF_8))
+                .collect(Collectors.joining("&"));
+        var path = FIND_FACES_BASE64 + (query.isEmpty() ? "" : "?" + query);
+
+        return find(endpoint -> HttpRequest.newBuilder(URI.create(endpoint + path))
+                                           .timeout(readTimeout)
+                                           .header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                                           .POST(BodyPublishers.ofByteArray(body))
+                                           .build());
+    }
+
+    @Override
+    public CompletableFuture<FindFacesResponse> findFacesWithCalculatorAsync(final MultipartFile photo, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        var plugins = FacesRestApiClient.withCalculatorPlugin(facePlugins);
+        return cache.getAsync(photo, faceLimit, thresholdC, plugins, detectFaces, () -> findFacesAsync(photo, faceLimit, thresholdC, plugins, detectFaces));
+    }
+
+    @Override
+    public CompletableFuture<FindFacesResponse> findFacesBase64WithCalculatorAsync(final String imageAsBase64, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        return findFacesBase64Async(imageAsBase64, faceLimit, thresholdC, FacesRestApiClient.withCalculatorPlugin(facePlugins), detectFaces);
+    }
+
+    /**
+     * Sends the request to an instance of Faces API, once the call is admitted by the limiter.
+     */
+    private CompletableFuture<FindFacesResponse> find(final Function<URI, HttpRequest> request) {
+        return limiter.callAsync(() -> balancer.callAsync(endpoint -> send(request.apply(endpoint), FindFacesResponse.class)));
+    }
+
+    /**
+     * Sends the request, once a connection is available. 400 response means, that no faces are found.
+     * The result is completed in any case, even if the client rejects the request right away.
+     */
+    private <T> CompletableFuture<T> send(final HttpRequest request, final Class<T> type) {
+        var result = new CompletableFuture<T>();
+        waiting.add(() -> {
+            CompletableFuture<HttpResponse<byte[]>> response;
+            try {
+                response = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (RuntimeException e) {
+                log.error("Failed to send request to Faces API", e);
+                connections.release();
+                result.completeExceptionally(failure(request, e));
+                return;
+            }
+
+            response.whenComplete((value, error) -> {
+                connections.release();
+                dispatch();
+                if (error != null) {
+                    var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    result.completeExceptionally(failure(request, cause));
+                } else {
+                    complete(result, request, value, type);
+                }
+            });
+        });
+        dispatch();
+
+        return result;
+    }
+
+    private void dispatch() {
+        while (!waiting.isEmpty() && connections.tryAcquire()) {
+            var call = waiting.poll();
+            if (call == null) {
+                connections.release();
+                continue;
+            }
+            call.run();
+        }
+    }
+
+    private static FacesServiceException failure(final HttpRequest request, final Throwable cause) {
+        return new FacesServiceException(String.format("[%s] during [%s] to [%s]", cause, request.method(), request.uri()));
+    }
+
+    private <T> void complete(final CompletableFuture<T> result, final HttpRequest request, final HttpResponse<byte[]> response, final Class<T> type) {
+        if (response.statusCode() == 400) {
+            result.completeExceptionally(new NoFacesFoundException());
+        } else if (response.statusCode() / 100 != 2) {
+            result.completeExceptionally(new FacesServiceException(String.format(
+                    "[%d] during [%s] to [%s]: [%s]",
+                    response.statusCode(), request.method(), request.uri(), new String(response.body(), UTF_8)
+            )));
+        } else {
+            try {
+                result.complete(objectMapper.readValue(response.body(), type));
+            } catch (IOException e) {
+                result.completeExceptionally(new FacesServiceException(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * The image is streamed from the uploaded file in small chunks, instead of being read onto heap as a whole.
+     * The length is known, so the request is not chunked. The stream is opened anew, if the request is resent.
+     */
+    private static BodyPublisher content(final MultipartFile photo) {
+        if (photo.isEmpty()) {
+            return BodyPublishers.noBody();
+        }
+
+        return BodyPublishers.fromPublisher(BodyPublishers.ofInputStream(() -> {
+            try {
+                return photo.getInputStream();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), photo.getSize());
+    }
+
+    private static Map<String, String> params(final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
+        var params = new LinkedHashMap<String, String>();
+        if (faceLimit != null) {
+            params.put("limit", faceLimit.toString());
+        }
+        if (thresholdC != null) {
+            params.put("det_prob_threshold", thresholdC.toString());
+        }
+        if (facePlugins != null) {
+            params.put("face_plugins", facePlugins);
+        }
+        if (detectFaces != null) {
+            params.put("detect_faces", detectFaces.toString());
+        }
+
+        return params;
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
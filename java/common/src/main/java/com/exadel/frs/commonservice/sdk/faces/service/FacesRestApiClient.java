@@ -1,104 +1,107 @@
 package com.exadel.frs.commonservice.sdk.faces.service;
 
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.commonservice.sdk.faces.balancer.FacesLoadBalancer;
+import com.exadel.frs.commonservice.sdk.faces.cache.FacesResponseCache;
 import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
 import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
 import com.exadel.frs.commonservice.sdk.faces.feign.FacesFeignClient;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesRequest;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.commonservice.sdk.faces.limiter.FacesCallLimiter;
 import com.exadel.frs.commonservice.system.global.Constants;
 import feign.FeignException;
+import java.net.URI;
+import java.util.function.Function;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
 @AllArgsConstructor
 @Component
+@ConditionalOnProperty(name = "app.faces.client", havingValue = "feign", matchIfMissing = true)
 public class FacesRestApiClient implements FacesApiClient {
 
     private static final String COMMA = ",";
 
     private final FacesFeignClient feignClient;
+    private final FacesCallLimiter limiter;
+    private final FacesLoadBalancer balancer;
+    private final FacesResponseCache cache;
 
     @Override
     public FindFacesResponse findFaces(final MultipartFile photo, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
-        try {
-            return feignClient.findFaces(photo, faceLimit, thresholdC, facePlugins, detectFaces);
-        } catch (FeignException.BadRequest ex) {
-            throw new NoFacesFoundException();
-        } catch (FeignException e) {
-            throw new FacesServiceException(e.getMessage());
-        }
+        return call(endpoint -> feignClient.findFaces(endpoint, photo, faceLimit, thresholdC, facePlugins, detectFaces));
     }
 
     @Override
     public FindFacesResponse findFacesBase64(final String imageAsBase64, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
-        try {
-            return feignClient.findFacesBase64(
-                    new FindFacesRequest(imageAsBase64),
-                    faceLimit,
-                    thresholdC,
-                    facePlugins,
-                    detectFaces
-            );
-        } catch (FeignException.BadRequest ex) {
-            throw new NoFacesFoundException();
-        } catch (FeignException e) {
-            throw new FacesServiceException(e.getMessage());
-        }
+        return call(endpoint -> feignClient.findFacesBase64(
+                endpoint,
+                new FindFacesRequest(imageAsBase64),
+                faceLimit,
+                thresholdC,
+                facePlugins,
+                detectFaces
+        ));
     }
 
     @Override
     public FindFacesResponse findFacesWithCalculator(final MultipartFile photo, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
-        return findWithCalculator(photo, null, faceLimit, thresholdC, facePlugins, detectFaces);
+        var plugins = withCalculatorPlugin(facePlugins);
+        return cache.get(photo, faceLimit, thresholdC, plugins, detectFaces, () -> findFaces(photo, faceLimit, thresholdC, plugins, detectFaces));
     }
 
     @Override
     public FindFacesResponse findFacesBase64WithCalculator(final String imageAsBase64, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
-        return findWithCalculator(null, imageAsBase64, faceLimit, thresholdC, facePlugins, detectFaces);
+        return findFacesBase64(imageAsBase64, faceLimit, thresholdC, withCalculatorPlugin(facePlugins), detectFaces);
     }
 
-    private FindFacesResponse findWithCalculator(final MultipartFile photo, final String imageAsBase64, final Integer faceLimit, final Double thresholdC, final String facePlugins, final Boolean detectFaces) {
-        try {
-            String finalFacePlugins;
-            if (StringUtils.isNotBlank(facePlugins)) {
-                if (!facePlugins.contains(Constants.CALCULATOR_PLUGIN)) {
-                    finalFacePlugins = Constants.CALCULATOR_PLUGIN + COMMA + facePlugins;
-                } else {
-                    finalFacePlugins = facePlugins;
-                }
-            } else {
-                finalFacePlugins = Constants.CALCULATOR_PLUGIN;
+    /**
+     * Calls an instance of Faces API, once the call is admitted by the limiter. Retries of Feign happen within
+     * the same admission and go to the same instance.
+     */
+    private FindFacesResponse call(final Function<URI, FindFacesResponse> call) {
+        return limiter.call(() -> balancer.call(endpoint -> {
+            try {
+                return call.apply(endpoint);
+            } catch (FeignException.BadRequest ex) {
+                throw new NoFacesFoundException();
+            } catch (FeignException e) {
+                throw new FacesServiceException(e.getMessage());
             }
+        }));
+    }
 
-            if (photo != null) {
-                return feignClient.findFaces(photo, faceLimit, thresholdC, finalFacePlugins, detectFaces);
-            } else {
-                return feignClient.findFacesBase64(
-                        new FindFacesRequest(imageAsBase64),
-                        faceLimit,
-                        thresholdC,
-                        finalFacePlugins,
-                        detectFaces
-                );
-            }
-        } catch (FeignException.BadRequest ex) {
-            throw new NoFacesFoundException();
-        } catch (FeignException e) {
-            throw new FacesServiceException(e.getMessage());
+    /**
+     * @return face plugins with 'calculator' plugin added, if it is missing
+     */
+    static String withCalculatorPlugin(final String facePlugins) {
+        if (StringUtils.isBlank(facePlugins)) {
+            return Constants.CALCULATOR_PLUGIN;
         }
+        if (facePlugins.contains(Constants.CALCULATOR_PLUGIN)) {
+            return facePlugins;
+        }
+        return Constants.CALCULATOR_PLUGIN + COMMA + facePlugins;
     }
 
     @Override
-    @Cacheable(value = "status", unless = "#result==null")
     public FacesStatusResponse getStatus() {
-        try {
-            return feignClient.getStatus();
-        } catch (FeignException e) {
-            throw new FacesServiceException(e.getMessage());
+        var status = balancer.call(endpoint -> {
+            try {
+                return feignClient.getStatus(endpoint);
+            } catch (FeignException e) {
+                throw new FacesServiceException(e.getMessage());
+            }
+        });
+        if (status != null) {
+            cache.calculatorVersion(status.getCalculatorVersion());
         }
+
+        return status;
     }
 }